@@ -0,0 +1,73 @@
+package com.ferdin.nescpu.bench;
+
+import com.ferdin.nescpu.DemoNES;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DispatchBenchmark {
+    // What a per instruction callback costs: the same countdown loop run
+    // by runWithCallback() with an empty and with a counting callback, and
+    // by run() without one. Scores are ns per instruction.
+    //
+    //   LDX #$00 / loop: INX / BNE loop / BRK
+
+    // LDX, 256 x (INX, BNE), BRK
+    static final int INSTRUCTIONS = 1 + 256 * 2 + 1;
+
+    private static final byte[] PROGRAM = {
+        (byte) 0xA2, 0x00,
+        (byte) 0xE8,
+        (byte) 0xD0, (byte) 0xFD,
+        0x00
+    };
+
+    private DemoNES cpu;
+    private long calls;
+
+    @Setup
+    public void setup() {
+        cpu = new DemoNES();
+        cpu.load(PROGRAM, 0x8000);
+        cpu.reset();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public int noCallback() {
+        cpu.reset();
+        cpu.run();
+        return cpu.registerX;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public int emptyCallback() {
+        cpu.reset();
+        cpu.runWithCallback(c -> { });
+        return cpu.registerX;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public long countingCallback() {
+        cpu.reset();
+        cpu.runWithCallback(c -> calls++);
+        return calls;
+    }
+}
@@ -0,0 +1,29 @@
+package com.ferdin.nescpu.bench;
+
+import com.ferdin.nescpu.DemoNES;
+
+final class Engines {
+    // The values of the `engine` @Param: which execution tier runCycles
+    // goes through.
+    static final String INTERPRETER = "interpreter";
+    static final String BLOCKS = "blocks";      // block cache, no JIT
+    static final String JIT = "jit";
+
+    private Engines() {
+    }
+
+    static void configure(DemoNES cpu, String engine) {
+        switch (engine) {
+            case INTERPRETER:
+                break;
+            case BLOCKS:
+                cpu.enableBlockCache();
+                break;
+            case JIT:
+                cpu.enableJit();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+    }
+}
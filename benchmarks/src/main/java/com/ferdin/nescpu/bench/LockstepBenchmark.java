@@ -0,0 +1,62 @@
+package com.ferdin.nescpu.bench;
+
+import com.ferdin.nescpu.DemoNES;
+import com.ferdin.nescpu.LockstepEngine;
+import com.ferdin.nescpu.TestGame;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LockstepBenchmark {
+    // One snake frame for every lane of a LockstepEngine per invocation.
+    // The lanes share their keys
+    // and half of them their random bytes, so they split and merge like
+    // agents playing the same game would. Any lane dying resets them all.
+
+    private static final byte[] KEYS = {0x77, 0x64, 0x73, 0x61};   // w d s a
+
+    @Param({"64"})
+    public int lanes;
+
+    private LockstepEngine engine;
+    private int frame;
+
+    @Setup
+    public void setup() {
+        engine = new LockstepEngine(lanes);
+        engine.load(TestGame.gameBytes(), TestGame.GAME_START);
+        engine.reset();
+    }
+
+    @Benchmark
+    public DemoNES.RunResult[] frame() {
+        frame++;
+        for (int lane = 0; lane < lanes; lane++) {
+            engine.memWrite(lane, 0xFE, (byte) (lane < lanes / 2 ? frame : frame * 31 + lane));
+            engine.memWrite(lane, 0xFF, KEYS[(frame >> 3) & 3]);
+        }
+        DemoNES.RunResult[] results = engine.runCycles(DemoNES.CYCLES_PER_FRAME);
+        for (DemoNES.RunResult result : results) {
+            if (result != DemoNES.RunResult.BUDGET_EXHAUSTED) {
+                engine.reset();
+                break;
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,82 @@
+package com.ferdin.nescpu.bench;
+
+import com.ferdin.nescpu.DemoNES;
+import com.ferdin.nescpu.RandomDevice;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MemoryBenchmark {
+    // memRead / memReadU16 through the bus, over one page of each region:
+    // plain RAM, a RAM mirror, cartridge space, and a RAM page with a
+    // device hooked on it (every read of the page goes through the hook).
+
+    static final int READS = 256;
+
+    @Param({"ram", "mirror", "cartridge", "hooked"})
+    public String region;
+
+    private DemoNES cpu;
+    private int base;
+
+    @Setup
+    public void setup() {
+        cpu = new DemoNES();
+        for (int i = 0; i < READS; i++) {
+            cpu.memWrite(i, (byte) i);
+        }
+        switch (region) {
+            case "ram":
+                base = 0x0000;
+                break;
+            case "mirror":
+                base = 0x0800;
+                break;
+            case "cartridge":
+                base = 0x8000;
+                break;
+            case "hooked":
+                base = 0x0000;
+                RandomDevice.attach(cpu, 0x00FE, 1);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown region: " + region);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(READS)
+    public int memRead() {
+        int sum = 0;
+        for (int i = 0; i < READS; i++) {
+            sum += cpu.memRead(base + i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(READS)
+    public int memReadU16() {
+        int sum = 0;
+        for (int i = 0; i < READS; i++) {
+            sum += cpu.memReadU16(base + i);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,101 @@
+package com.ferdin.nescpu.bench;
+
+import com.ferdin.nescpu.DemoNES;
+import com.ferdin.nescpu.Instructions;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OpcodeBenchmark {
+    // Time per instruction for one opcode and addressing mode. The program
+    // is REPEAT copies of the instruction followed by a JMP back, and an
+    // invocation runs PASSES times through it, counted in cycles, so the
+    // score is ns per instruction with one JMP in REPEAT mixed in. Long
+    // enough for the JIT tier to run whole compiled blocks.
+    //
+    // Indirect modes read their pointer from $10 / $11, which points at
+    // $0300, and every operand byte in RAM is non-zero.
+
+    static final int REPEAT = 256;
+    static final int PASSES = 16;
+    static final int START = 0x8000;
+
+    @Param({"lda_imm", "lda_zp", "lda_abs", "lda_absx", "lda_indx", "lda_indy",
+            "adc_imm", "adc_zp", "sbc_imm", "sbc_zp",
+            "rol_acc", "rol_zp", "ror_acc", "ror_zp"})
+    public String op;
+
+    @Param({Engines.INTERPRETER, Engines.BLOCKS, Engines.JIT})
+    public String engine;
+
+    private DemoNES cpu;
+    private long budget;
+
+    @Setup
+    public void setup() {
+        int[] instruction = instruction(op);
+        byte[] program = new byte[REPEAT * instruction.length + 3];
+        for (int i = 0; i < REPEAT; i++) {
+            for (int j = 0; j < instruction.length; j++) {
+                program[i * instruction.length + j] = (byte) instruction[j];
+            }
+        }
+        int jmp = REPEAT * instruction.length;
+        program[jmp] = 0x4C;
+        program[jmp + 1] = (byte) START;
+        program[jmp + 2] = (byte) (START >> 8);
+
+        cpu = new DemoNES();
+        Engines.configure(cpu, engine);
+        cpu.load(program, START);
+        cpu.reset();
+        for (int addr = 0x20; addr < 0x800; addr++) {
+            cpu.memWrite(addr, (byte) (addr * 7 + 1));
+        }
+        cpu.memWriteU16(0x10, 0x0300);
+        budget = (long) PASSES * REPEAT * Instructions.TABLE[instruction[0]].cycles;
+    }
+
+    private static int[] instruction(String op) {
+        switch (op) {
+            case "lda_imm":  return new int[]{0xA9, 0x42};
+            case "lda_zp":   return new int[]{0xA5, 0x40};
+            case "lda_abs":  return new int[]{0xAD, 0x00, 0x04};
+            case "lda_absx": return new int[]{0xBD, 0x00, 0x04};
+            case "lda_indx": return new int[]{0xA1, 0x10};
+            case "lda_indy": return new int[]{0xB1, 0x10};
+            case "adc_imm":  return new int[]{0x69, 0x42};
+            case "adc_zp":   return new int[]{0x65, 0x40};
+            case "sbc_imm":  return new int[]{0xE9, 0x42};
+            case "sbc_zp":   return new int[]{0xE5, 0x40};
+            case "rol_acc":  return new int[]{0x2A};
+            case "rol_zp":   return new int[]{0x26, 0x40};
+            case "ror_acc":  return new int[]{0x6A};
+            case "ror_zp":   return new int[]{0x66, 0x40};
+            default:
+                throw new IllegalArgumentException("Unknown op: " + op);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PASSES * REPEAT)
+    public DemoNES.RunResult instruction() {
+        return cpu.runCycles(budget);
+    }
+}
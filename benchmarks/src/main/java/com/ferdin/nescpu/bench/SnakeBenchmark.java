@@ -0,0 +1,56 @@
+package com.ferdin.nescpu.bench;
+
+import com.ferdin.nescpu.DemoNES;
+import com.ferdin.nescpu.RandomDevice;
+import com.ferdin.nescpu.TestGame;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SnakeBenchmark {
+    // The whole snake game from TestGame, one frame (CYCLES_PER_FRAME
+    // cycles) per invocation. Random bytes come from a seeded RandomDevice
+    // and the keys turn the snake every few frames. When it dies the CPU
+    // is reset, which keeps the block cache and compiled code.
+
+    private static final byte[] KEYS = {0x77, 0x64, 0x73, 0x61};   // w d s a
+
+    @Param({Engines.INTERPRETER, Engines.BLOCKS, Engines.JIT})
+    public String engine;
+
+    private DemoNES cpu;
+
+    @Setup
+    public void setup() {
+        cpu = new DemoNES();
+        Engines.configure(cpu, engine);
+        cpu.load(TestGame.gameBytes(), TestGame.GAME_START);
+        RandomDevice.attach(cpu, 0xFE, 1);
+        cpu.reset();
+    }
+
+    @Benchmark
+    public DemoNES.RunResult frame() {
+        cpu.memWrite(0xFF, KEYS[(int) (cpu.frameCount >> 3) & 3]);
+        DemoNES.RunResult result = cpu.runFrame();
+        if (result != DemoNES.RunResult.BUDGET_EXHAUSTED) {
+            cpu.reset();
+        }
+        return result;
+    }
+}
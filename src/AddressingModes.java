@@ -1,13 +0,0 @@
-public class AddressingModes {
-    // All the addressing modes will be defined here.
-    enum AddressingMode {
-        IMMEDIATE,
-        ZERO_PAGE,
-        ZERO_PAGE_X,
-        ABSOLUTE,
-        ABSOLUTE_X,
-        ABSOLUTE_Y,
-        INDIRECT_X,
-        INDIRECT_Y
-    }
-}
@@ -1,3 +0,0 @@
-public class Instruction {
-    // Single data structure to hold all the information about an instruction.
-}
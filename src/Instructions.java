@@ -1,3 +0,0 @@
-public class Instructions {
-    // All the flags will be defined here.
-}
@@ -0,0 +1,84 @@
+package com.ferdin.nescpu;
+
+public final class AddressingModes {
+    // All the addressing modes are resolved here.
+    // Every method takes the operand bytes that were already fetched by the
+    // dispatch loop (1 byte for zero page / relative, 2 bytes for absolute),
+    // so no memRead is needed just to look at the instruction again.
+    // The program counter has already been moved past the instruction.
+    // Indexed modes also record whether the index crossed a page, which
+    // costs read instructions one extra cycle.
+
+    private AddressingModes() {
+    }
+
+    public static int immediate(DemoNES cpu) {
+        // The value lives in the byte right before the current PC
+        return (cpu.programCounter - 1) & 0xFFFF;
+    }
+
+    public static int zeroPage(DemoNES cpu, int operand) {
+        return operand & 0xFF;
+    }
+
+    public static int zeroPageX(DemoNES cpu, int operand) {
+        return (operand + cpu.registerX) & 0xFF;  // Wrapping add, keep in zero page
+    }
+
+    public static int zeroPageY(DemoNES cpu, int operand) {
+        return (operand + cpu.registerY) & 0xFF;  // Wrapping add, keep in zero page
+    }
+
+    public static int absolute(DemoNES cpu, int operand) {
+        return operand & 0xFFFF;
+    }
+
+    public static int absoluteX(DemoNES cpu, int operand) {
+        int addr = (operand + cpu.registerX) & 0xFFFF;  // Wrapping add
+        cpu.pageCrossed = ((operand ^ addr) & 0xFF00) != 0;
+        return addr;
+    }
+
+    public static int absoluteY(DemoNES cpu, int operand) {
+        int addr = (operand + cpu.registerY) & 0xFFFF;  // Wrapping add
+        cpu.pageCrossed = ((operand ^ addr) & 0xFF00) != 0;
+        return addr;
+    }
+
+    public static int indirectX(DemoNES cpu, int operand) {
+        int ptr = (operand + cpu.registerX) & 0xFF;  // Wrapping add
+        int lo = cpu.memRead(ptr);
+        int hi = cpu.memRead((ptr + 1) & 0xFF);  // Wrapping add
+        return (hi << 8) | lo;
+    }
+
+    public static int indirectY(DemoNES cpu, int operand) {
+        int base = operand & 0xFF;
+        int lo = cpu.memRead(base);
+        int hi = cpu.memRead((base + 1) & 0xFF);  // Wrapping add
+        int derefBase = (hi << 8) | lo;
+        int addr = (derefBase + cpu.registerY) & 0xFFFF;  // Wrapping add
+        cpu.pageCrossed = ((derefBase ^ addr) & 0xFF00) != 0;
+        return addr;
+    }
+
+    public static int indirect(DemoNES cpu, int operand) {
+        // Only used by JMP ($xxxx)
+        int ptr = operand & 0xFFFF;
+        int lo = cpu.memRead(ptr);
+
+        int hi;
+        if ((ptr & 0x00FF) == 0x00FF) {
+            // Simulate 6502 page boundary bug
+            hi = cpu.memRead(ptr & 0xFF00);
+        } else {
+            hi = cpu.memRead(ptr + 1);
+        }
+        return (hi << 8) | lo;
+    }
+
+    public static int relative(DemoNES cpu, int operand) {
+        // Branch target: signed offset from the next instruction
+        return (cpu.programCounter + (byte) operand) & 0xFFFF;
+    }
+}
@@ -0,0 +1,173 @@
+package com.ferdin.nescpu;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public final class BatchRunner implements AutoCloseable {
+    // Runs independent headless jobs on a work-stealing ForkJoinPool.
+    // Every worker thread keeps one DemoNES and reuses it: before each job
+    // the machine is restored from a power-on save state, so nothing leaks
+    // from one job into the next. Inside a job the CPU runs through
+    // runCycles, which allocates nothing per instruction.
+    //
+    // Each job gets its own RandomDevice at RANDOM_ADDRESS and InputDevice
+    // at INPUT_ADDRESS, the same devices an interactive run uses.
+
+    public static final int RANDOM_ADDRESS = 0xFE;
+    public static final int INPUT_ADDRESS = 0xFF;
+
+    // One program to run, with its input
+    public static final class Job {
+        public final byte[] program;
+        public final int startAddress;
+        public final byte[] inputs;     // keys pressed, one per step, the last one stays down
+        public final long seed;         // for the job's RandomDevice
+        public final long cycleBudget;
+
+        public int stepCycles = DemoNES.CYCLES_PER_FRAME;
+        // Memory copied into Result.score when the job ends
+        public int scoreAddress;
+        public int scoreLength;
+        // Record which code ran into Result.coverage, merge them for a batch
+        public boolean coverage;
+
+        public Job(byte[] program, int startAddress, byte[] inputs, long seed, long cycleBudget) {
+            this.program = program;
+            this.startAddress = startAddress;
+            this.inputs = inputs;
+            this.seed = seed;
+            this.cycleBudget = cycleBudget;
+        }
+    }
+
+    public static final class Result {
+        public final int job;                   // index in the submitted list
+        public final DemoNES.RunResult result;
+        public final long cycles;               // cycles used since reset
+        public final long ramHash;              // FNV-1a of the 2KB RAM
+        public final byte[] score;
+        public final Coverage coverage;         // null unless the job asked for it
+
+        Result(int job, DemoNES.RunResult result, long cycles, long ramHash, byte[] score, Coverage coverage) {
+            this.job = job;
+            this.result = result;
+            this.cycles = cycles;
+            this.ramHash = ramHash;
+            this.score = score;
+            this.coverage = coverage;
+        }
+    }
+
+    // Jobs per leaf task, small enough for stealing to balance uneven jobs
+    private static final int JOBS_PER_TASK = 4;
+
+    private final ForkJoinPool pool;
+    private final boolean jit;
+    private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(this::newWorker);
+
+    public BatchRunner() {
+        this(Runtime.getRuntime().availableProcessors(), false);
+    }
+
+    public BatchRunner(int threads, boolean jit) {
+        this.pool = new ForkJoinPool(threads);
+        this.jit = jit;
+    }
+
+    // Runs every job and returns the results in the same order
+    public Result[] run(List<Job> jobs) {
+        Result[] results = new Result[jobs.size()];
+        pool.invoke(new Batch(jobs, results, 0, jobs.size()));
+        return results;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    private final class Batch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Job> jobs;
+        private final Result[] results;
+        private final int from;
+        private final int to;
+
+        Batch(List<Job> jobs, Result[] results, int from, int to) {
+            this.jobs = jobs;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= JOBS_PER_TASK) {
+                Worker worker = workers.get();
+                for (int i = from; i < to; i++) {
+                    results[i] = worker.run(i, jobs.get(i));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Batch(jobs, results, from, middle), new Batch(jobs, results, middle, to));
+        }
+    }
+
+    private Worker newWorker() {
+        return new Worker(jit);
+    }
+
+    private static final class Worker {
+        private final DemoNES cpu = new DemoNES();
+        private final ByteBuffer powerOn;
+
+        Worker(boolean jit) {
+            if (jit) {
+                cpu.enableJit();
+            }
+            powerOn = ByteBuffer.allocate(cpu.stateSize());
+            cpu.saveState(powerOn);
+        }
+
+        Result run(int index, Job job) {
+            powerOn.clear();
+            cpu.loadState(powerOn);
+            cpu.load(job.program, job.startAddress);
+            RandomDevice.attach(cpu, RANDOM_ADDRESS, job.seed);
+            InputDevice input = InputDevice.attach(cpu, INPUT_ADDRESS);
+            cpu.reset();
+            Coverage coverage = job.coverage ? new Coverage() : null;
+            cpu.setCoverage(coverage);
+
+            long start = cpu.cycles;
+            long end = start + job.cycleBudget;
+            DemoNES.RunResult result = DemoNES.RunResult.BUDGET_EXHAUSTED;
+            for (int step = 0; cpu.cycles < end; step++) {
+                if (job.inputs.length > 0) {
+                    input.press(job.inputs[Math.min(step, job.inputs.length - 1)]);
+                }
+
+                result = cpu.runCycles(Math.min(job.stepCycles, end - cpu.cycles));
+                if (result != DemoNES.RunResult.BUDGET_EXHAUSTED) {
+                    break;
+                }
+            }
+
+            long hash = 0xCBF29CE484222325L;
+            for (int addr = 0; addr < Bus.RAM_SIZE; addr++) {
+                hash = (hash ^ (cpu.bus.ram[addr] & 0xFF)) * 0x100000001B3L;
+            }
+            cpu.setCoverage(null);
+
+            byte[] score = new byte[job.scoreLength];
+            for (int i = 0; i < score.length; i++) {
+                score[i] = (byte) cpu.memRead(job.scoreAddress + i);
+            }
+            return new Result(index, result, cpu.cycles - start, hash, score, coverage);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.ferdin.nescpu;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BatchRunnerTest {
+
+    private static BatchRunner.Job snakeJob(long seed) {
+        byte[] inputs = new byte[200];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = TestGame.KEYS[(int) ((seed + i / 5) % TestGame.KEYS.length)];
+        }
+        BatchRunner.Job job = new BatchRunner.Job(TestGame.gameBytes(), TestGame.GAME_START, inputs, seed, 100_000);
+        job.stepCycles = 500;
+        job.scoreAddress = 0x03;    // snake length
+        job.scoreLength = 1;
+        return job;
+    }
+
+    @Test
+    void test_results_match_single_runs() {
+        List<BatchRunner.Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            jobs.add(snakeJob(i % 16));
+        }
+
+        BatchRunner.Result[] parallel;
+        try (BatchRunner runner = new BatchRunner(4, true)) {
+            parallel = runner.run(jobs);
+        }
+        BatchRunner.Result[] single;
+        try (BatchRunner runner = new BatchRunner(1, false)) {
+            single = runner.run(jobs.subList(0, 16));
+        }
+
+        assertEquals(64, parallel.length);
+        for (int i = 0; i < parallel.length; i++) {
+            BatchRunner.Result expected = single[i % 16];
+            assertEquals(i, parallel[i].job);
+            assertEquals(expected.result, parallel[i].result);
+            assertEquals(expected.cycles, parallel[i].cycles);
+            assertEquals(expected.ramHash, parallel[i].ramHash);
+            assertArrayEquals(expected.score, parallel[i].score);
+        }
+    }
+
+    @Test
+    void test_jobs_use_the_interactive_devices() {
+        BatchRunner.Job job = snakeJob(7);
+        BatchRunner.Result batch;
+        try (BatchRunner runner = new BatchRunner(1, false)) {
+            batch = runner.run(List.of(job))[0];
+        }
+
+        DemoNES cpu = new DemoNES();
+        cpu.load(job.program, job.startAddress);
+        RandomDevice.attach(cpu, BatchRunner.RANDOM_ADDRESS, job.seed);
+        InputDevice input = InputDevice.attach(cpu, BatchRunner.INPUT_ADDRESS);
+        cpu.reset();
+        long start = cpu.cycles;
+        DemoNES.RunResult result = DemoNES.RunResult.BUDGET_EXHAUSTED;
+        for (int step = 0; cpu.cycles - start < job.cycleBudget; step++) {
+            input.press(job.inputs[Math.min(step, job.inputs.length - 1)]);
+            result = cpu.runCycles(Math.min(job.stepCycles, job.cycleBudget - (cpu.cycles - start)));
+            if (result != DemoNES.RunResult.BUDGET_EXHAUSTED) {
+                break;
+            }
+        }
+        assertEquals(result, batch.result);
+        assertEquals(cpu.cycles - start, batch.cycles);
+        assertEquals(cpu.memRead(job.scoreAddress), batch.score[0] & 0xFF);
+    }
+
+    @Test
+    void test_jobs_see_fresh_machines() {
+        BatchRunner.Job dirty = new BatchRunner.Job(new byte[]{
+            (byte)0xA9, 0x55,              // LDA #$55
+            (byte)0x85, 0x10,              // STA $10
+            (byte)0x00
+        }, 0x8000, new byte[0], 1, 1000);
+        BatchRunner.Job reader = new BatchRunner.Job(new byte[]{
+            (byte)0xA5, 0x10,              // LDA $10
+            (byte)0x85, 0x11,              // STA $11
+            (byte)0x00
+        }, 0x8000, new byte[0], 1, 1000);
+        reader.scoreAddress = 0x11;
+        reader.scoreLength = 1;
+
+        try (BatchRunner runner = new BatchRunner(1, false)) {
+            BatchRunner.Result[] results = runner.run(List.of(dirty, reader));
+            assertEquals(DemoNES.RunResult.BREAK, results[0].result);
+            assertEquals(0, results[1].score[0]);
+        }
+    }
+}
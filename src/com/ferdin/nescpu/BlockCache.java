@@ -0,0 +1,242 @@
+package com.ferdin.nescpu;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class BlockCache {
+    // Caches straight-line runs of instructions ("basic blocks") already
+    // decoded: the Instruction and its operand bytes are read from memory
+    // once, then replayed from the arrays on every later visit.
+    //
+    // A block ends after a branch / jump / JSR / RTS / RTI, before BRK or an
+    // opcode we can't execute, or after MAX_BLOCK_LENGTH instructions.
+    // Any write into a page holding cached code drops every block on that page.
+    //
+    // With enableJit(), blocks entered often enough are also handed to
+    // BlockCompiler and run as generated JVM code from then on.
+
+    public static final int MAX_BLOCK_LENGTH = 32;
+
+    static final class Block {
+        final int startPc;
+        final int length;
+        final Instruction[] instructions;
+        final int[] operands;
+        final int[] nextPcs;        // PC after each instruction (before it executes)
+        final int maxCycles;
+        boolean valid = true;
+        int entries;
+        CompiledBlock compiled;
+
+        Block(int startPc, int length, Instruction[] instructions, int[] operands, int[] nextPcs) {
+            this.startPc = startPc;
+            this.length = length;
+            this.instructions = instructions;
+            this.operands = operands;
+            this.nextPcs = nextPcs;
+            this.maxCycles = maxCycles(instructions);
+        }
+
+        // Worst case cycles for one pass through the block
+        private static int maxCycles(Instruction[] instructions) {
+            int total = 0;
+            for (Instruction instruction : instructions) {
+                total += instruction.cycles;
+                if (instruction.pageCrossPenalty) {
+                    total += 1;
+                }
+                if (instruction.mode == DemoNES.AddressingMode.RELATIVE) {
+                    total += 2;   // taken branch to another page
+                }
+            }
+            return total;
+        }
+    }
+
+    private final DemoNES cpu;
+
+    // Indexed by start PC
+    private final Block[] blocks = new Block[0x10000];
+
+    // Blocks that have at least one byte on each page
+    private final List<List<Block>> pageBlocks = new ArrayList<>(256);
+
+    // Scratch buffers used while decoding
+    private final Instruction[] decodeInstructions = new Instruction[MAX_BLOCK_LENGTH];
+    private final int[] decodeOperands = new int[MAX_BLOCK_LENGTH];
+    private final int[] decodeNextPcs = new int[MAX_BLOCK_LENGTH];
+
+    // JIT tier, null unless enableJit() was called
+    private BlockCompiler compiler;
+
+    public long blocksDecoded;
+    public long blocksInvalidated;
+    public long lookups;        // blocks looked up by run(), misses included
+    public long misses;         // lookups that found no block
+
+    BlockCache(DemoNES cpu) {
+        this.cpu = cpu;
+        for (int page = 0; page < 256; page++) {
+            pageBlocks.add(new ArrayList<>());
+        }
+    }
+
+    public BlockCompiler enableJit(int threshold) {
+        if (compiler == null) {
+            compiler = new BlockCompiler(threshold);
+        }
+        return compiler;
+    }
+
+    // Runs cached blocks until endCycle, BRK or an illegal opcode
+    DemoNES.RunResult run(long endCycle) {
+        DemoNES cpu = this.cpu;
+
+        while (cpu.cycles < endCycle) {
+            Block block = blocks[cpu.programCounter & 0xFFFF];
+            lookups++;
+            if (block == null) {
+                misses++;
+                block = decode(cpu.programCounter & 0xFFFF);
+                if (block == null) {
+                    // BRK or illegal opcode at PC, the interpreter reports it
+                    DemoNES.RunResult result = cpu.interpret(cpu.cycles + 1);
+                    if (result != DemoNES.RunResult.BUDGET_EXHAUSTED) {
+                        return result;
+                    }
+                    continue;
+                }
+            }
+
+            CompiledBlock compiled = block.compiled;
+            if (compiled != null) {
+                // Compiled code can't stop halfway, only use it when the
+                // whole block fits in the remaining budget
+                if (cpu.cycles + block.maxCycles <= endCycle) {
+                    // It keeps the flags in status, not the lazy ones
+                    cpu.storeFlags();
+                    compiled.run(cpu);
+                    cpu.loadFlags();
+                    // Slightly high if it bailed out after a self-modifying store
+                    cpu.instructions += block.length;
+                    continue;
+                }
+            } else if (compiler != null && ++block.entries == compiler.threshold) {
+                block.compiled = compiler.compile(block, cpu.bus);
+            }
+
+            Instruction[] instructions = block.instructions;
+            int[] operands = block.operands;
+            int[] nextPcs = block.nextPcs;
+            // Only check the budget per instruction near the end of it
+            boolean checkBudget = cpu.cycles + block.maxCycles > endCycle;
+            int i = 0;
+            while (i < instructions.length) {
+                cpu.programCounter = nextPcs[i];
+                cpu.dispatch(instructions[i], operands[i]);
+                i++;
+
+                // Stop on budget, or if the block just overwrote its own code
+                if (!block.valid || (checkBudget && cpu.cycles >= endCycle)) {
+                    break;
+                }
+            }
+            cpu.instructions += i;
+        }
+        return DemoNES.RunResult.BUDGET_EXHAUSTED;
+    }
+
+    private Block decode(int startPc) {
+        int pc = startPc;
+        int length = 0;
+
+        while (length < MAX_BLOCK_LENGTH) {
+            int opcode = cpu.memRead(pc);
+            Instruction instruction = Instructions.TABLE[opcode];
+            if (opcode == 0x00 || !instruction.implemented) {
+                break;
+            }
+
+            int operand = 0;
+            if (instruction.bytes == 2) {
+                operand = cpu.memRead(pc + 1);
+            } else if (instruction.bytes == 3) {
+                operand = cpu.memRead(pc + 1) | (cpu.memRead(pc + 2) << 8);
+            }
+
+            pc = (pc + instruction.bytes) & 0xFFFF;
+            decodeInstructions[length] = instruction;
+            decodeOperands[length] = operand;
+            decodeNextPcs[length] = pc;
+            length++;
+
+            if (instruction.isControlFlow()) {
+                break;
+            }
+        }
+
+        if (length == 0) {
+            return null;
+        }
+
+        Instruction[] instructions = new Instruction[length];
+        int[] operands = new int[length];
+        int[] nextPcs = new int[length];
+        System.arraycopy(decodeInstructions, 0, instructions, 0, length);
+        System.arraycopy(decodeOperands, 0, operands, 0, length);
+        System.arraycopy(decodeNextPcs, 0, nextPcs, 0, length);
+        Block block = new Block(startPc, length, instructions, operands, nextPcs);
+
+        // Register the block on every page its bytes touch
+        int firstPage = startPc >> 8;
+        int lastPage = ((pc - 1) & 0xFFFF) >> 8;
+        for (int page = firstPage; ; page = (page + 1) & 0xFF) {
+            pageBlocks.get(page).add(block);
+            // Writes through a mirror of the page change the code too
+            for (int alias : cpu.bus.aliasesOf(page)) {
+                cpu.pageFlags[alias] |= DemoNES.CODE_PAGE;
+            }
+            if (page == lastPage) {
+                break;
+            }
+        }
+
+        blocks[startPc] = block;
+        blocksDecoded++;
+        return block;
+    }
+
+    // Called by DemoNES.memWrite when a write hits a page marked as code
+    void invalidatePage(int page) {
+        for (int alias : cpu.bus.aliasesOf(page)) {
+            invalidateBlocksOn(alias);
+        }
+    }
+
+    private void invalidateBlocksOn(int page) {
+        List<Block> onPage = pageBlocks.get(page);
+        for (int i = 0; i < onPage.size(); i++) {
+            Block block = onPage.get(i);
+            if (block.valid) {
+                block.valid = false;
+                if (block.compiled != null) {
+                    block.compiled.valid = false;
+                }
+                blocksInvalidated++;
+                if (blocks[block.startPc] == block) {
+                    blocks[block.startPc] = null;
+                }
+            }
+        }
+        onPage.clear();
+        cpu.pageFlags[page] &= ~DemoNES.CODE_PAGE;
+    }
+
+    public void invalidateAll() {
+        for (int page = 0; page < 256; page++) {
+            if ((cpu.pageFlags[page] & DemoNES.CODE_PAGE) != 0) {
+                invalidateBlocksOn(page);
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.ferdin.nescpu;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+public class BlockCacheTest {
+
+    private static DemoNES snake(int jitThreshold) {
+        DemoNES cpu = TestGame.snake(0, 0);
+        BlockCache cache = cpu.enableBlockCache();
+        if (jitThreshold > 0) {
+            cache.enableJit(jitThreshold);
+        }
+        return cpu;
+    }
+
+    private static void assertSameState(DemoNES expected, DemoNES actual) {
+        assertEquals(expected.registerA, actual.registerA);
+        assertEquals(expected.registerX, actual.registerX);
+        assertEquals(expected.registerY, actual.registerY);
+        assertEquals(expected.status, actual.status);
+        assertEquals(expected.stackPointer, actual.stackPointer);
+        assertEquals(expected.programCounter, actual.programCounter);
+        assertEquals(expected.cycles, actual.cycles);
+        for (int addr = 0; addr < 0x0800; addr++) {
+            assertEquals(expected.memRead(addr), actual.memRead(addr), "memory at " + addr);
+        }
+    }
+
+    @Test
+    void test_snake_matches_interpreter() {
+        runSnakeAgainstInterpreter(snake(0));
+    }
+
+    @Test
+    void test_snake_jit_matches_interpreter() {
+        DemoNES jit = snake(2);
+        runSnakeAgainstInterpreter(jit);
+
+        BlockCompiler compiler = jit.enableBlockCache().enableJit(2);
+        assertTrue(compiler.blocksCompiled > 0);
+        assertEquals(0, compiler.compileFailures);
+    }
+
+    private static void runSnakeAgainstInterpreter(DemoNES cached) {
+        DemoNES plain = TestGame.snake(0, 0);
+        Random random = new Random(42);
+
+        // Steer every 500 cycles so the snake survives for a while
+        for (int slice = 0; slice < 2000; slice++) {
+            byte rnd = (byte) random.nextInt(256);
+            byte key = TestGame.KEYS[random.nextInt(TestGame.KEYS.length)];
+            for (DemoNES cpu : new DemoNES[]{plain, cached}) {
+                cpu.memWrite(0xFE, rnd);
+                cpu.memWrite(0xFF, key);
+            }
+
+            DemoNES.RunResult expected = plain.runCycles(500);
+            DemoNES.RunResult actual = cached.runCycles(500);
+
+            assertEquals(expected, actual);
+            assertSameState(plain, cached);
+            if (expected != DemoNES.RunResult.BUDGET_EXHAUSTED) {
+                break;
+            }
+        }
+    }
+
+    @Test
+    void test_self_modifying_code_invalidates_block() {
+        DemoNES cpu = new DemoNES();
+        cpu.enableBlockCache();
+        cpu.load(new byte[]{
+            (byte)0xA9, 0x01,              // $8000 LDA #$01
+            (byte)0x8D, 0x01, (byte)0x80,  // $8002 STA $8001  (patch the LDA operand)
+            (byte)0xE8,                    // $8005 INX
+            (byte)0xE0, 0x02,              // $8006 CPX #$02
+            (byte)0xD0, (byte)0xF6,        // $8008 BNE $8000
+            (byte)0x00
+        });
+        cpu.reset();
+        cpu.memWrite(0x8001, (byte)0x05);  // first pass loads 5
+
+        assertEquals(DemoNES.RunResult.BREAK, cpu.runCycles(10_000));
+
+        // Second pass must see the operand written by the first pass
+        assertEquals(0x05, cpu.registerA);
+        assertEquals(0x05, cpu.memRead(0x8001));
+    }
+
+    @Test
+    void test_write_into_current_block_stops_it() {
+        DemoNES cpu = new DemoNES();
+        cpu.enableBlockCache();
+        cpu.load(new byte[]{
+            (byte)0xA9, (byte)0xE8,        // $8000 LDA #$E8  (INX)
+            (byte)0x8D, 0x06, (byte)0x80,  // $8002 STA $8006
+            (byte)0xEA,                    // $8005 NOP
+            (byte)0xEA,                    // $8006 NOP -> becomes INX
+            (byte)0x00
+        });
+        cpu.reset();
+
+        // The STA lands inside the block being executed, the rest of the
+        // block must be decoded again and see the INX
+        assertEquals(DemoNES.RunResult.BREAK, cpu.runCycles(10_000));
+        assertEquals(1, cpu.registerX);
+    }
+
+    @Test
+    void test_jit_self_modifying_loop() {
+        DemoNES cpu = new DemoNES();
+        cpu.enableBlockCache().enableJit(1);
+        cpu.load(new byte[]{
+            (byte)0xE8,                    // $8000 INX
+            (byte)0x8A,                    // $8001 TXA
+            (byte)0x8D, 0x0D, (byte)0x80,  // $8002 STA $800D  (patch the CMP operand below)
+            (byte)0xC8,                    // $8005 INY
+            (byte)0xC0, 0x10,              // $8006 CPY #$10
+            (byte)0xD0, (byte)0xF6,        // $8008 BNE $8000
+            (byte)0x00,                    // $800A BRK
+            (byte)0xEA,                    // $800B NOP
+            (byte)0xC9, 0x00,              // $800C CMP #$00
+        });
+        cpu.reset();
+
+        assertEquals(DemoNES.RunResult.BREAK, cpu.runCycles(100_000));
+        assertEquals(0x10, cpu.registerX);
+        assertEquals(0x10, cpu.registerY);
+        assertEquals(0x10, cpu.memRead(0x800D));
+    }
+
+    @Test
+    void test_jit_carry_arithmetic_matches_interpreter() {
+        byte[] program = {
+            (byte)0xA2, 0x00,              // LDX #$00
+            (byte)0x8A,                    // loop: TXA
+            (byte)0x18,                    // CLC
+            (byte)0x69, 0x37,              // ADC #$37
+            (byte)0x2A,                    // ROL A
+            (byte)0x85, 0x10,              // STA $10
+            (byte)0x66, 0x10,              // ROR $10
+            (byte)0x38,                    // SEC
+            (byte)0x65, 0x10,              // ADC $10
+            (byte)0x95, 0x20,              // STA $20,X
+            (byte)0x36, 0x20,              // ROL $20,X
+            (byte)0x6A,                    // ROR A
+            (byte)0xE9, 0x05,              // SBC #$05
+            (byte)0xE8,                    // INX
+            (byte)0xE0, 0x40,              // CPX #$40
+            (byte)0xD0, (byte)0xE5,        // BNE loop
+            (byte)0x00                     // BRK
+        };
+        DemoNES plain = new DemoNES();
+        DemoNES jit = new DemoNES();
+        jit.enableBlockCache().enableJit(1);
+        for (DemoNES cpu : new DemoNES[]{plain, jit}) {
+            cpu.load(program);
+            cpu.reset();
+            assertEquals(DemoNES.RunResult.BREAK, cpu.runCycles(100_000));
+        }
+        assertSameState(plain, jit);
+        assertTrue(jit.enableBlockCache().enableJit(1).blocksCompiled > 0);
+    }
+
+    @Test
+    void test_write_through_ram_mirror_invalidates_block() {
+        DemoNES cpu = new DemoNES();
+        cpu.enableBlockCache().enableJit(1);
+        cpu.load(new byte[]{
+            (byte)0xA9, 0x00,              // $0600 LDA #$00
+            (byte)0xE8,                    // $0602 INX
+            (byte)0x8E, 0x01, 0x0E,        // $0603 STX $0E01  (mirror of $0601)
+            (byte)0xE0, 0x03,              // $0606 CPX #$03
+            (byte)0xD0, (byte)0xF6,        // $0608 BNE $0600
+            (byte)0x00
+        }, 0x0600);
+        cpu.reset();
+
+        // The last pass loads the X stored by the one before it
+        assertEquals(DemoNES.RunResult.BREAK, cpu.runCycles(10_000));
+        assertEquals(0x02, cpu.registerA);
+    }
+}
@@ -0,0 +1,839 @@
+package com.ferdin.nescpu;
+
+import java.lang.invoke.MethodHandles;
+
+import static com.ferdin.nescpu.ClassFileWriter.*;
+
+public final class BlockCompiler {
+    // JIT tier on top of BlockCache: once a block has been entered
+    // `threshold` times it is translated into a hidden class, so HotSpot
+    // compiles the guest code straight to native code.
+    //
+    // Inside the generated run() method A, X, Y, the status register and the
+    // cycle counter live in locals and are only written back to the CPU on
+    // exit. Flags that a later instruction of the same block overwrites
+    // before anything reads them are never computed.
+    //
+    // Instructions that touch the stack or the PC in complex ways are not
+    // translated; the generated code spills the registers and calls the
+    // interpreter's handler for them.
+
+    public static final int DEFAULT_THRESHOLD = 64;
+
+    private static final String CPU = "com/ferdin/nescpu/DemoNES";
+    private static final String BASE = "com/ferdin/nescpu/CompiledBlock";
+    private static final String INSTRUCTION = "com/ferdin/nescpu/Instruction";
+    private static final String INSTRUCTIONS = "com/ferdin/nescpu/Instructions";
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    // Flags tracked for dead flag elimination
+    private static final int N = DemoNES.NEGATIVE;
+    private static final int Z = DemoNES.ZERO;
+    private static final int C = DemoNES.CARRY;
+    private static final int V = DemoNES.OVERFLOW;
+    private static final int NZ = N | Z;
+    private static final int ALL = N | Z | C | V;
+
+    // Locals of the generated run(DemoNES) method
+    private static final int THIS = 0;
+    private static final int CPU_LOCAL = 1;
+    private static final int A = 2;
+    private static final int X = 3;
+    private static final int Y = 4;
+    private static final int P = 5;
+    private static final int CYC = 6;
+    private static final int ADDR = 7;
+    private static final int VALUE = 8;
+    private static final int TMP = 9;
+    private static final int PC = 10;
+    private static final int MAX_LOCALS = 11;
+    private static final int MAX_STACK = 8;
+
+    public final int threshold;
+    public long blocksCompiled;
+    public long compileFailures;
+
+    public BlockCompiler(int threshold) {
+        this.threshold = threshold;
+    }
+
+    // Returns null if the block could not be translated, the caller then
+    // just keeps interpreting it
+    CompiledBlock compile(BlockCache.Block block, Bus bus) {
+        try {
+            byte[] bytes = generate(block, bus);
+            Class<?> type = LOOKUP.defineHiddenClass(bytes, true).lookupClass();
+            CompiledBlock compiled = (CompiledBlock) type.getDeclaredConstructor().newInstance();
+            blocksCompiled++;
+            return compiled;
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            compileFailures++;
+            return null;
+        }
+    }
+
+    // ---- Flag liveness ----
+
+    private static boolean isNative(Instruction instruction) {
+        switch (instruction.mnemonic) {
+            case "PHA":
+            case "PHP":
+            case "PLA":
+            case "PLP":
+            case "JSR":
+            case "RTS":
+            case "RTI":
+            case "BRK":
+                return false;
+            case "JMP":
+                return instruction.mode == DemoNES.AddressingMode.ABSOLUTE;
+            default:
+                return instruction.implemented;
+        }
+    }
+
+    private static int flagsRead(Instruction instruction) {
+        if (!isNative(instruction)) {
+            return ALL;
+        }
+        switch (instruction.mnemonic) {
+            case "ADC":
+            case "SBC":
+            case "ROL":
+            case "ROR":
+            case "BCC":
+            case "BCS":
+                return C;
+            case "BEQ":
+            case "BNE":
+                return Z;
+            case "BMI":
+            case "BPL":
+                return N;
+            case "BVC":
+            case "BVS":
+                return V;
+            default:
+                return 0;
+        }
+    }
+
+    private static int flagsWritten(Instruction instruction) {
+        if (!isNative(instruction)) {
+            return 0;
+        }
+        switch (instruction.mnemonic) {
+            case "LDA": case "LDX": case "LDY":
+            case "TAX": case "TAY": case "TXA": case "TYA": case "TSX":
+            case "INX": case "INY": case "DEX": case "DEY":
+            case "INC": case "DEC":
+            case "AND": case "ORA": case "EOR":
+                return NZ;
+            case "CMP": case "CPX": case "CPY":
+            case "ASL": case "LSR":
+            case "ROL": case "ROR":
+                return NZ | C;
+            case "ADC":
+            case "SBC":
+                return ALL;
+            case "BIT":
+                return NZ | V;
+            case "SEC":
+            case "CLC":
+                return C;
+            case "CLV":
+                return V;
+            default:
+                return 0;
+        }
+    }
+
+    // ---- Code generation ----
+
+    private static final class Context {
+        final BlockCache.Block block;
+        final ClassFileWriter writer;
+        final ClassFileWriter.Code code;
+        final int exit;
+        final Bus bus;
+        final int firstPage;
+        final int lastPage;
+
+        Context(BlockCache.Block block, ClassFileWriter writer, ClassFileWriter.Code code, Bus bus) {
+            this.block = block;
+            this.bus = bus;
+            this.writer = writer;
+            this.code = code;
+            this.exit = code.newLabel();
+            this.firstPage = block.startPc >> 8;
+            this.lastPage = ((block.nextPcs[block.length - 1] - 1) & 0xFFFF) >> 8;
+        }
+
+        // True if a write to addr may change the block's code, directly or
+        // through a mirror of one of its pages
+        boolean onBlockPage(int addr) {
+            for (int page : bus.aliasesOf(addr >> 8)) {
+                if (isBlockPage(page)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isBlockPage(int page) {
+            if (firstPage <= lastPage) {
+                return page >= firstPage && page <= lastPage;
+            }
+            return page >= firstPage || page <= lastPage;  // wrapped past 0xFFFF
+        }
+    }
+
+    byte[] generate(BlockCache.Block block, Bus bus) {
+        ClassFileWriter writer = new ClassFileWriter();
+
+        ClassFileWriter.Code init = writer.newCode();
+        init.aload(THIS);
+        init.invoke(INVOKESPECIAL, BASE, "<init>", "()V");
+        init.op(RETURN);
+        writer.addMethod(0x0001, "<init>", "()V", init, 1, 1);
+
+        ClassFileWriter.Code code = writer.newCode();
+        Context ctx = new Context(block, writer, code, bus);
+
+        // Do we need a store check after instruction i? Needed when it may
+        // write into this block's own code.
+        boolean[] storeCheck = new boolean[block.length];
+        int[] liveAfter = new int[block.length];
+        int live = ALL;
+        for (int i = block.length - 1; i >= 0; i--) {
+            Instruction instruction = block.instructions[i];
+            storeCheck[i] = mayWriteOwnCode(ctx, instruction, block.operands[i]);
+            if (storeCheck[i]) {
+                live = ALL;   // a bail out exit right after it needs every flag
+            }
+            liveAfter[i] = live;
+            live &= ~flagsWritten(instruction);
+            live |= flagsRead(instruction);
+        }
+
+        // Prologue: registers into locals
+        loadRegisters(code);
+        code.iconst(0);
+        code.istore(CYC);
+        code.iconst(0);
+        code.istore(PC);
+
+        boolean endsWithJump = false;
+        for (int i = 0; i < block.length; i++) {
+            Instruction instruction = block.instructions[i];
+            int operand = block.operands[i];
+            int nextPc = block.nextPcs[i];
+
+            if (isNative(instruction)) {
+                code.iinc(CYC, instruction.cycles);
+                endsWithJump = emitNative(ctx, instruction, operand, nextPc, liveAfter[i]);
+            } else {
+                endsWithJump = emitFallback(ctx, instruction, operand, nextPc);
+            }
+
+            if (storeCheck[i] && !endsWithJump) {
+                // Bail out if we just overwrote our own code
+                int still = code.newLabel();
+                code.aload(THIS);
+                code.field(GETFIELD, BASE, "valid", "Z");
+                code.jump(IFNE, still);
+                code.iconst(nextPc);
+                code.istore(PC);
+                code.jump(GOTO, ctx.exit);
+                code.mark(still);
+            }
+        }
+
+        if (!endsWithJump) {
+            // Hit the length limit, continue after the last instruction
+            code.iconst(block.nextPcs[block.length - 1]);
+            code.istore(PC);
+        }
+
+        // Exit: write everything back
+        code.mark(ctx.exit);
+        storeRegisters(code);
+        code.aload(CPU_LOCAL);
+        code.iload(PC);
+        code.field(PUTFIELD, CPU, "programCounter", "I");
+        code.aload(CPU_LOCAL);
+        code.op(DUP);
+        code.field(GETFIELD, CPU, "cycles", "J");
+        code.iload(CYC);
+        code.op(I2L);
+        code.op(LADD);
+        code.field(PUTFIELD, CPU, "cycles", "J");
+        code.op(RETURN);
+
+        writer.addMethod(0x0000, "run", "(L" + CPU + ";)V", code, MAX_STACK, MAX_LOCALS);
+        return writer.toByteArray(0x0030, BASE + "$Jit", BASE);
+    }
+
+    private static boolean mayWriteOwnCode(Context ctx, Instruction instruction, int operand) {
+        if (!isNative(instruction)) {
+            // Handlers like PHA / JSR / ROL write memory, always check
+            return !instruction.isControlFlow();
+        }
+        switch (instruction.mnemonic) {
+            case "STA": case "STX": case "STY":
+            case "INC": case "DEC":
+            case "ASL": case "LSR":
+            case "ROL": case "ROR":
+                break;
+            default:
+                return false;
+        }
+        switch (instruction.mode) {
+            case ZERO_PAGE:
+                return ctx.onBlockPage(operand & 0xFF);
+            case ABSOLUTE:
+                return ctx.onBlockPage(operand & 0xFFFF);
+            case ACCUMULATOR:
+                return false;
+            default:
+                return true;   // indexed, address only known at run time
+        }
+    }
+
+    private static void loadRegisters(ClassFileWriter.Code code) {
+        loadField(code, "registerA", A);
+        loadField(code, "registerX", X);
+        loadField(code, "registerY", Y);
+        loadField(code, "status", P);
+    }
+
+    private static void storeRegisters(ClassFileWriter.Code code) {
+        storeField(code, A, "registerA");
+        storeField(code, X, "registerX");
+        storeField(code, Y, "registerY");
+        storeField(code, P, "status");
+    }
+
+    private static void loadField(ClassFileWriter.Code code, String field, int local) {
+        code.aload(CPU_LOCAL);
+        code.field(GETFIELD, CPU, field, "I");
+        code.istore(local);
+    }
+
+    private static void storeField(ClassFileWriter.Code code, int local, String field) {
+        code.aload(CPU_LOCAL);
+        code.iload(local);
+        code.field(PUTFIELD, CPU, field, "I");
+    }
+
+    // Spill, call the interpreter's handler, reload.
+    // Returns true if the instruction ended the block.
+    private static boolean emitFallback(Context ctx, Instruction instruction, int operand, int nextPc) {
+        ClassFileWriter.Code code = ctx.code;
+        storeRegisters(code);
+        code.aload(CPU_LOCAL);
+        code.iconst(nextPc);
+        code.field(PUTFIELD, CPU, "programCounter", "I");
+
+        code.aload(CPU_LOCAL);
+        code.field(GETSTATIC, INSTRUCTIONS, "TABLE", "[L" + INSTRUCTION + ";");
+        code.iconst(instruction.opcode);
+        code.op(AALOAD);
+        code.iconst(operand);
+        code.invoke(INVOKEVIRTUAL, CPU, "dispatchCompiled", "(L" + INSTRUCTION + ";I)V");
+
+        loadRegisters(code);
+        if (instruction.isControlFlow()) {
+            code.aload(CPU_LOCAL);
+            code.field(GETFIELD, CPU, "programCounter", "I");
+            code.istore(PC);
+            code.jump(GOTO, ctx.exit);
+            return true;
+        }
+        return false;
+    }
+
+    // Leaves the effective address in ADDR and returns -1, or returns the
+    // address itself when it is known at compile time
+    private static int emitAddress(Context ctx, Instruction instruction, int operand) {
+        ClassFileWriter.Code code = ctx.code;
+        switch (instruction.mode) {
+            case ZERO_PAGE:
+                return operand & 0xFF;
+            case ABSOLUTE:
+                return operand & 0xFFFF;
+            case ZERO_PAGE_X:
+            case ZERO_PAGE_Y:
+                code.iconst(operand & 0xFF);
+                code.iload(instruction.mode == DemoNES.AddressingMode.ZERO_PAGE_X ? X : Y);
+                code.op(IADD);
+                code.iconst(0xFF);
+                code.op(IAND);
+                code.istore(ADDR);
+                return -1;
+            case ABSOLUTE_X:
+            case ABSOLUTE_Y:
+                code.iconst(operand & 0xFFFF);
+                code.iload(instruction.mode == DemoNES.AddressingMode.ABSOLUTE_X ? X : Y);
+                code.op(IADD);
+                code.iconst(0xFFFF);
+                code.op(IAND);
+                code.istore(ADDR);
+                if (instruction.pageCrossPenalty) {
+                    code.iconst(operand & 0xFFFF);
+                    pageCrossCycle(code);
+                }
+                return -1;
+            case INDIRECT_X:
+                code.iconst(operand & 0xFF);
+                code.iload(X);
+                code.op(IADD);
+                code.iconst(0xFF);
+                code.op(IAND);
+                code.istore(TMP);
+                code.aload(CPU_LOCAL);
+                code.iload(TMP);
+                memRead(code);
+                code.aload(CPU_LOCAL);
+                code.iload(TMP);
+                code.iconst(1);
+                code.op(IADD);
+                code.iconst(0xFF);
+                code.op(IAND);
+                memRead(code);
+                code.iconst(8);
+                code.op(ISHL);
+                code.op(IOR);
+                code.istore(ADDR);
+                return -1;
+            case INDIRECT_Y:
+                code.aload(CPU_LOCAL);
+                code.iconst(operand & 0xFF);
+                memRead(code);
+                code.aload(CPU_LOCAL);
+                code.iconst((operand + 1) & 0xFF);
+                memRead(code);
+                code.iconst(8);
+                code.op(ISHL);
+                code.op(IOR);
+                code.istore(TMP);
+                code.iload(TMP);
+                code.iload(Y);
+                code.op(IADD);
+                code.iconst(0xFFFF);
+                code.op(IAND);
+                code.istore(ADDR);
+                if (instruction.pageCrossPenalty) {
+                    code.iload(TMP);
+                    pageCrossCycle(code);
+                }
+                return -1;
+            default:
+                throw new IllegalStateException("No address for " + instruction);
+        }
+    }
+
+    // Stack: base address. CYC += 1 if base and ADDR are on different pages
+    private static void pageCrossCycle(ClassFileWriter.Code code) {
+        code.iload(ADDR);
+        code.op(IXOR);
+        code.iconst(0xFF00);
+        code.op(IAND);
+        code.iconst(0xFF00);
+        code.op(IADD);
+        code.iconst(16);
+        code.op(IUSHR);
+        code.iload(CYC);
+        code.op(IADD);
+        code.istore(CYC);
+    }
+
+    private static void memRead(ClassFileWriter.Code code) {
+        code.invoke(INVOKEVIRTUAL, CPU, "memRead", "(I)I");
+    }
+
+    private static void pushAddress(ClassFileWriter.Code code, int constAddr) {
+        if (constAddr >= 0) {
+            code.iconst(constAddr);
+        } else {
+            code.iload(ADDR);
+        }
+    }
+
+    // Pushes the operand value (immediate or from memory)
+    private static void emitRead(Context ctx, Instruction instruction, int operand) {
+        ClassFileWriter.Code code = ctx.code;
+        if (instruction.mode == DemoNES.AddressingMode.IMMEDIATE) {
+            code.iconst(operand & 0xFF);
+            return;
+        }
+        int constAddr = emitAddress(ctx, instruction, operand);
+        code.aload(CPU_LOCAL);
+        pushAddress(code, constAddr);
+        memRead(code);
+    }
+
+    private static void emitWrite(ClassFileWriter.Code code, int constAddr, int valueLocal) {
+        code.aload(CPU_LOCAL);
+        pushAddress(code, constAddr);
+        code.iload(valueLocal);
+        code.op(I2B);
+        code.invoke(INVOKEVIRTUAL, CPU, "memWrite", "(IB)V");
+    }
+
+    // P = P with the live N / Z bits taken from the 8-bit value in `local`
+    private static void setNZ(ClassFileWriter.Code code, int local, int live) {
+        int bits = live & NZ;
+        if (bits == 0) {
+            return;
+        }
+        code.iload(P);
+        code.iconst(~bits);
+        code.op(IAND);
+        if ((bits & N) != 0) {
+            code.iload(local);
+            code.iconst(0x80);
+            code.op(IAND);
+            code.op(IOR);
+        }
+        if ((bits & Z) != 0) {
+            // (value - 1) >>> 30 & 2 is 2 only for value == 0
+            code.iload(local);
+            code.iconst(1);
+            code.op(ISUB);
+            code.iconst(30);
+            code.op(IUSHR);
+            code.iconst(2);
+            code.op(IAND);
+            code.op(IOR);
+        }
+        code.istore(P);
+    }
+
+    // Stack: 0 or 1. P.C = that value
+    private static void setCarryFromStack(ClassFileWriter.Code code) {
+        code.iload(P);
+        code.iconst(~C);
+        code.op(IAND);
+        code.op(IOR);
+        code.istore(P);
+    }
+
+    private static void setBit(ClassFileWriter.Code code, int bit, boolean set) {
+        code.iload(P);
+        code.iconst(set ? bit : ~bit);
+        code.op(set ? IOR : IAND);
+        code.istore(P);
+    }
+
+    private static void register(ClassFileWriter.Code code, int from, int to, int delta, int live) {
+        code.iload(from);
+        if (delta != 0) {
+            code.iconst(delta);
+            code.op(IADD);
+            code.iconst(0xFF);
+            code.op(IAND);
+        }
+        code.istore(to);
+        setNZ(code, to, live);
+    }
+
+    // Returns true if the instruction ended the block (jump / branch)
+    private static boolean emitNative(Context ctx, Instruction instruction, int operand, int nextPc, int live) {
+        ClassFileWriter.Code code = ctx.code;
+        switch (instruction.mnemonic) {
+            case "NOP":
+                return false;
+            case "LDA":
+            case "LDX":
+            case "LDY": {
+                int reg = instruction.mnemonic.equals("LDA") ? A : instruction.mnemonic.equals("LDX") ? X : Y;
+                emitRead(ctx, instruction, operand);
+                code.istore(reg);
+                setNZ(code, reg, live);
+                return false;
+            }
+            case "STA":
+            case "STX":
+            case "STY": {
+                int reg = instruction.mnemonic.equals("STA") ? A : instruction.mnemonic.equals("STX") ? X : Y;
+                int constAddr = emitAddress(ctx, instruction, operand);
+                emitWrite(code, constAddr, reg);
+                return false;
+            }
+            case "TAX": register(code, A, X, 0, live); return false;
+            case "TAY": register(code, A, Y, 0, live); return false;
+            case "TXA": register(code, X, A, 0, live); return false;
+            case "TYA": register(code, Y, A, 0, live); return false;
+            case "INX": register(code, X, X, 1, live); return false;
+            case "INY": register(code, Y, Y, 1, live); return false;
+            case "DEX": register(code, X, X, -1, live); return false;
+            case "DEY": register(code, Y, Y, -1, live); return false;
+            case "TSX":
+                code.aload(CPU_LOCAL);
+                code.field(GETFIELD, CPU, "stackPointer", "I");
+                code.iconst(0xFF);
+                code.op(IAND);
+                code.istore(X);
+                setNZ(code, X, live);
+                return false;
+            case "TXS":
+                storeField(code, X, "stackPointer");
+                return false;
+            case "INC":
+            case "DEC": {
+                int constAddr = emitAddress(ctx, instruction, operand);
+                code.aload(CPU_LOCAL);
+                pushAddress(code, constAddr);
+                memRead(code);
+                code.iconst(instruction.mnemonic.equals("INC") ? 1 : -1);
+                code.op(IADD);
+                code.iconst(0xFF);
+                code.op(IAND);
+                code.istore(VALUE);
+                emitWrite(code, constAddr, VALUE);
+                setNZ(code, VALUE, live);
+                return false;
+            }
+            case "AND":
+            case "ORA":
+            case "EOR":
+                code.iload(A);
+                emitRead(ctx, instruction, operand);
+                code.op(instruction.mnemonic.equals("AND") ? IAND
+                    : instruction.mnemonic.equals("ORA") ? IOR : IXOR);
+                code.istore(A);
+                setNZ(code, A, live);
+                return false;
+            case "ADC":
+            case "SBC":
+                emitAdd(ctx, instruction, operand, live);
+                return false;
+            case "CMP":
+            case "CPX":
+            case "CPY": {
+                int reg = instruction.mnemonic.equals("CMP") ? A : instruction.mnemonic.equals("CPX") ? X : Y;
+                emitRead(ctx, instruction, operand);
+                code.istore(VALUE);
+                code.iload(reg);
+                code.iload(VALUE);
+                code.op(ISUB);
+                code.istore(TMP);
+                if ((live & C) != 0) {
+                    // carry = reg >= value = sign bit of the difference is clear
+                    code.iload(TMP);
+                    code.iconst(-1);
+                    code.op(IXOR);
+                    code.iconst(31);
+                    code.op(IUSHR);
+                    setCarryFromStack(code);
+                }
+                code.iload(TMP);
+                code.iconst(0xFF);
+                code.op(IAND);
+                code.istore(VALUE);
+                setNZ(code, VALUE, live);
+                return false;
+            }
+            case "BIT": {
+                emitRead(ctx, instruction, operand);
+                code.istore(VALUE);
+                int bits = live & (N | Z | V);
+                if (bits == 0) {
+                    return false;
+                }
+                code.iload(P);
+                code.iconst(~bits);
+                code.op(IAND);
+                if ((bits & (N | V)) != 0) {
+                    code.iload(VALUE);
+                    code.iconst(bits & (N | V));
+                    code.op(IAND);
+                    code.op(IOR);
+                }
+                if ((bits & Z) != 0) {
+                    code.iload(A);
+                    code.iload(VALUE);
+                    code.op(IAND);
+                    code.iconst(1);
+                    code.op(ISUB);
+                    code.iconst(30);
+                    code.op(IUSHR);
+                    code.iconst(2);
+                    code.op(IAND);
+                    code.op(IOR);
+                }
+                code.istore(P);
+                return false;
+            }
+            case "ASL":
+            case "LSR":
+            case "ROL":
+            case "ROR":
+                emitShift(ctx, instruction, operand, live);
+                return false;
+            case "SEC":
+            case "CLC":
+                if ((live & C) != 0) {
+                    setBit(code, C, instruction.mnemonic.equals("SEC"));
+                }
+                return false;
+            case "CLV":
+                if ((live & V) != 0) {
+                    setBit(code, V, false);
+                }
+                return false;
+            case "SEI": setBit(code, DemoNES.INTERRUPT_DISABLE, true); return false;
+            case "CLI": setBit(code, DemoNES.INTERRUPT_DISABLE, false); return false;
+            case "SED": setBit(code, DemoNES.DECIMAL_MODE, true); return false;
+            case "CLD": setBit(code, DemoNES.DECIMAL_MODE, false); return false;
+            case "JMP":
+                code.iconst(operand & 0xFFFF);
+                code.istore(PC);
+                code.jump(GOTO, ctx.exit);
+                return true;
+            case "BCC": emitBranch(ctx, C, false, operand, nextPc); return true;
+            case "BCS": emitBranch(ctx, C, true, operand, nextPc); return true;
+            case "BNE": emitBranch(ctx, Z, false, operand, nextPc); return true;
+            case "BEQ": emitBranch(ctx, Z, true, operand, nextPc); return true;
+            case "BPL": emitBranch(ctx, N, false, operand, nextPc); return true;
+            case "BMI": emitBranch(ctx, N, true, operand, nextPc); return true;
+            case "BVC": emitBranch(ctx, V, false, operand, nextPc); return true;
+            case "BVS": emitBranch(ctx, V, true, operand, nextPc); return true;
+            default:
+                throw new IllegalStateException("Not translated: " + instruction);
+        }
+    }
+
+    // ADC, and SBC as ADC of the inverted operand
+    private static void emitAdd(Context ctx, Instruction instruction, int operand, int live) {
+        ClassFileWriter.Code code = ctx.code;
+        emitRead(ctx, instruction, operand);
+        if (instruction.mnemonic.equals("SBC")) {
+            code.iconst(0xFF);
+            code.op(IXOR);
+        }
+        code.istore(VALUE);
+
+        // TMP = A + value + carry, 0..0x1FF
+        code.iload(A);
+        code.iload(VALUE);
+        code.op(IADD);
+        code.iload(P);
+        code.iconst(C);
+        code.op(IAND);
+        code.op(IADD);
+        code.istore(TMP);
+
+        if ((live & C) != 0) {
+            code.iload(TMP);
+            code.iconst(8);
+            code.op(IUSHR);
+            setCarryFromStack(code);
+        }
+        if ((live & V) != 0) {
+            // ((A ^ result) & (value ^ result) & 0x80) moved down to bit 6
+            code.iload(P);
+            code.iconst(~V);
+            code.op(IAND);
+            code.iload(A);
+            code.iload(TMP);
+            code.op(IXOR);
+            code.iload(VALUE);
+            code.iload(TMP);
+            code.op(IXOR);
+            code.op(IAND);
+            code.iconst(0x80);
+            code.op(IAND);
+            code.iconst(1);
+            code.op(IUSHR);
+            code.op(IOR);
+            code.istore(P);
+        }
+        code.iload(TMP);
+        code.iconst(0xFF);
+        code.op(IAND);
+        code.istore(A);
+        setNZ(code, A, live);
+    }
+
+    private static void emitShift(Context ctx, Instruction instruction, int operand, int live) {
+        ClassFileWriter.Code code = ctx.code;
+        boolean left = instruction.mnemonic.equals("ASL") || instruction.mnemonic.equals("ROL");
+        boolean rotate = instruction.mnemonic.equals("ROL") || instruction.mnemonic.equals("ROR");
+        boolean accumulator = instruction.mode == DemoNES.AddressingMode.ACCUMULATOR;
+
+        int constAddr = -1;
+        if (accumulator) {
+            code.iload(A);
+        } else {
+            constAddr = emitAddress(ctx, instruction, operand);
+            code.aload(CPU_LOCAL);
+            pushAddress(code, constAddr);
+            memRead(code);
+        }
+        code.istore(VALUE);
+
+        // The result first, a rotate shifts the old carry in
+        int target = accumulator ? A : TMP;
+        code.iload(VALUE);
+        code.iconst(1);
+        if (left) {
+            code.op(ISHL);
+            code.iconst(0xFF);
+            code.op(IAND);
+        } else {
+            code.op(IUSHR);
+        }
+        if (rotate) {
+            code.iload(P);
+            code.iconst(C);
+            code.op(IAND);
+            if (!left) {
+                code.iconst(7);
+                code.op(ISHL);
+            }
+            code.op(IOR);
+        }
+        code.istore(target);
+
+        if ((live & C) != 0) {
+            code.iload(VALUE);
+            if (left) {
+                code.iconst(7);
+                code.op(IUSHR);
+            } else {
+                code.iconst(1);
+                code.op(IAND);
+            }
+            setCarryFromStack(code);
+        }
+        if (!accumulator) {
+            emitWrite(code, constAddr, TMP);
+        }
+        setNZ(code, target, live);
+    }
+
+    private static void emitBranch(Context ctx, int flag, boolean whenSet, int operand, int nextPc) {
+        ClassFileWriter.Code code = ctx.code;
+        int target = (nextPc + (byte) operand) & 0xFFFF;
+        int notTaken = code.newLabel();
+
+        code.iload(P);
+        code.iconst(flag);
+        code.op(IAND);
+        code.jump(whenSet ? IFEQ : IFNE, notTaken);
+
+        // Taken: 1 extra cycle, 2 if the target is on another page
+        code.iinc(CYC, ((nextPc ^ target) & 0xFF00) != 0 ? 2 : 1);
+        code.iconst(target);
+        code.istore(PC);
+        code.jump(GOTO, ctx.exit);
+
+        code.mark(notTaken);
+        code.iconst(nextPc);
+        code.istore(PC);
+        code.jump(GOTO, ctx.exit);
+    }
+}
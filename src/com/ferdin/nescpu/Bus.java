@@ -0,0 +1,410 @@
+package com.ferdin.nescpu;
+
+import java.nio.ByteBuffer;
+
+public final class Bus {
+    // The CPU address space, split into 256 pages of 256 bytes.
+    // RAM and ROM pages point straight into a backing array plus offset,
+    // so an access there is one array lookup. ROM mapped from a file is
+    // read straight from its ByteBuffer. I/O pages have neither and go to
+    // a Device instead.
+    //
+    // 0x0000 - 0x07FF  2KB RAM
+    // 0x0800 - 0x1FFF  mirrors of the RAM
+    // 0x2000 - 0x2007  PPU registers
+    // 0x2008 - 0x3FFF  mirrors of the PPU registers, every 8 bytes
+    // 0x4000 - 0x401F  APU and I/O registers
+    // 0x4020 - 0xFFFF  cartridge space
+    //
+    // Without a cartridge, the cartridge space is plain writable memory so
+    // test programs can be loaded anywhere in it.
+
+    public interface Device {
+        int read(int addr);
+        void write(int addr, int value);
+    }
+
+    public static final int RAM_SIZE = 0x0800;
+    public static final int CARTRIDGE_START = 0x4020;
+
+    // Registers that just remember what was written, used until a real
+    // PPU / APU is attached
+    static final class Latch implements Device {
+        final int base;
+        final byte[] values;
+
+        Latch(int base, int size) {
+            this.base = base;
+            this.values = new byte[size];
+        }
+
+        @Override
+        public int read(int addr) {
+            return values[addr - base] & 0xFF;
+        }
+
+        @Override
+        public void write(int addr, int value) {
+            values[addr - base] = (byte) value;
+        }
+    }
+
+    // A memory page with a few addresses handed to devices, e.g. the random
+    // byte the snake game reads at 0xFE. The rest of the page still goes to
+    // its backing array, one device call away.
+    static final class HookedPage implements Device {
+        final byte[] backing;
+        final int offset;           // page address already subtracted
+        final Device[] hooks;       // by low byte, shared by the page's aliases
+
+        HookedPage(byte[] backing, int offset, Device[] hooks) {
+            this.backing = backing;
+            this.offset = offset;
+            this.hooks = hooks;
+        }
+
+        @Override
+        public int read(int addr) {
+            Device hook = hooks[addr & 0xFF];
+            if (hook != null) {
+                return hook.read(addr);
+            }
+            return backing[offset + addr] & 0xFF;
+        }
+
+        @Override
+        public void write(int addr, int value) {
+            Device hook = hooks[addr & 0xFF];
+            if (hook != null) {
+                hook.write(addr, value);
+            } else {
+                backing[offset + addr] = (byte) value;
+            }
+        }
+    }
+
+    private static final Device IGNORE_WRITES = new Device() {
+        @Override
+        public int read(int addr) {
+            return 0;
+        }
+
+        @Override
+        public void write(int addr, int value) {
+        }
+    };
+
+    final byte[] ram = new byte[RAM_SIZE];
+    // Index 0 is address 0x4000, the first 0x20 bytes are never used
+    final byte[] cartridge = new byte[0x10000 - 0x4000];
+
+    // PRG-RAM of the inserted cartridge, empty without one
+    private byte[] prgRam = new byte[0];
+
+    private Device ppu = new Latch(0x2000, 8);
+    private Device apu = new Latch(0x4000, 0x20);
+
+    // Page table, a null backing array means the page is handled by devices[].
+    // Offsets already have the page's address subtracted, so the index into
+    // the backing array is just offset + addr.
+    private final byte[][] readPages = new byte[256][];
+    private final int[] readOffsets = new int[256];
+    private final byte[][] writePages = new byte[256][];
+    private final int[] writeOffsets = new int[256];
+    private final ByteBuffer[] romPages = new ByteBuffer[256];
+    private final int[] romOffsets = new int[256];
+    private final Device[] devices = new Device[256];
+
+    // Pages backed by the same bytes, built on demand
+    private final int[][] aliases = new int[256][];
+
+    public Bus() {
+        mapMemory(0x00, 0x1F, ram, 0, true);
+        mapDevice(0x20, 0x3F, new Device() {
+            @Override
+            public int read(int addr) {
+                return ppu.read(0x2000 | (addr & 0x07));
+            }
+
+            @Override
+            public void write(int addr, int value) {
+                ppu.write(0x2000 | (addr & 0x07), value);
+            }
+        });
+        // Page 0x40 is shared by the APU / I/O registers and the cartridge
+        mapDevice(0x40, 0x40, new Device() {
+            @Override
+            public int read(int addr) {
+                if (addr < CARTRIDGE_START) {
+                    return apu.read(addr);
+                }
+                return cartridge[addr - 0x4000] & 0xFF;
+            }
+
+            @Override
+            public void write(int addr, int value) {
+                if (addr < CARTRIDGE_START) {
+                    apu.write(addr, value);
+                } else {
+                    cartridge[addr - 0x4000] = (byte) value;
+                }
+            }
+        });
+        mapMemory(0x41, 0xFF, cartridge, 0x0100, true);
+    }
+
+    // read() and write() take a 16-bit address, DemoNES masks it.
+    // Device calls are split out to keep the memory path small.
+    public int read(int addr) {
+        int page = addr >> 8;
+        byte[] backing = readPages[page];
+        if (backing == null) {
+            return readDevice(addr);
+        }
+        return backing[readOffsets[page] + addr] & 0xFF;
+    }
+
+    private int readDevice(int addr) {
+        int page = addr >> 8;
+        ByteBuffer rom = romPages[page];
+        if (rom != null) {
+            return rom.get(romOffsets[page] + addr) & 0xFF;
+        }
+        return devices[page].read(addr) & 0xFF;
+    }
+
+    public void write(int addr, byte data) {
+        int page = addr >> 8;
+        byte[] backing = writePages[page];
+        if (backing == null) {
+            writeDevice(addr, data);
+            return;
+        }
+        backing[writeOffsets[page] + addr] = data;
+    }
+
+    private void writeDevice(int addr, byte data) {
+        devices[addr >> 8].write(addr, data & 0xFF);
+    }
+
+    // Like write, but also stores into read-only pages. Used to load programs.
+    public void poke(int addr, byte data) {
+        addr &= 0xFFFF;
+        byte[] backing = readPages[addr >> 8];
+        if (backing != null) {
+            backing[readOffsets[addr >> 8] + addr] = data;
+        } else if (romPages[addr >> 8] != null) {
+            throw new IllegalStateException("Can't load into ROM mapped from a file at " + addr);
+        } else {
+            devices[addr >> 8].write(addr, data & 0xFF);
+        }
+    }
+
+    // Maps pages first..last onto backing, starting at offset. Pages past the
+    // end of backing wrap around to its start, which is how mirrors are made.
+    // Writes to read-only pages go to the page's device, which ignores them
+    // unless mapWrites() installed one (e.g. a mapper's bank registers).
+    public void mapMemory(int firstPage, int lastPage, byte[] backing, int offset, boolean writable) {
+        checkPages(firstPage, lastPage);
+        if (backing.length % 0x100 != 0 || offset % 0x100 != 0) {
+            throw new IllegalArgumentException("Backing memory must be mapped in whole pages");
+        }
+        for (int page = firstPage; page <= lastPage; page++) {
+            int pageOffset = (offset + (page - firstPage) * 0x100) % backing.length;
+            readPages[page] = backing;
+            readOffsets[page] = pageOffset - (page << 8);
+            writePages[page] = writable ? backing : null;
+            writeOffsets[page] = writable ? pageOffset - (page << 8) : 0;
+            romPages[page] = null;
+            devices[page] = IGNORE_WRITES;
+        }
+        clearAliases();
+    }
+
+    // Maps pages first..last onto a read-only buffer, e.g. PRG-ROM mapped
+    // from a file. Wraps around like mapMemory.
+    public void mapRom(int firstPage, int lastPage, ByteBuffer rom, int offset) {
+        checkPages(firstPage, lastPage);
+        if (rom.capacity() % 0x100 != 0 || offset % 0x100 != 0) {
+            throw new IllegalArgumentException("ROM must be mapped in whole pages");
+        }
+        for (int page = firstPage; page <= lastPage; page++) {
+            int pageOffset = (offset + (page - firstPage) * 0x100) % rom.capacity();
+            readPages[page] = null;
+            writePages[page] = null;
+            romPages[page] = rom;
+            romOffsets[page] = pageOffset - (page << 8);
+            devices[page] = IGNORE_WRITES;
+        }
+        clearAliases();
+    }
+
+    public void mapDevice(int firstPage, int lastPage, Device device) {
+        checkPages(firstPage, lastPage);
+        for (int page = firstPage; page <= lastPage; page++) {
+            readPages[page] = null;
+            writePages[page] = null;
+            romPages[page] = null;
+            devices[page] = device;
+        }
+        clearAliases();
+    }
+
+    // Sends writes to read-only pages to device, reads still come from memory
+    public void mapWrites(int firstPage, int lastPage, Device device) {
+        checkPages(firstPage, lastPage);
+        for (int page = firstPage; page <= lastPage; page++) {
+            boolean readOnly = (readPages[page] != null && writePages[page] == null)
+                || romPages[page] != null;
+            if (!readOnly) {
+                throw new IllegalStateException("Page " + page + " is not read-only memory");
+            }
+            devices[page] = device;
+        }
+    }
+
+    // Sends reads and writes of one address in writable memory to device,
+    // in every mirror of it. Only the address's page leaves the direct
+    // memory path. Mapping the page again removes the hook.
+    public void hookAddress(int addr, Device device) {
+        addr &= 0xFFFF;
+        int page = addr >> 8;
+        int[] pages = aliasesOf(page);
+        Device[] hooks;
+        if (devices[page] instanceof HookedPage) {
+            hooks = ((HookedPage) devices[page]).hooks;
+        } else {
+            if (readPages[page] == null || writePages[page] != readPages[page]) {
+                throw new IllegalStateException("Page " + page + " is not writable memory");
+            }
+            hooks = new Device[256];
+            for (int alias : pages) {
+                devices[alias] = new HookedPage(readPages[alias], readOffsets[alias], hooks);
+                readPages[alias] = null;
+                writePages[alias] = null;
+            }
+        }
+        hooks[addr & 0xFF] = device;
+    }
+
+    // NROM (mapper 0): 8KB PRG-RAM at 0x6000, PRG-ROM at 0x8000 with a
+    // 16KB ROM mirrored into 0xC000. CHR-ROM is for the PPU, not the CPU bus.
+    public void insert(Cartridge cartridge) {
+        if (cartridge.mapper != 0) {
+            throw new UnsupportedOperationException("Mapper " + cartridge.mapper + " not implemented yet.");
+        }
+        prgRam = cartridge.prgRam;
+        mapMemory(0x60, 0x7F, prgRam, 0, true);
+        mapRom(0x80, 0xFF, cartridge.prgRom, 0);
+    }
+
+    // Writable memory only, ROM is expected to be the same on restore.
+    // PPU / APU registers are saved while they are still the default latches.
+    int stateSize() {
+        return RAM_SIZE + cartridge.length + 8 + 0x20 + 4 + prgRam.length;
+    }
+
+    void saveState(ByteBuffer out) {
+        out.put(ram);
+        out.put(cartridge);
+        putLatch(out, ppu, 8);
+        putLatch(out, apu, 0x20);
+        out.putInt(prgRam.length);
+        out.put(prgRam);
+    }
+
+    void loadState(ByteBuffer in) {
+        in.get(ram);
+        in.get(cartridge);
+        getLatch(in, ppu, 8);
+        getLatch(in, apu, 0x20);
+        int prgRamLength = in.getInt();
+        if (prgRamLength != prgRam.length) {
+            throw new IllegalArgumentException("State has " + prgRamLength
+                + " bytes of PRG-RAM, the inserted cartridge has " + prgRam.length);
+        }
+        in.get(prgRam);
+    }
+
+    private static void putLatch(ByteBuffer out, Device device, int size) {
+        if (device instanceof Latch) {
+            out.put(((Latch) device).values);
+        } else {
+            out.position(out.position() + size);
+        }
+    }
+
+    private static void getLatch(ByteBuffer in, Device device, int size) {
+        if (device instanceof Latch) {
+            in.get(((Latch) device).values);
+        } else {
+            in.position(in.position() + size);
+        }
+    }
+
+    // The device sees the decoded register address, 0x2000 - 0x2007
+    public void setPpu(Device ppu) {
+        this.ppu = ppu;
+    }
+
+    // The device sees addresses 0x4000 - 0x401F
+    public void setApu(Device apu) {
+        this.apu = apu;
+    }
+
+    // Every page backed by the same bytes as `page`, including itself.
+    // A write through any of them changes what the others read.
+    public int[] aliasesOf(int page) {
+        int[] result = aliases[page];
+        if (result == null) {
+            result = findAliases(page);
+            aliases[page] = result;
+        }
+        return result;
+    }
+
+    private int[] findAliases(int page) {
+        byte[] backing = backingOf(page);
+        if (backing == null) {
+            return new int[]{page};
+        }
+        int start = offsetOf(page) + (page << 8);
+        int count = 0;
+        int[] found = new int[256];
+        for (int other = 0; other < 256; other++) {
+            if (backingOf(other) == backing && offsetOf(other) + (other << 8) == start) {
+                found[count++] = other;
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(found, 0, result, 0, count);
+        return result;
+    }
+
+    // Memory behind a page, seen through hooks
+    private byte[] backingOf(int page) {
+        if (devices[page] instanceof HookedPage) {
+            return ((HookedPage) devices[page]).backing;
+        }
+        return readPages[page];
+    }
+
+    private int offsetOf(int page) {
+        if (devices[page] instanceof HookedPage) {
+            return ((HookedPage) devices[page]).offset;
+        }
+        return readOffsets[page];
+    }
+
+    private void clearAliases() {
+        for (int page = 0; page < 256; page++) {
+            aliases[page] = null;
+        }
+    }
+
+    private static void checkPages(int firstPage, int lastPage) {
+        if (firstPage < 0 || lastPage > 0xFF || firstPage > lastPage) {
+            throw new IllegalArgumentException("Bad page range: " + firstPage + ".." + lastPage);
+        }
+    }
+}
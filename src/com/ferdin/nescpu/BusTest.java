@@ -0,0 +1,128 @@
+package com.ferdin.nescpu;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BusTest {
+
+    @Test
+    void test_ram_is_mirrored() {
+        Bus bus = new Bus();
+        bus.write(0x0012, (byte)0x34);
+        assertEquals(0x34, bus.read(0x0812));
+        assertEquals(0x34, bus.read(0x1012));
+        assertEquals(0x34, bus.read(0x1812));
+
+        bus.write(0x1FFF, (byte)0x56);
+        assertEquals(0x56, bus.read(0x07FF));
+    }
+
+    @Test
+    void test_top_of_address_space() {
+        DemoNES cpu = new DemoNES();
+        cpu.memWrite(0xFFFF, (byte)0xAB);
+        assertEquals(0xAB, cpu.memRead(0xFFFF));
+    }
+
+    @Test
+    void test_ppu_registers_are_decoded() {
+        Bus bus = new Bus();
+        int[] last = new int[2];
+        bus.setPpu(new Bus.Device() {
+            @Override
+            public int read(int addr) {
+                return addr & 0xFF;
+            }
+
+            @Override
+            public void write(int addr, int value) {
+                last[0] = addr;
+                last[1] = value;
+            }
+        });
+
+        bus.write(0x3FFE, (byte)0x99);  // mirror of 0x2006
+        assertEquals(0x2006, last[0]);
+        assertEquals(0x99, last[1]);
+        assertEquals(0x02, bus.read(0x200A));
+    }
+
+    @Test
+    void test_apu_and_cartridge_share_page_0x40() {
+        Bus bus = new Bus();
+        bus.write(0x4015, (byte)0x0F);
+        bus.write(0x4020, (byte)0x42);
+        assertEquals(0x0F, bus.read(0x4015));
+        assertEquals(0x42, bus.read(0x4020));
+    }
+
+    @Test
+    void test_rom_pages_ignore_writes() {
+        Bus bus = new Bus();
+        byte[] rom = new byte[0x4000];
+        rom[0] = 0x11;
+        bus.mapMemory(0x80, 0xFF, rom, 0, false);  // 16KB mirrored twice
+
+        bus.write(0x8000, (byte)0x22);
+        assertEquals(0x11, bus.read(0x8000));
+        assertEquals(0x11, bus.read(0xC000));
+
+        bus.poke(0xC000, (byte)0x33);
+        assertEquals(0x33, bus.read(0x8000));
+        assertArrayEquals(new int[]{0x80, 0xC0}, bus.aliasesOf(0xC0));
+    }
+
+    @Test
+    void test_hooked_address_in_every_mirror() {
+        Bus bus = new Bus();
+        bus.write(0x00FD, (byte)0x12);
+        InputDevice input = new InputDevice();
+        bus.hookAddress(0x08FF, input);
+
+        input.press(0x77);
+        assertEquals(0x77, bus.read(0x00FF));
+        assertEquals(0x77, bus.read(0x18FF));
+        bus.write(0x10FF, (byte)0x64);
+        assertEquals(0x64, input.key());
+
+        // The rest of the page is still RAM, and still mirrored
+        assertEquals(0x12, bus.read(0x08FD));
+        bus.write(0x0010, (byte)0x34);
+        assertEquals(0x34, bus.read(0x1810));
+        assertArrayEquals(new int[]{0x00, 0x08, 0x10, 0x18}, bus.aliasesOf(0x08));
+    }
+
+    @Test
+    void test_random_device_is_read_lazily_and_seeded() {
+        long[] hashes = new long[2];
+        int[] reads = new int[1];
+        for (int run = 0; run < 2; run++) {
+            DemoNES cpu = new DemoNES();
+            cpu.load(TestGame.gameBytes(), TestGame.GAME_START);
+            cpu.reset();
+            RandomDevice random = new RandomDevice(42);
+            reads[0] = 0;
+            cpu.bus.hookAddress(0xFE, new Bus.Device() {
+                @Override
+                public int read(int addr) {
+                    reads[0]++;
+                    return random.read(addr);
+                }
+
+                @Override
+                public void write(int addr, int value) {
+                }
+            });
+            InputDevice.attach(cpu, 0xFF).press(0x73);
+            cpu.runCycles(200_000);
+
+            long hash = 0;
+            for (int addr = 0; addr < Bus.RAM_SIZE; addr++) {
+                hash = hash * 31 + cpu.memRead(addr);
+            }
+            hashes[run] = hash;
+        }
+        assertEquals(hashes[0], hashes[1]);
+        // A few reads per frame of the game, not one per instruction
+        assertTrue(reads[0] > 0 && reads[0] < 200_000 / 100, "reads: " + reads[0]);
+    }
+}
@@ -0,0 +1,133 @@
+package com.ferdin.nescpu;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public final class Cartridge {
+    // An iNES / NES 2.0 ROM image. PRG-ROM and CHR-ROM are read-only
+    // slices of the file mapped with FileChannel.map, so loading a ROM
+    // doesn't copy it onto the heap and instances running the same file
+    // share the pages through the OS.
+    //
+    // Header (16 bytes):
+    //   0-3  "NES" 0x1A
+    //   4    PRG-ROM size in 16KB units (LSB for NES 2.0)
+    //   5    CHR-ROM size in 8KB units (LSB for NES 2.0)
+    //   6    mirroring, battery, trainer, mapper bits 0-3
+    //   7    console type, NES 2.0 marker (bits 2-3 == 0b10), mapper bits 4-7
+    //   8    iNES: PRG-RAM in 8KB units, NES 2.0: mapper bits 8-11, submapper
+    //   9    NES 2.0: PRG-ROM / CHR-ROM size MSBs
+    //   10   NES 2.0: PRG-RAM / PRG-NVRAM shift counts
+    // A 512 byte trainer follows the header if flag 6 bit 2 is set.
+
+    public static final int HEADER_SIZE = 16;
+    public static final int TRAINER_SIZE = 512;
+    public static final int PRG_ROM_UNIT = 0x4000;
+    public static final int CHR_ROM_UNIT = 0x2000;
+
+    public enum Mirroring {
+        HORIZONTAL,
+        VERTICAL,
+        FOUR_SCREEN
+    }
+
+    public final boolean nes2;
+    public final int mapper;
+    public final int submapper;
+    public final Mirroring mirroring;
+    public final boolean battery;
+
+    public final ByteBuffer prgRom;     // read-only
+    public final ByteBuffer chrRom;     // read-only, empty when the board has CHR-RAM
+    public final byte[] prgRam;         // trainer (if any) is already at 0x7000
+
+    public static Cartridge open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            return new Cartridge(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    // Parses an image that is already in memory, e.g. a ROM in a jar
+    public static Cartridge of(byte[] image) {
+        return new Cartridge(ByteBuffer.wrap(image).asReadOnlyBuffer());
+    }
+
+    private Cartridge(ByteBuffer image) {
+        if (image.capacity() < HEADER_SIZE
+                || image.get(0) != 'N' || image.get(1) != 'E' || image.get(2) != 'S' || image.get(3) != 0x1A) {
+            throw new IllegalArgumentException("Not an iNES image");
+        }
+        int flags6 = image.get(6) & 0xFF;
+        int flags7 = image.get(7) & 0xFF;
+        nes2 = (flags7 & 0x0C) == 0x08;
+
+        int prgSize;
+        int chrSize;
+        int prgRamSize;
+        if (nes2) {
+            int byte8 = image.get(8) & 0xFF;
+            int byte9 = image.get(9) & 0xFF;
+            mapper = (flags6 >> 4) | (flags7 & 0xF0) | ((byte8 & 0x0F) << 8);
+            submapper = byte8 >> 4;
+            prgSize = nes2RomSize(image.get(4) & 0xFF, byte9 & 0x0F, PRG_ROM_UNIT);
+            chrSize = nes2RomSize(image.get(5) & 0xFF, byte9 >> 4, CHR_ROM_UNIT);
+            int byte10 = image.get(10) & 0xFF;
+            prgRamSize = shiftSize(byte10 & 0x0F) + shiftSize(byte10 >> 4);
+        } else {
+            mapper = (flags6 >> 4) | (flags7 & 0xF0);
+            submapper = 0;
+            prgSize = (image.get(4) & 0xFF) * PRG_ROM_UNIT;
+            chrSize = (image.get(5) & 0xFF) * CHR_ROM_UNIT;
+            prgRamSize = Math.max(1, image.get(8) & 0xFF) * 0x2000;
+        }
+
+        if ((flags6 & 0x08) != 0) {
+            mirroring = Mirroring.FOUR_SCREEN;
+        } else {
+            mirroring = (flags6 & 0x01) != 0 ? Mirroring.VERTICAL : Mirroring.HORIZONTAL;
+        }
+        battery = (flags6 & 0x02) != 0;
+        boolean trainer = (flags6 & 0x04) != 0;
+
+        int prgStart = HEADER_SIZE + (trainer ? TRAINER_SIZE : 0);
+        int chrStart = prgStart + prgSize;
+        if (prgSize == 0 || chrStart + chrSize > image.capacity()) {
+            throw new IllegalArgumentException("iNES image is truncated or has no PRG-ROM");
+        }
+        prgRom = image.slice(prgStart, prgSize).asReadOnlyBuffer();
+        chrRom = image.slice(chrStart, chrSize).asReadOnlyBuffer();
+
+        // The bus maps PRG-RAM as an 8KB window, smaller RAM is mirrored
+        prgRam = new byte[Math.max(prgRamSize, 0x2000)];
+        if (trainer) {
+            image.get(HEADER_SIZE, prgRam, 0x1000, TRAINER_SIZE);
+        }
+    }
+
+    // NES 2.0 sizes: MSB nibble 0xF means exponent-multiplier notation
+    private static int nes2RomSize(int lsb, int msb, int unit) {
+        if (msb == 0x0F) {
+            long size = (1L << (lsb >> 2)) * ((lsb & 0x03) * 2 + 1);
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("ROM size too large: " + size);
+            }
+            return (int) size;
+        }
+        return ((msb << 8) | lsb) * unit;
+    }
+
+    private static int shiftSize(int shift) {
+        return shift == 0 ? 0 : 64 << shift;
+    }
+
+    @Override
+    public String toString() {
+        return (nes2 ? "NES 2.0" : "iNES") + " mapper " + mapper
+            + ", PRG " + prgRom.capacity() / 1024 + "KB, CHR " + chrRom.capacity() / 1024 + "KB, "
+            + mirroring;
+    }
+}
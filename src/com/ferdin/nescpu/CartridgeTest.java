@@ -0,0 +1,82 @@
+package com.ferdin.nescpu;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class CartridgeTest {
+
+    // 16KB PRG-ROM, 8KB CHR-ROM, mapper 0, program at 0xC000
+    private static byte[] nromImage(byte[] program) {
+        byte[] image = new byte[16 + 0x4000 + 0x2000];
+        image[0] = 'N';
+        image[1] = 'E';
+        image[2] = 'S';
+        image[3] = 0x1A;
+        image[4] = 1;
+        image[5] = 1;
+        image[6] = 0x01;   // vertical mirroring
+        System.arraycopy(program, 0, image, 16, program.length);
+        // Reset vector at the end of PRG-ROM
+        image[16 + 0x3FFC] = 0x00;
+        image[16 + 0x3FFD] = (byte)0xC0;
+        image[16 + 0x4000] = 0x55;  // first CHR byte
+        return image;
+    }
+
+    @Test
+    void test_run_mapped_rom(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("test.nes");
+        Files.write(file, nromImage(new byte[]{
+            (byte)0xA9, 0x42,              // LDA #$42
+            (byte)0x8D, 0x00, 0x60,        // STA $6000  (PRG-RAM)
+            (byte)0x8D, 0x00, (byte)0xC0,  // STA $C000  (ROM, ignored)
+            (byte)0x00
+        }));
+
+        Cartridge cartridge = Cartridge.open(file);
+        assertFalse(cartridge.nes2);
+        assertEquals(0, cartridge.mapper);
+        assertEquals(Cartridge.Mirroring.VERTICAL, cartridge.mirroring);
+        assertEquals(0x4000, cartridge.prgRom.capacity());
+        assertEquals(0x55, cartridge.chrRom.get(0));
+
+        DemoNES cpu = new DemoNES();
+        cpu.loadCartridge(cartridge);
+        cpu.reset();
+        assertEquals(0xC000, cpu.programCounter);
+        cpu.run();
+
+        assertEquals(0x42, cpu.memRead(0x6000));
+        assertEquals(0xA9, cpu.memRead(0xC000));
+        assertEquals(0xA9, cpu.memRead(0x8000));  // 16KB mirrored at 0x8000
+    }
+
+    @Test
+    void test_nes2_header() {
+        byte[] image = nromImage(new byte[0]);
+        image[6] = 0x10;        // mapper low nibble 1
+        image[7] = 0x28;        // NES 2.0, mapper high nibble 2
+        image[8] = 0x33;        // mapper bits 8-11 = 3, submapper 3
+        image[10] = 0x07;       // 64 << 7 = 8KB PRG-RAM
+
+        Cartridge cartridge = Cartridge.of(image);
+        assertTrue(cartridge.nes2);
+        assertEquals(0x321, cartridge.mapper);
+        assertEquals(3, cartridge.submapper);
+        assertEquals(0x2000, cartridge.prgRam.length);
+        assertThrows(UnsupportedOperationException.class, () -> new DemoNES().loadCartridge(cartridge));
+    }
+
+    @Test
+    void test_rejects_bad_images() {
+        assertThrows(IllegalArgumentException.class, () -> Cartridge.of(new byte[16]));
+        byte[] truncated = nromImage(new byte[0]);
+        byte[] shortImage = new byte[0x1000];
+        System.arraycopy(truncated, 0, shortImage, 0, shortImage.length);
+        assertThrows(IllegalArgumentException.class, () -> Cartridge.of(shortImage));
+    }
+}
@@ -0,0 +1,293 @@
+package com.ferdin.nescpu;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+final class ClassFileWriter {
+    // Just enough of a class file writer for BlockCompiler: one class, no
+    // fields, methods with a Code attribute and nothing else.
+    // Classes are written as version 49 (Java 5), which the JVM still
+    // verifies by type inference, so we don't have to emit stack map frames.
+
+    static final int VERSION = 49;
+
+    // Opcodes used by BlockCompiler
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC_W = 0x13;
+    static final int ILOAD = 0x15;
+    static final int ALOAD = 0x19;
+    static final int ISTORE = 0x36;
+    static final int AALOAD = 0x32;
+    static final int DUP = 0x59;
+    static final int IADD = 0x60;
+    static final int LADD = 0x61;
+    static final int ISUB = 0x64;
+    static final int ISHL = 0x78;
+    static final int ISHR = 0x7a;
+    static final int IUSHR = 0x7c;
+    static final int IAND = 0x7e;
+    static final int IOR = 0x80;
+    static final int IXOR = 0x82;
+    static final int IINC = 0x84;
+    static final int I2L = 0x85;
+    static final int I2B = 0x91;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int GOTO = 0xa7;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int GETFIELD = 0xb4;
+    static final int PUTFIELD = 0xb5;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final List<byte[]> methods = new ArrayList<>();
+
+    // ---- Constant pool ----
+
+    private int entry(String key, int tag, int a, int b, String utf8, int intValue) {
+        Integer existing = poolIndex.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            pool.writeByte(tag);
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    pool.writeUTF(utf8);
+                    break;
+                case CONSTANT_INTEGER:
+                    pool.writeInt(intValue);
+                    break;
+                case CONSTANT_CLASS:
+                    pool.writeShort(a);
+                    break;
+                default:
+                    pool.writeShort(a);
+                    pool.writeShort(b);
+                    break;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int index = poolCount++;
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    int utf8(String value) {
+        return entry("U" + value, CONSTANT_UTF8, 0, 0, value, 0);
+    }
+
+    int integer(int value) {
+        return entry("I" + value, CONSTANT_INTEGER, 0, 0, null, value);
+    }
+
+    int classRef(String internalName) {
+        return entry("C" + internalName, CONSTANT_CLASS, utf8(internalName), 0, null, 0);
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        return entry("N" + name + ":" + descriptor, CONSTANT_NAME_AND_TYPE,
+            utf8(name), utf8(descriptor), null, 0);
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return entry("F" + owner + "." + name + ":" + descriptor, CONSTANT_FIELDREF,
+            classRef(owner), nameAndType(name, descriptor), null, 0);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return entry("M" + owner + "." + name + ":" + descriptor, CONSTANT_METHODREF,
+            classRef(owner), nameAndType(name, descriptor), null, 0);
+    }
+
+    // ---- Methods ----
+
+    final class Code {
+        private byte[] code = new byte[256];
+        private int length;
+        private final List<int[]> fixups = new ArrayList<>();  // {branch pc, patch pos, label}
+        private final List<Integer> labels = new ArrayList<>();
+
+        private void u1(int value) {
+            if (length == code.length) {
+                byte[] grown = new byte[code.length * 2];
+                System.arraycopy(code, 0, grown, 0, length);
+                code = grown;
+            }
+            code[length++] = (byte) value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        void op(int opcode) {
+            u1(opcode);
+        }
+
+        void iconst(int value) {
+            if (value >= -1 && value <= 5) {
+                u1(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                u1(BIPUSH);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                u1(SIPUSH);
+                u2(value);
+            } else {
+                u1(LDC_W);
+                u2(integer(value));
+            }
+        }
+
+        void iload(int local) {
+            u1(ILOAD);
+            u1(local);
+        }
+
+        void istore(int local) {
+            u1(ISTORE);
+            u1(local);
+        }
+
+        void aload(int local) {
+            u1(ALOAD);
+            u1(local);
+        }
+
+        void iinc(int local, int delta) {
+            if (delta >= Byte.MIN_VALUE && delta <= Byte.MAX_VALUE) {
+                u1(IINC);
+                u1(local);
+                u1(delta);
+            } else {
+                iload(local);
+                iconst(delta);
+                u1(IADD);
+                istore(local);
+            }
+        }
+
+        void field(int opcode, String owner, String name, String descriptor) {
+            u1(opcode);
+            u2(fieldRef(owner, name, descriptor));
+        }
+
+        void invoke(int opcode, String owner, String name, String descriptor) {
+            u1(opcode);
+            u2(methodRef(owner, name, descriptor));
+        }
+
+        int newLabel() {
+            labels.add(-1);
+            return labels.size() - 1;
+        }
+
+        void mark(int label) {
+            labels.set(label, length);
+        }
+
+        void jump(int opcode, int label) {
+            int at = length;
+            u1(opcode);
+            fixups.add(new int[]{at, length, label});
+            u2(0);
+        }
+
+        private byte[] finish() {
+            for (int[] fixup : fixups) {
+                int target = labels.get(fixup[2]);
+                if (target < 0) {
+                    throw new IllegalStateException("Label " + fixup[2] + " was never marked");
+                }
+                int offset = target - fixup[0];
+                code[fixup[1]] = (byte) (offset >> 8);
+                code[fixup[1] + 1] = (byte) offset;
+            }
+            if (length > 0xFFFF) {
+                throw new IllegalStateException("Method too large: " + length + " bytes");
+            }
+            byte[] result = new byte[length];
+            System.arraycopy(code, 0, result, 0, length);
+            return result;
+        }
+    }
+
+    Code newCode() {
+        return new Code();
+    }
+
+    void addMethod(int access, String name, String descriptor, Code code, int maxStack, int maxLocals) {
+        byte[] bytecode = code.finish();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1);                      // attributes: Code
+            out.writeShort(utf8("Code"));
+            out.writeInt(2 + 2 + 4 + bytecode.length + 2 + 2);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(bytecode.length);
+            out.write(bytecode);
+            out.writeShort(0);                      // exception table
+            out.writeShort(0);                      // code attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        methods.add(bytes.toByteArray());
+    }
+
+    byte[] toByteArray(int access, String thisName, String superName) {
+        int thisIndex = classRef(thisName);
+        int superIndex = classRef(superName);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            out.write(poolBytes.toByteArray());
+            out.writeShort(access);
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(0);                      // interfaces
+            out.writeShort(0);                      // fields
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0);                      // class attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
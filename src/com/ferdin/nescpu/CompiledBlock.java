@@ -0,0 +1,16 @@
+package com.ferdin.nescpu;
+
+abstract class CompiledBlock {
+    // Base class of the hidden classes generated by BlockCompiler.
+    // run() executes the whole block and leaves the CPU exactly as the
+    // interpreter would after the block's last instruction.
+
+    // Cleared by BlockCache when a write hits the block's code. The
+    // generated code checks it after stores that could hit its own pages.
+    boolean valid = true;
+
+    protected CompiledBlock() {
+    }
+
+    abstract void run(DemoNES cpu);
+}
@@ -0,0 +1,146 @@
+package com.ferdin.nescpu;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public final class Coverage {
+    // Which bytes of the address space ran as code: one bit per address in
+    // a long[1024], set for the opcode and operand bytes of every
+    // instruction executed. A second bitmap keeps only the opcode
+    // addresses, so the disassembly knows where instructions start.
+    //
+    // DemoNES.setCoverage() switches runCycles to interpretCovered(), the
+    // plain loop plus a couple of ORs per instruction, so it's cheap enough
+    // for every job of a batch. Bitmaps from many runs merge with merge().
+
+    public final long[] executed = new long[0x10000 / 64];
+    public final long[] opcodes = new long[0x10000 / 64];
+
+    // Called by the interpreter loops before an instruction runs
+    void mark(int pc, int bytes) {
+        opcodes[pc >> 6] |= 1L << pc;
+        executed[pc >> 6] |= 1L << pc;
+        for (int i = 1; i < bytes; i++) {
+            int addr = (pc + i) & 0xFFFF;
+            executed[addr >> 6] |= 1L << addr;
+        }
+    }
+
+    public boolean isExecuted(int addr) {
+        return (executed[addr >> 6] & (1L << addr)) != 0;
+    }
+
+    public boolean isOpcode(int addr) {
+        return (opcodes[addr >> 6] & (1L << addr)) != 0;
+    }
+
+    // Adds other's coverage to this one
+    public void merge(Coverage other) {
+        for (int i = 0; i < executed.length; i++) {
+            executed[i] |= other.executed[i];
+            opcodes[i] |= other.opcodes[i];
+        }
+    }
+
+    // Executed bytes in [from, to]
+    public int count(int from, int to) {
+        int total = 0;
+        for (int addr = from; addr <= to; addr++) {
+            if (isExecuted(addr)) {
+                total++;
+            }
+        }
+        return total;
+    }
+
+    public void clear() {
+        Arrays.fill(executed, 0);
+        Arrays.fill(opcodes, 0);
+    }
+
+    // Disassembly of [from, to] from cpu's memory, executed instructions
+    // marked with '*'. Bytes that never ran are disassembled by a linear
+    // sweep, which may show data as code.
+    //   * 0600  20 06 06  JSR $0606
+    //     0735  00        BRK
+    public void writeDisassembly(Appendable out, DemoNES cpu, int from, int to) throws IOException {
+        StringBuilder line = new StringBuilder(48);
+        int addr = from;
+        while (addr <= to) {
+            // An instruction that ran wins over a sweep that lands mid-way
+            int opcode = cpu.memRead(addr);
+            int bytes = Instructions.TABLE[opcode].bytes;
+            if (!isOpcode(addr)) {
+                for (int i = 1; i < bytes; i++) {
+                    if (isOpcode((addr + i) & 0xFFFF)) {
+                        bytes = i;
+                        break;
+                    }
+                }
+            }
+            int operand = 0;
+            if (bytes == 2) {
+                operand = cpu.memRead(addr + 1);
+            } else if (bytes == 3) {
+                operand = cpu.memRead(addr + 1) | (cpu.memRead(addr + 2) << 8);
+            }
+
+            line.setLength(0);
+            line.append(isOpcode(addr) ? "* " : "  ");
+            Disassembler.hex(line, addr, 4);
+            line.append(' ');
+            for (int i = 0; i < 3; i++) {
+                line.append(' ');
+                if (i < bytes) {
+                    Disassembler.hex(line, cpu.memRead(addr + i), 2);
+                } else {
+                    line.append("  ");
+                }
+            }
+            line.append("  ");
+            if (bytes == Instructions.TABLE[opcode].bytes) {
+                Disassembler.append(line, addr, opcode, operand);
+            } else {
+                line.append(".db");     // cut short by an instruction that ran
+            }
+            out.append(line).append('\n');
+            addr += bytes;
+        }
+    }
+
+    // Machine readable summary of [from, to] as JSON: totals and the
+    // executed address ranges, inclusive.
+    // {"from":1536,"to":1844,"bytes":309,"executedBytes":300,"instructions":150,
+    //  "executed":[[1536,1700],[1702,1844]]}
+    public void writeReport(Appendable out, int from, int to) throws IOException {
+        int instructions = 0;
+        for (int addr = from; addr <= to; addr++) {
+            if (isOpcode(addr)) {
+                instructions++;
+            }
+        }
+        out.append("{\"from\":").append(Integer.toString(from))
+            .append(",\"to\":").append(Integer.toString(to))
+            .append(",\"bytes\":").append(Integer.toString(to - from + 1))
+            .append(",\"executedBytes\":").append(Integer.toString(count(from, to)))
+            .append(",\"instructions\":").append(Integer.toString(instructions))
+            .append(",\"executed\":[");
+        boolean first = true;
+        int addr = from;
+        while (addr <= to) {
+            if (!isExecuted(addr)) {
+                addr++;
+                continue;
+            }
+            int start = addr;
+            while (addr < to && isExecuted(addr + 1)) {
+                addr++;
+            }
+            out.append(first ? "" : ",").append('[').append(Integer.toString(start))
+                .append(',').append(Integer.toString(addr)).append(']');
+            first = false;
+            addr++;
+        }
+        out.append("]}\n");
+    }
+}
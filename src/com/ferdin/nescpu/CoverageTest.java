@@ -0,0 +1,67 @@
+package com.ferdin.nescpu;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CoverageTest {
+
+    private static final byte[] PROGRAM = {
+        (byte)0xA5, 0x10,              // LDA $10
+        (byte)0xF0, 0x03,              // BEQ skip
+        (byte)0x8D, 0x00, 0x02,        // STA $0200
+        (byte)0x00                     // skip: BRK
+    };
+
+    @Test
+    void test_marks_opcode_and_operand_bytes() throws Exception {
+        DemoNES cpu = new DemoNES();
+        cpu.load(PROGRAM, 0x8000);
+        cpu.reset();
+        Coverage coverage = new Coverage();
+        cpu.setCoverage(coverage);
+        assertEquals(DemoNES.RunResult.BREAK, cpu.runCycles(100));
+
+        assertTrue(coverage.isOpcode(0x8000));
+        assertTrue(coverage.isExecuted(0x8001));
+        assertFalse(coverage.isOpcode(0x8001));
+        assertFalse(coverage.isExecuted(0x8004));   // STA skipped, $10 is 0
+        assertEquals(5, coverage.count(0x8000, 0x8007));
+
+        StringBuilder disassembly = new StringBuilder();
+        coverage.writeDisassembly(disassembly, cpu, 0x8000, 0x8007);
+        assertEquals(
+            "* 8000  A5 10     LDA $10\n"
+            + "* 8002  F0 03     BEQ $8007\n"
+            + "  8004  8D 00 02  STA $0200\n"
+            + "* 8007  00        BRK\n",
+            disassembly.toString());
+
+        StringBuilder report = new StringBuilder();
+        coverage.writeReport(report, 0x8000, 0x8007);
+        assertEquals("{\"from\":32768,\"to\":32775,\"bytes\":8,\"executedBytes\":5,\"instructions\":3,"
+            + "\"executed\":[[32768,32771],[32775,32775]]}\n", report.toString());
+    }
+
+    @Test
+    void test_batch_coverage_merges() {
+        // LDA $10 reads 0 and skips the STA, LDA $FF reads the input and doesn't
+        List<BatchRunner.Job> jobs = new ArrayList<>();
+        for (int address : new int[]{0x10, 0xFF}) {
+            byte[] program = PROGRAM.clone();
+            program[1] = (byte) address;
+            BatchRunner.Job job = new BatchRunner.Job(program, 0x8000, new byte[]{1}, 1, 1000);
+            job.coverage = true;
+            jobs.add(job);
+        }
+
+        Coverage merged = new Coverage();
+        try (BatchRunner runner = new BatchRunner(2, false)) {
+            for (BatchRunner.Result result : runner.run(jobs)) {
+                merged.merge(result.coverage);
+            }
+        }
+        assertEquals(8, merged.count(0x8000, 0x8007));
+    }
+}
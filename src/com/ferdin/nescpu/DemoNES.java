@@ -1,11 +1,28 @@
 package com.ferdin.nescpu;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
 public class DemoNES {
 
     @FunctionalInterface
     public interface CpuCallback {
         void execute(DemoNES cpu);
     }
+
+    @FunctionalInterface
+    public interface WriteCallback {
+        void written(DemoNES cpu, int addr, int value);
+    }
+
+    // Why runCycles / runFrame returned
+    public enum RunResult {
+        BUDGET_EXHAUSTED,   // ran out of cycles, call again to continue
+        BREAK,              // hit BRK (0x00)
+        ILLEGAL_OPCODE      // PC is left on the opcode we can't execute
+    }
     // I created this class to learn NESCPU from bugzmanov/nes_ebook
 //https://github.com/bugzmanov/nes_ebook/blob/master/src/chapter_3_2.md
         // CPU Registers (8-bit)
@@ -18,15 +35,74 @@ public class DemoNES {
         // Program Counter (16-bit)
         public int programCounter;
 
+        // Timing
+        // NTSC: 341 PPU dots * 262 scanlines / 3 dots per CPU cycle
+        public static final int CYCLES_PER_FRAME = 29781;
+        public long cycles;          // CPU cycles since power on
+        public long frameCount;      // frame boundaries passed
+        private long nextFrameCycle = CYCLES_PER_FRAME;
+        public long instructions;    // instructions executed since created
+        public long hookCalls;       // callbacks run since created
+        boolean pageCrossed;         // set by AddressingModes for indexed reads
+
         // Stack
         public int stack = 0x0100;
         public int stack_reset = 0xFD;
 
-        // 64KB Memory
-        private byte[] memory;
-
-        // Flags
-        private boolean carryFlag = false;
+        // Shadow call stack of JSR targets, kept by jsr() / rts() with plain
+        // writes for SamplingProfiler to read. Calls deeper than
+        // CALL_STACK_SIZE are counted but not stored.
+        static final int CALL_STACK_SIZE = 64;
+        final int[] callStack = new int[CALL_STACK_SIZE];
+        int callDepth;
+
+        // 64KB address space: RAM, I/O registers and cartridge
+        public final Bus bus = new Bus();
+
+        // Decoded-block cache, null until enableBlockCache() is called
+        private BlockCache blockCache;
+        // Per-page flags checked by memWrite, 0 means a plain write
+        static final int CODE_PAGE = 1;       // holds cached blocks
+        static final int WATCHED_PAGE = 2;    // has a write watch on it
+        final byte[] pageFlags = new byte[256];
+
+        // Hooks, all off by default. Only registered hooks cost anything:
+        // frame hooks run between slices, write watches live behind the
+        // page flag check memWrite already does, and only the per
+        // instruction hooks switch runCycles over to interpretHooked().
+        private final List<CpuCallback> frameHooks = new ArrayList<>();
+        private CpuCallback instructionHook;
+        private int instructionHookInterval;
+        private int instructionsUntilHook;
+        private CpuCallback breakpointHook;
+        private final long[] breakpoints = new long[0x10000 / 64];
+        private int breakpointCount;
+        private Trace trace;
+        private Profiler profiler;
+        private Coverage coverage;
+        private EmulatorMetrics metrics;
+        private final List<WriteWatch> writeWatches = new ArrayList<>();
+
+        // Flight Recorder events, reused (see EmulatorEvents). The counters
+        // are where the current frame started.
+        private final EmulatorEvents.Frame frameEvent = new EmulatorEvents.Frame();
+        private final EmulatorEvents.Snapshot snapshotEvent = new EmulatorEvents.Snapshot();
+        private boolean frameEventBegun;
+        private long frameStartInstructions;
+        private long frameStartCycles;
+        private long frameStartHookCalls;
+
+        private static final class WriteWatch {
+            final int from;
+            final int to;
+            final WriteCallback callback;
+
+            WriteWatch(int from, int to, WriteCallback callback) {
+                this.from = from;
+                this.to = to;
+                this.callback = callback;
+            }
+        }
 
         // Flag bit masks
         public static final int CARRY             = 0b00000001;
@@ -38,6 +114,18 @@ public class DemoNES {
         public static final int OVERFLOW          = 0b01000000;
         public static final int NEGATIVE          = 0b10000000;
 
+        // Lazy flags. Most N / Z / C results are overwritten before anything
+        // reads them, so inside the run loops those three aren't kept in
+        // status but here:
+        //   flagResult  the last result, Z if its low byte is 0, N if bit 7 or 8 is set
+        //   carry       0 or 1
+        // storeFlags() folds them into status, loadFlags() takes them back
+        // out. status is up to date outside the run loops and while a hook,
+        // the trace or a write watch runs, and is read back after them.
+        // The handlers below only touch the lazy flags.
+        int flagResult = 1;
+        int carry;
+
         public enum AddressingMode {
             IMMEDIATE,
             ZERO_PAGE,
@@ -48,72 +136,13 @@ public class DemoNES {
             ABSOLUTE_Y,
             INDIRECT_X,
             INDIRECT_Y,
+            INDIRECT,
+            RELATIVE,
+            ACCUMULATOR,
             NONE_ADDRESSING
         }
 
-        // In your DemoNES class, add:
-
-        private int getOperandAddress(AddressingMode mode) {
-            switch (mode) {
-                case IMMEDIATE:
-                    return programCounter;
-                    
-                case ZERO_PAGE:
-                    return memRead(programCounter) & 0xFF;
-                    
-                case ABSOLUTE:
-                    return memReadU16(programCounter);
-                    
-                case ZERO_PAGE_X: {
-                    int pos = memRead(programCounter) & 0xFF;
-                    int addr = (pos + registerX) & 0xFF;  // Wrapping add, keep in zero page
-                    return addr;
-                }
-                
-                case ZERO_PAGE_Y: {
-                    int pos = memRead(programCounter) & 0xFF;
-                    int addr = (pos + registerY) & 0xFF;  // Wrapping add, keep in zero page
-                    return addr;
-                }
-                
-                case ABSOLUTE_X: {
-                    int base = memReadU16(programCounter);
-                    int addr = (base + registerX) & 0xFFFF;  // Wrapping add
-                    return addr;
-                }
-                
-                case ABSOLUTE_Y: {
-                    int base = memReadU16(programCounter);
-                    int addr = (base + registerY) & 0xFFFF;  // Wrapping add
-                    return addr;
-                }
-                
-                case INDIRECT_X: {
-                    int base = memRead(programCounter) & 0xFF;
-                    int ptr = (base + registerX) & 0xFF;  // Wrapping add
-                    int lo = memRead(ptr) & 0xFF;
-                    int hi = memRead((ptr + 1) & 0xFF) & 0xFF;  // Wrapping add
-                    return (hi << 8) | lo;
-                }
-                
-                case INDIRECT_Y: {
-                    int base = memRead(programCounter) & 0xFF;
-                    int lo = memRead(base) & 0xFF;
-                    int hi = memRead((base + 1) & 0xFF) & 0xFF;  // Wrapping add
-                    int derefBase = (hi << 8) | lo;
-                    int deref = (derefBase + registerY) & 0xFFFF;  // Wrapping add
-                    return deref;
-                }
-                
-                case NONE_ADDRESSING:
-                    throw new UnsupportedOperationException("AddressingMode " + mode + " is not supported");
-                    
-                default:
-                    throw new UnsupportedOperationException("Unknown addressing mode: " + mode);
-            }
-        }
         public DemoNES() {
-            this.memory = new byte[0xFFFF];
             reset();
         }
 
@@ -123,17 +152,48 @@ public class DemoNES {
             registerY = 0;
             stackPointer = stack_reset;
             status = 0;
+            loadFlags();
             programCounter = memReadU16(0xFFFC); // Reset vector
+
+            callDepth = 0;
+
+            // The reset sequence itself takes 7 cycles
+            cycles = 7;
+            frameCount = 0;
+            nextFrameCycle = CYCLES_PER_FRAME;
+            beginFrame();
         }
 
          // Equivalent to Rust’s mem_read
         public int memRead(int addr) {
-            return memory[addr & 0xFFFF] & 0xFF;
+            return bus.read(addr & 0xFFFF);
         }
 
         // Equivalent to Rust’s mem_write
         public void memWrite(int addr, byte data) {
-            memory[addr & 0xFFFF] = data;
+            addr &= 0xFFFF;
+            bus.write(addr, data);
+            int flags = pageFlags[addr >> 8];
+            if (flags != 0) {
+                pageWritten(addr, data & 0xFF, flags);
+            }
+        }
+
+        private void pageWritten(int addr, int value, int flags) {
+            if ((flags & CODE_PAGE) != 0) {
+                blockCache.invalidatePage(addr >> 8);
+            }
+            if ((flags & WATCHED_PAGE) != 0) {
+                storeFlags();
+                for (int i = 0; i < writeWatches.size(); i++) {
+                    WriteWatch watch = writeWatches.get(i);
+                    if (addr >= watch.from && addr <= watch.to) {
+                        hookCalls++;
+                        watch.callback.written(this, addr, value);
+                    }
+                }
+                loadFlags();
+            }
         }
 
         // Loads program into memory at a default start address
@@ -145,11 +205,229 @@ public class DemoNES {
 
         public void load(byte[] program) {
             // Copy program into memory starting at 0x8000
-            System.arraycopy(program, 0, memory, 0x8000, program.length);
-            memWriteU16(0xFFFC, 0x8000);
+            load(program, 0x8000);
+        }
+
+        public void load(byte[] program, int startAddress) {
+            for (int i = 0; i < program.length; i++) {
+                bus.poke(startAddress + i, program[i]);
+            }
+            bus.poke(0xFFFC, (byte) (startAddress & 0xFF));
+            bus.poke(0xFFFD, (byte) (startAddress >> 8));
+            if (blockCache != null) {
+                blockCache.invalidateAll();
+            }
+        }
+
+        // Maps the cartridge's ROM into the bus, call reset() to start it
+        public void loadCartridge(Cartridge cartridge) {
+            bus.insert(cartridge);
+            if (blockCache != null) {
+                blockCache.invalidateAll();
+            }
+        }
+
+        // Save states: a small fixed header, the CPU, then the bus memory.
+        // Always big endian, whatever order the caller's buffer is in.
+        public static final int STATE_MAGIC = 0x4E455353;   // "NESS"
+        public static final int STATE_VERSION = 1;
+        private static final int CPU_STATE_SIZE = 4 + 2 + 6 + 2 + 8 * 3;
+
+        // Bytes saveState() needs, fixed for a given cartridge
+        public int stateSize() {
+            return CPU_STATE_SIZE + bus.stateSize();
+        }
+
+        // Writes the machine state at the buffer's position without
+        // allocating. Returns the number of bytes written.
+        public int saveState(ByteBuffer out) {
+            snapshotEvent.begin();
+            ByteOrder order = out.order();
+            out.order(ByteOrder.BIG_ENDIAN);
+            int start = out.position();
+
+            out.putInt(STATE_MAGIC);
+            out.putShort((short) STATE_VERSION);
+            out.put((byte) registerA);
+            out.put((byte) registerX);
+            out.put((byte) registerY);
+            out.put((byte) stackPointer);
+            out.put((byte) status);
+            out.put((byte) (status & CARRY));    // was a separate carry flag
+            out.putShort((short) programCounter);
+            out.putLong(cycles);
+            out.putLong(frameCount);
+            out.putLong(nextFrameCycle);
+            bus.saveState(out);
+
+            out.order(order);
+            int written = out.position() - start;
+            commitSnapshotEvent(false, written);
+            return written;
+        }
+
+        // Restores a state written by saveState(), with the same cartridge loaded
+        public void loadState(ByteBuffer in) {
+            snapshotEvent.begin();
+            int start = in.position();
+            ByteOrder order = in.order();
+            in.order(ByteOrder.BIG_ENDIAN);
+            try {
+                if (in.getInt() != STATE_MAGIC) {
+                    throw new IllegalArgumentException("Not a DemoNES save state");
+                }
+                int version = in.getShort();
+                if (version != STATE_VERSION) {
+                    throw new IllegalArgumentException("Unsupported save state version " + version);
+                }
+                registerA = in.get() & 0xFF;
+                registerX = in.get() & 0xFF;
+                registerY = in.get() & 0xFF;
+                stackPointer = in.get() & 0xFF;
+                status = in.get() & 0xFF;
+                in.get();                           // carry again, status has it
+                loadFlags();
+                programCounter = in.getShort() & 0xFFFF;
+                cycles = in.getLong();
+                frameCount = in.getLong();
+                nextFrameCycle = in.getLong();
+                callDepth = 0;      // not saved, the profiler starts over
+                bus.loadState(in);
+            } finally {
+                in.order(order);
+            }
+
+            if (blockCache != null) {
+                blockCache.invalidateAll();
+            }
+            // The restored cycle count isn't a continuation of this frame
+            beginFrame();
+            commitSnapshotEvent(true, in.position() - start);
+        }
+
+        private void commitSnapshotEvent(boolean restore, int bytes) {
+            snapshotEvent.end();
+            if (snapshotEvent.shouldCommit()) {
+                snapshotEvent.restore = restore;
+                snapshotEvent.bytes = bytes;
+                snapshotEvent.frame = frameCount;
+                snapshotEvent.commit();
+            }
         }
 
-        private int memReadU16(int pos) {
+        // Caches decoded blocks for runCycles / runFrame.
+        // Costs a 64K-entry lookup table, so it's opt in.
+        public BlockCache enableBlockCache() {
+            if (blockCache == null) {
+                blockCache = new BlockCache(this);
+            }
+            return blockCache;
+        }
+
+        // Block cache plus translation of hot blocks to JVM bytecode
+        public BlockCompiler enableJit() {
+            return enableBlockCache().enableJit(BlockCompiler.DEFAULT_THRESHOLD);
+        }
+
+        // Called after every frame boundary the CPU passes. Adds to the
+        // frame hooks already set, they run in the order they were added.
+        public void onFrame(CpuCallback callback) {
+            if (callback == null) {
+                throw new IllegalArgumentException("Frame hook is null, use removeFrameHook()");
+            }
+            frameHooks.add(callback);
+        }
+
+        public void removeFrameHook(CpuCallback callback) {
+            frameHooks.remove(callback);
+        }
+
+        public void clearFrameHooks() {
+            frameHooks.clear();
+        }
+
+        // Called before every `interval`-th instruction, null removes it
+        public void onEveryInstructions(int interval, CpuCallback callback) {
+            if (callback != null && interval <= 0) {
+                throw new IllegalArgumentException("Interval must be positive: " + interval);
+            }
+            instructionHook = callback;
+            instructionHookInterval = interval;
+            instructionsUntilHook = interval;
+        }
+
+        // Called before executing an instruction at any breakpoint address
+        public void onBreakpoint(CpuCallback callback) {
+            breakpointHook = callback;
+        }
+
+        // Records every instruction into trace from now on, null stops
+        public void setTrace(Trace trace) {
+            this.trace = trace;
+        }
+
+        public Trace getTrace() {
+            return trace;
+        }
+
+        // Counts every instruction into profiler from now on, null stops
+        public void setProfiler(Profiler profiler) {
+            this.profiler = profiler;
+        }
+
+        // Marks every executed instruction's bytes in coverage from now on,
+        // null stops
+        public void setCoverage(Coverage coverage) {
+            this.coverage = coverage;
+        }
+
+        // Hands the counters to metrics at every frame boundary from now
+        // on, null stops. EmulatorMetrics.register() calls this.
+        public void setMetrics(EmulatorMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        BlockCache blockCache() {
+            return blockCache;
+        }
+
+        public void addBreakpoint(int addr) {
+            addr &= 0xFFFF;
+            if ((breakpoints[addr >> 6] & (1L << addr)) == 0) {
+                breakpoints[addr >> 6] |= 1L << addr;
+                breakpointCount++;
+            }
+        }
+
+        public void removeBreakpoint(int addr) {
+            addr &= 0xFFFF;
+            if ((breakpoints[addr >> 6] & (1L << addr)) != 0) {
+                breakpoints[addr >> 6] &= ~(1L << addr);
+                breakpointCount--;
+            }
+        }
+
+        // Called after every write to an address in [from, to]. Under the
+        // JIT this can fire in the middle of a compiled block, so registers
+        // may be stale and shouldn't be changed from the callback.
+        public void watchWrites(int from, int to, WriteCallback callback) {
+            if (from < 0 || to > 0xFFFF || from > to) {
+                throw new IllegalArgumentException("Bad address range: " + from + ".." + to);
+            }
+            writeWatches.add(new WriteWatch(from, to, callback));
+            for (int page = from >> 8; page <= to >> 8; page++) {
+                pageFlags[page] |= WATCHED_PAGE;
+            }
+        }
+
+        public void clearWriteWatches() {
+            writeWatches.clear();
+            for (int page = 0; page < 256; page++) {
+                pageFlags[page] &= ~WATCHED_PAGE;
+            }
+        }
+
+        public int memReadU16(int pos) {
             int lo = memRead(pos) & 0xFF;  // Treat as unsigned byte
             int hi = memRead(pos + 1) & 0xFF;  // Treat as unsigned byte
             return (hi << 8) | lo;
@@ -162,26 +440,22 @@ public class DemoNES {
             memWrite(pos + 1, hi);
         }
 
-        public void lda(AddressingMode mode){
-            int addr = getOperandAddress(mode);
+        public void lda(int addr) {
             int value = memRead(addr);
 
             registerA = value & 0xFF;
             update_zero_and_negative_flags(registerA);
         }
 
-        public void sta(AddressingMode mode){
-            int addr = getOperandAddress(mode);
+        public void sta(int addr) {
             memWrite(addr, (byte)(registerA & 0xFF));
         }
 
-        public void stx(AddressingMode mode){
-            int addr = getOperandAddress(mode);
+        public void stx(int addr) {
             memWrite(addr, (byte)(registerX & 0xFF));
         }
 
-        public void sty(AddressingMode mode){
-            int addr = getOperandAddress(mode);
+        public void sty(int addr) {
             memWrite(addr, (byte)(registerY & 0xFF));
         }
 
@@ -195,8 +469,7 @@ public class DemoNES {
             update_zero_and_negative_flags(registerY);
         }
 
-        public void and(AddressingMode mode){
-            int addr = getOperandAddress(mode);
+        public void and(int addr) {
             int value = memRead(addr);
 
             registerA = (registerA & value) & 0xFF;
@@ -224,8 +497,12 @@ public class DemoNES {
         }
 
         public void tsx(){
+            registerX = stackPointer & 0xFF;
+            update_zero_and_negative_flags(registerX);
+        }
+
+        public void txs(){
             stackPointer = registerX;
-            update_zero_and_negative_flags(stackPointer);
         }
 
         public void pla(){
@@ -236,37 +513,32 @@ public class DemoNES {
             update_zero_and_negative_flags(registerA);
         }
 
-        public void ora(AddressingMode mode){
-            int addr = getOperandAddress(mode);
+        public void ora(int addr) {
             int value = memRead(addr);
             registerA = (registerA | value) & 0xFF;
             update_zero_and_negative_flags(registerA);
         }
 
-        public void inc(AddressingMode mode){
-            int addr = getOperandAddress(mode);
+        public void inc(int addr) {
             int value = memRead(addr);
             value = (value + 1) & 0xFF;
             memWrite(addr, (byte)value);
             update_zero_and_negative_flags(value);
         }
 
-        public void ldx(AddressingMode mode){
-            int addr = getOperandAddress(mode);
+        public void ldx(int addr) {
             int value = memRead(addr);
             registerX = value & 0xFF;
             update_zero_and_negative_flags(registerX);
         }
 
-        public void ldy(AddressingMode mode){
-            int addr = getOperandAddress(mode);
+        public void ldy(int addr) {
             int value = memRead(addr);
             registerY = value & 0xFF;
             update_zero_and_negative_flags(registerY);
         }
 
-        public void eor(AddressingMode mode){
-            int addr = getOperandAddress(mode);
+        public void eor(int addr) {
             int value = memRead(addr);
             registerA = (registerA ^ value) & 0xFF;
             update_zero_and_negative_flags(registerA);
@@ -282,13 +554,12 @@ public class DemoNES {
             update_zero_and_negative_flags(registerY);
         }
 
-        public void adc(AddressingMode mode){
-                int addr = getOperandAddress(mode);
+        public void adc(int addr) {
                 int value = memRead(addr);
 
                 int oldA = registerA;   // Save original A
 
-                int result = oldA + value + (carryFlag ? 1 : 0);
+                int result = oldA + value + carry;
 
                 updateCarryFlag(result);
 
@@ -304,11 +575,7 @@ public class DemoNES {
         private int aslValue(int value) {
 
             // Set Carry from bit 7 before shift
-            if ((value & 0x80) != 0) {
-                status |= CARRY;
-            } else {
-                status &= ~CARRY;
-            }
+            carry = value >> 7;
 
             int result = (value << 1) & 0xFF;
 
@@ -321,8 +588,7 @@ public class DemoNES {
             registerA = aslValue(registerA);
         }
 
-        public void asl(AddressingMode mode) {
-            int addr = getOperandAddress(mode);
+        public void asl(int addr) {
             int value = memRead(addr);
 
             int result = aslValue(value);
@@ -330,119 +596,80 @@ public class DemoNES {
             memWrite(addr, (byte) (result & 0xFF));
         }
 
-        public void bcc() {
-            int offset = memRead(programCounter);
-            programCounter++;
+        private void branchTo(int target) {
+            // Taken branch costs 1 extra cycle, 2 if it lands on another page
+            cycles += ((programCounter ^ target) & 0xFF00) != 0 ? 2 : 1;
+            programCounter = target;
+        }
 
-            if ((status & CARRY) == 0) {   // Carry clear?
-                int signedOffset = (byte) offset;
-                programCounter += signedOffset;
+        public void bcc(int target) {
+            if (carry == 0) {   // Carry clear?
+                branchTo(target);
             }
         }
 
-        public void bcs(){
-            int offset = memRead(programCounter);
-            programCounter++;
-
-            if ((status & CARRY) != 0) {   // Carry set?
-                int signedOffset = (byte) offset;
-                programCounter += signedOffset;
+        public void bcs(int target){
+            if (carry != 0) {   // Carry set?
+                branchTo(target);
             }
         }
 
         public void sec() {
-            status |= CARRY;
+            carry = 1;
         }
 
         public void clc() {
-            status &= ~CARRY;  // clear the carry bit
-            carryFlag = false; // if you are also tracking it separately
+            carry = 0;
         }
 
-        public void beq() {
-
-            int offset = memRead(programCounter);
-            programCounter++;
-
-            if ((status & ZERO) != 0) {  // Zero flag set?
-                int signedOffset = (byte) offset; // convert to signed
-                programCounter += signedOffset;
+        public void beq(int target) {
+            if ((flagResult & 0xFF) == 0) {  // Zero flag set?
+                branchTo(target);
             }
         }
 
-        public void bit(AddressingMode mode) {
-
-            int addr = getOperandAddress(mode);
+        public void bit(int addr) {
             int value = memRead(addr);
 
             // 1️⃣ Zero flag: set if (A & value) == 0
-            if ((registerA & value) == 0) {
-                status |= ZERO;
-            } else {
-                status &= ~ZERO;
-            }
-
-            // 2️⃣ Negative flag = bit 7 of memory
-            if ((value & 0x80) != 0) {
-                status |= NEGATIVE;
-            } else {
-                status &= ~NEGATIVE;
-            }
+            // 2️⃣ Negative flag = bit 7 of memory, moved to bit 8 so it
+            //    doesn't depend on A
+            flagResult = (registerA & value) | ((value & 0x80) << 1);
 
             // 3️⃣ Overflow flag = bit 6 of memory
-            if ((value & 0x40) != 0) {
-                status |= OVERFLOW;
-            } else {
-                status &= ~OVERFLOW;
-            }
+            status = (status & ~OVERFLOW) | (value & OVERFLOW);
         }
 
-        public void bmi() {
-
-            int offset = memRead(programCounter);
-            programCounter++;
-
-            if ((status & NEGATIVE) != 0) {  // Negative flag set?
-                programCounter += (byte) offset;
+        public void bmi(int target) {
+            if ((flagResult & 0x180) != 0) {  // Negative flag set?
+                branchTo(target);
             }
         }
 
-        public void bne() {
-            int offset = memRead(programCounter);
-            programCounter++;
-
-            if ((status & ZERO) == 0) {  // Zero flag clear?
-                programCounter += (byte) offset;
+        public void bne(int target) {
+            if ((flagResult & 0xFF) != 0) {  // Zero flag clear?
+                branchTo(target);
             }
         }
 
-        public void bpl() {
-            int offset = memRead(programCounter);
-            programCounter++;
-
+        public void bpl(int target) {
             // Negative flag clear?
-            if ((status & NEGATIVE) == 0) {
-                programCounter += (byte) offset;  // signed addition
+            if ((flagResult & 0x180) == 0) {
+                branchTo(target);
             }
         }
 
-        public void bvc() {
-            int offset = memRead(programCounter);
-            programCounter++;
-
+        public void bvc(int target) {
             // Overflow flag clear?
             if ((status & OVERFLOW) == 0) {
-                programCounter += (byte) offset;  // signed addition
+                branchTo(target);
             }
         }
 
-        public void bvs() {
-            int offset = memRead(programCounter);
-            programCounter++;
-
+        public void bvs(int target) {
             // Overflow flag set?
             if ((status & OVERFLOW) != 0) {
-                programCounter += (byte) offset;  // signed addition
+                branchTo(target);
             }
         }
 
@@ -458,89 +685,63 @@ public class DemoNES {
             status &= ~OVERFLOW;  // clear the V flag
         }
 
-        public void cpx(AddressingMode mode) {
-            int addr = getOperandAddress(mode);
-            int value = memRead(addr);
-            int result = registerX - value;
-
-            // Carry flag
-            if (registerX >= value) {
-                status |= CARRY;
-            } else {
-                status &= ~CARRY;
-            }
+        public void cpx(int addr) {
+            compare(registerX, addr);
+        }
 
-            // Zero & Negative flags
-            update_zero_and_negative_flags(result & 0xFF);
+        public void cpy(int addr) {
+            compare(registerY, addr);
         }
 
-        public void cpy(AddressingMode mode) {
-            int addr = getOperandAddress(mode);
-            int value = memRead(addr);
-            int result = registerY - value;
 
-            // Carry flag
-            if (registerY >= value) {
-                status |= CARRY;
-            } else {
-                status &= ~CARRY;
-            }
+        // Z and N are worked out from the result when something reads them
+        public void update_zero_and_negative_flags(int result){
+            flagResult = result;
+        }
 
-            // Zero & Negative flags
-            update_zero_and_negative_flags(result & 0xFF);
+        public void updateCarryFlag(int result) {
+            carry = (0xFF - result) >>> 31;     // result > 0xFF
         }
 
+        private void updateOverflowFlag(int oldA, int value, int result) {
+            // Sign of both inputs differs from the result's, moved to bit 6
+            status = (status & ~OVERFLOW) | (((oldA ^ result) & (value ^ result) & 0x80) >> 1);
+        }
 
-        public void update_zero_and_negative_flags(int result){
-            // ---- Zero Flag (bit 1) ----
-            if (result == 0) {
-                status = status | 0b0000_0010;      // Set zero flag
-            } else {
-                status = status & 0b1111_1101;      // Clear zero flag
+        // N / Z / C from the lazy flags into status
+        void storeFlags() {
+            int flags = carry;
+            if ((flagResult & 0xFF) == 0) {
+                flags |= ZERO;
             }
-
-            // ---- Negative Flag (bit 7) ----
-            if ((result & 0b1000_0000) != 0) {
-                status = status | 0b1000_0000;      // Set negative flag
-            } else {
-                status = status & 0b0111_1111;      // Clear negative flag
+            if ((flagResult & 0x180) != 0) {
+                flags |= NEGATIVE;
             }
+            status = (status & ~(NEGATIVE | ZERO | CARRY)) | flags;
         }
 
-        public void updateCarryFlag(int result) {
-            if (result > 0xFF) {
-                status |= 0b0000_0001;   // Set carry
-            } else {
-                status &= 0b1111_1110;   // Clear carry
-            }
+        // The other way round, after status may have been changed
+        void loadFlags() {
+            carry = status & CARRY;
+            flagResult = ((status & ZERO) == 0 ? 1 : 0) | ((status & NEGATIVE) << 1);
         }
 
-        private void updateOverflowFlag(int oldA, int value, int result) {
-            if (((oldA ^ result) & (value ^ result) & 0x80) != 0) {
-                status |= OVERFLOW;      // set V flag
-            } else {
-                status &= ~OVERFLOW;     // clear V flag
-            }
+        public void cmp(int addr) {
+            compare(registerA, addr);
         }
 
-        public void cmp(AddressingMode mode) {
-            int addr = getOperandAddress(mode);
+        private void compare(int register, int addr) {
             int value = memRead(addr);         // fetch operand
-            int result = registerA - value;    // subtract
+            int result = register - value;     // subtract
 
-            // Update Carry flag: set if A >= value
-            if (registerA >= value) {
-                status |= CARRY;
-            } else {
-                status &= ~CARRY;
-            }
+            // Carry set if register >= value, the difference isn't negative
+            carry = ~result >>> 31;
 
             // Update Zero and Negative flags
             update_zero_and_negative_flags(result & 0xFF);  // result is treated as 8-bit
         }
 
-        public void dec(AddressingMode mode) {
-            int addr = getOperandAddress(mode);
+        public void dec(int addr) {
             int value = memRead(addr);
 
             value = (value - 1) & 0xFF;   // wrap around 0x00 -> 0xFF
@@ -550,27 +751,11 @@ public class DemoNES {
             update_zero_and_negative_flags(value);
         }
 
-        public void jmpAbsolute() {
-            int addr = memReadU16(programCounter);
+        public void jmp(int addr) {
+            // Target is resolved by AddressingModes.absolute / indirect
             programCounter = addr;
         }
 
-        public void jmpIndirect() {
-            int ptr = memReadU16(programCounter);
-
-            int lo = memRead(ptr);
-
-            int hi;
-            if ((ptr & 0x00FF) == 0x00FF) {
-                // Simulate 6502 page boundary bug
-                hi = memRead(ptr & 0xFF00);
-            } else {
-                hi = memRead(ptr + 1);
-            }
-
-            programCounter = (hi << 8) | lo;
-        }
-
         private void stackPush(int value) {
             memWrite(0x0100 + stackPointer, (byte)(value & 0xFF));
             stackPointer--;
@@ -596,40 +781,35 @@ public class DemoNES {
         }
 
 
-        public void jsr() {
-            int targetAddr = memReadU16(programCounter);
-
-            int returnAddr = programCounter + 1;
+        public void jsr(int targetAddr) {
+            // PC already points past the operand, the 6502 pushes PC - 1
+            int returnAddr = programCounter - 1;
 
             stackPushU16(returnAddr);
 
             programCounter = targetAddr;
+            if (callDepth < CALL_STACK_SIZE) {
+                callStack[callDepth] = targetAddr;
+            }
+            callDepth++;
         }
 
         public void rts() {
             int returnAddr = stackPopU16();
             programCounter = returnAddr + 1;
+            if (callDepth > 0) {
+                callDepth--;
+            }
         }
 
         private int lsrValue(int value) {
             // Set carry from bit 0
-            if ((value & 0x01) != 0) {
-                status |= CARRY;
-            } else {
-                status &= ~CARRY;
-            }
+            carry = value & 0x01;
 
             int result = (value >> 1) & 0xFF;
 
-            // Update zero flag
-            if (result == 0) {
-                status |= ZERO;
-            } else {
-                status &= ~ZERO;
-            }
-
-            // Negative flag always cleared (bit 7 is 0)
-            status &= ~NEGATIVE;
+            // Zero flag, negative is always cleared (bit 7 is 0)
+            update_zero_and_negative_flags(result);
 
             return result;
         }
@@ -638,8 +818,7 @@ public class DemoNES {
             registerA = lsrValue(registerA);
         }
 
-        public void lsr(AddressingMode mode) {
-            int addr = getOperandAddress(mode);
+        public void lsr(int addr) {
             int value = memRead(addr);
 
             int result = lsrValue(value);
@@ -653,6 +832,7 @@ public class DemoNES {
 
         public void php() {
             // Copy status and set BREAK and BREAK2 bits
+            storeFlags();
             int flagsToPush = status | BREAK | BREAK2;
             stackPush(flagsToPush);
         }
@@ -662,18 +842,15 @@ public class DemoNES {
 
             // Normally, BREAK (bit 4) is ignored in CPU status
             status = value & ~(BREAK | BREAK2);
+            loadFlags();
         }
 
         private int rolValue(int value) {
             int result = ((value << 1) & 0xFF); // shift left
-            if (carryFlag) {
-                result |= 0x01; // insert previous carry into bit 0
-            }
+            result |= carry; // insert previous carry into bit 0
 
             // Update carry from old bit 7
-            carryFlag = (value & 0x80) != 0;
-            if (carryFlag) status |= CARRY;
-            else status &= ~CARRY;
+            carry = value >> 7;
 
             // Update zero and negative flags
             update_zero_and_negative_flags(result);
@@ -685,8 +862,7 @@ public class DemoNES {
             registerA = rolValue(registerA);
         }
 
-        public void rol(AddressingMode mode) {
-            int addr = getOperandAddress(mode);
+        public void rol(int addr) {
             int value = memRead(addr);
 
             int result = rolValue(value);
@@ -695,20 +871,13 @@ public class DemoNES {
         }
 
         private int rorValue(int value) {
-            // Capture old bit 0 for carry
-            boolean oldCarry = (value & 0x01) != 0;
-
             int result = (value >> 1) & 0xFF;
 
             // Insert previous carry into bit 7
-            if (carryFlag) {
-                result |= 0x80;
-            }
+            result |= carry << 7;
 
             // Update carry flag from old bit 0
-            carryFlag = oldCarry;
-            if (carryFlag) status |= CARRY;
-            else status &= ~CARRY;
+            carry = value & 0x01;
 
             // Update zero and negative flags
             update_zero_and_negative_flags(result);
@@ -720,8 +889,7 @@ public class DemoNES {
             registerA = rorValue(registerA);
         }
 
-        public void ror(AddressingMode mode) {
-            int addr = getOperandAddress(mode);
+        public void ror(int addr) {
             int value = memRead(addr);
 
             int result = rorValue(value);
@@ -735,6 +903,7 @@ public class DemoNES {
 
             // Break flag is not actually stored in CPU
             status = value & ~(BREAK | BREAK2);
+            loadFlags();
 
             // 2. Restore PC (low then high)
             int lo = stackPop();
@@ -743,30 +912,18 @@ public class DemoNES {
             programCounter = (hi << 8) | lo;
         }
         
-        private void sbc(AddressingMode mode) {
-
-            int addr = getOperandAddress(mode);
+        public void sbc(int addr) {
             int value = memRead(addr);
 
-            int carryIn = (status & CARRY) != 0 ? 1 : 0;
-
-            int result = registerA + (value ^ 0xFF) + carryIn;
+            int result = registerA + (value ^ 0xFF) + carry;
 
             // Carry flag (set if no borrow)
-            if (result > 0xFF) {
-                status |= CARRY;
-            } else {
-                status &= ~CARRY;
-            }
+            carry = result >> 8;
 
             int finalResult = result & 0xFF;
 
             // Overflow detection (clean subtraction form)
-            if (((registerA ^ finalResult) & (registerA ^ value) & 0x80) != 0) {
-                status |= OVERFLOW;
-            } else {
-                status &= ~OVERFLOW;
-            }
+            status = (status & ~OVERFLOW) | (((registerA ^ finalResult) & (registerA ^ value) & 0x80) >> 1);
 
             registerA = finalResult;
 
@@ -781,885 +938,308 @@ public class DemoNES {
             status |= INTERRUPT_DISABLE;
         }
 
+        // Runs until BRK, through the same hook-free loops as runCycles
         public void run() {
-            runWithCallback(cpu -> {});
+            while (true) {
+                RunResult result = runCycles(CYCLES_PER_FRAME);
+                if (result == RunResult.BREAK) {
+                    return;
+                }
+                if (result == RunResult.ILLEGAL_OPCODE) {
+                    throw new UnsupportedOperationException("Opcode not implemented yet.");
+                }
+            }
         }
 
         public void runWithCallback(CpuCallback callback) {
-            
+            Instruction[] table = Instructions.TABLE;
+            loadFlags();
+
             while(true){
                 // Call callback before each instruction
+                storeFlags();
                 callback.execute(this);
+                loadFlags();
 
                 // Read opcode (convert signed byte to unsigned)
-                int opcode = memRead(programCounter) & 0xFF;
+                int opcode = memRead(programCounter);
 
                 // Increment program counter
                 programCounter++;
 
-                switch(opcode){
-                    case 0xA9: {
-                        //LDA - Immediate mode
-                        lda(AddressingMode.IMMEDIATE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xA5: {
-                        // LDA - Zero Page
-                        lda(AddressingMode.ZERO_PAGE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xAD: {
-                        // LDA - Absolute
-                        lda(AddressingMode.ABSOLUTE);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0xB5: {
-                        // LDA - Zero Page,X
-                        lda(AddressingMode.ZERO_PAGE_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xBD: {
-                        // LDA - Absolute,X
-                        lda(AddressingMode.ABSOLUTE_X);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0xB9: {
-                        // LDA - Absolute,Y
-                        lda(AddressingMode.ABSOLUTE_Y);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0xA1: {
-                        // LDA - Indirect,X
-                        lda(AddressingMode.INDIRECT_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xB1: {
-                        // LDA - Indirect,Y
-                        lda(AddressingMode.INDIRECT_Y);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x85: {
-                        // STA - Zero Page
-                        sta(AddressingMode.ZERO_PAGE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x95: {
-                        // STA - Zero Page,X
-                        sta(AddressingMode.ZERO_PAGE_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x8D: {
-                        // STA - Absolute
-                        sta(AddressingMode.ABSOLUTE);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x9D: {
-                        // STA - Absolute,X
-                        sta(AddressingMode.ABSOLUTE_X);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x99: {
-                        // STA - Absolute,Y
-                        sta(AddressingMode.ABSOLUTE_Y);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x81: {
-                        // STA - Indirect,X
-                        sta(AddressingMode.INDIRECT_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x91: {
-                        // STA - Indirect,Y
-                        sta(AddressingMode.INDIRECT_Y);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x86: {
-                        // STX - Zero Page
-                        stx(AddressingMode.ZERO_PAGE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x96: {
-                        // STX - Zero Page,Y
-                        stx(AddressingMode.ZERO_PAGE_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x8E: {
-                        // STX - Absolute
-                        stx(AddressingMode.ABSOLUTE);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x84: {
-                        // STY - Zero Page
-                        sty(AddressingMode.ZERO_PAGE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x94: {
-                        // STY - Zero Page,X
-                        sty(AddressingMode.ZERO_PAGE_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x8C: {
-                        // STY - Absolute
-                        sty(AddressingMode.ABSOLUTE);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0xAA: {
-                        // TAX - Transfer A to X
-                        //Copy A into X
-                        tax();
-                        break;
-                    }
-                    case 0xA8: {
-                        // TAY - Transfer A to Y
-                        tay();
-                        break;
-                    }
-                    case 0xE8: {
-                        // INX - Increment X
-                        inx();
-                        break;
-                    }
-                    case 0xC8: {
-                        // INY - Increment Y
-                        iny();
-                        break;
-                    }
-                    case 0xE6: {
-                        // INC - Zero Page
-                        inc(AddressingMode.ZERO_PAGE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xF6: {
-                        // INC - Zero Page,X
-                        inc(AddressingMode.ZERO_PAGE_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xEE: {
-                        // INC - Absolute
-                        inc(AddressingMode.ABSOLUTE);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0xFE: {
-                        // INC - Absolute,X
-                        inc(AddressingMode.ABSOLUTE_X);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x29: {
-                        // AND - Immediate
-                        and(AddressingMode.IMMEDIATE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x25: {
-                        // AND - Zero Page
-                        and(AddressingMode.ZERO_PAGE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x35: {
-                        // AND - Zero Page,X
-                        and(AddressingMode.ZERO_PAGE_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x2D: {
-                        // AND - Absolute
-                        and(AddressingMode.ABSOLUTE);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x3D: {
-                        // AND - Absolute,X
-                        and(AddressingMode.ABSOLUTE_X);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x39: {
-                        // AND - Absolute,Y
-                        and(AddressingMode.ABSOLUTE_Y);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x21: {
-                        // AND - Indirect,X
-                        and(AddressingMode.INDIRECT_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x31: {
-                        // AND - Indirect,Y
-                        and(AddressingMode.INDIRECT_Y);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x98: {
-                        // TYA - Transfer Y to A
-                        tya();
-                        break;
-                    }
-                    case 0x8A: {
-                        // TXA - Transfer X to A
-                        txa();
-                        break;
-                    }
-                    case 0xBA: {
-                        // TSX - Transfer X to Stack Pointer
-                        tsx();
-                        break;
-                    }
-                    case 0x68: {
-                        // PLA - Pull Accumulator from Stack
-                        pla();
-                        break;
-                    }
-                    case 0x09: {
-                        // ORA - Immediate
-                        ora(AddressingMode.IMMEDIATE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x05: {
-                        // ORA - Zero Page
-                        ora(AddressingMode.ZERO_PAGE);
-                        programCounter++;
-                        break;
-                    }   
-                    case 0x15: {
-                        // ORA - Zero Page,X
-                        ora(AddressingMode.ZERO_PAGE_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x0D: {
-                        // ORA - Absolute
-                        ora(AddressingMode.ABSOLUTE);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x1D: {
-                        // ORA - Absolute,X
-                        ora(AddressingMode.ABSOLUTE_X);
-                        programCounter += 2;
-                        break;
-                    }   
-                    case 0x19: {
-                        // ORA - Absolute,Y
-                        ora(AddressingMode.ABSOLUTE_Y);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x01: {
-                        // ORA - Indirect,X
-                        ora(AddressingMode.INDIRECT_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x11: {
-                        // ORA - Indirect,Y
-                        ora(AddressingMode.INDIRECT_Y);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xA2: {
-                        // LDX - Immediate
-                        ldx(AddressingMode.IMMEDIATE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xA6: {
-                        // LDX - Zero Page
-                        ldx(AddressingMode.ZERO_PAGE);
-                        programCounter++;
-                        break;
-                    }   
-                    case 0xB6: {
-                        // LDX - Zero Page,Y
-                        ldx(AddressingMode.ZERO_PAGE_Y);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xAE: {
-                        // LDX - Absolute
-                        ldx(AddressingMode.ABSOLUTE);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0xBE: {
-                        // LDX - Absolute,Y
-                        ldx(AddressingMode.ABSOLUTE_Y);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0xA0: {
-                        // LDY - Immediate
-                        ldy(AddressingMode.IMMEDIATE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xA4: {
-                        // LDY - Zero Page
-                        ldy(AddressingMode.ZERO_PAGE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xB4: {
-                        // LDY - Zero Page,X
-                        ldy(AddressingMode.ZERO_PAGE_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xAC: {
-                        // LDY - Absolute
-                        ldy(AddressingMode.ABSOLUTE);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0xBC: {
-                        // LDY - Absolute,X
-                        ldy(AddressingMode.ABSOLUTE_X);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x49: {
-                        // EOR - Immediate
-                        eor(AddressingMode.IMMEDIATE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x45: {
-                        // EOR - Zero Page
-                        eor(AddressingMode.ZERO_PAGE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x55: {
-                        // EOR - Zero Page,X
-                        eor(AddressingMode.ZERO_PAGE_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x4D: {
-                        // EOR - Absolute
-                        eor(AddressingMode.ABSOLUTE);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x5D: {
-                        // EOR - Absolute,X
-                        eor(AddressingMode.ABSOLUTE_X);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x59: {
-                        // EOR - Absolute,Y
-                        eor(AddressingMode.ABSOLUTE_Y);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x41: {
-                        // EOR - Indirect,X
-                        eor(AddressingMode.INDIRECT_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x51: {
-                        // EOR - Indirect,Y
-                        eor(AddressingMode.INDIRECT_Y);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xCA: {
-                        // DEX - Decrement X
-                        dex();
-                        break;
-                    }
-                    case 0x88: {
-                        // DEY - Decrement Y
-                        dey();
-                        break;
-                    }
-                    case 0x9A: {
-                        // TXS - Transfer X to Stack Pointer
-                        stackPointer = registerX;
-                        break;
-                    }
-                    case 0x69: {
-                        // ADC - Immediate
-                        adc(AddressingMode.IMMEDIATE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x65: {
-                        // ADC - Zero Page
-                        adc(AddressingMode.ZERO_PAGE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x75: {
-                        // ADC - Zero Page,X
-                        adc(AddressingMode.ZERO_PAGE_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x6D: {
-                        // ADC - Absolute
-                        adc(AddressingMode.ABSOLUTE);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x7D: {
-                        // ADC - Absolute,X
-                        adc(AddressingMode.ABSOLUTE_X);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x79: {
-                        // ADC - Absolute,Y
-                        adc(AddressingMode.ABSOLUTE_Y);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x61: {
-                        // ADC - Indirect,X
-                        adc(AddressingMode.INDIRECT_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x71: {
-                        // ADC - Indirect,Y
-                        adc(AddressingMode.INDIRECT_Y);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x0A: {
-                        // ASL - Accumulator
-                        aslAccumulator();
-                        break;
-                    }
-                    case 0x06: {
-                        // ASL - Zero Page
-                        asl(AddressingMode.ZERO_PAGE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x16: {
-                        // ASL - Zero Page,X
-                        asl(AddressingMode.ZERO_PAGE_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x0E: {
-                        // ASL - Absolute
-                        asl(AddressingMode.ABSOLUTE);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x1E: {
-                        // ASL - Absolute,X
-                        asl(AddressingMode.ABSOLUTE_X);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x90: {
-                        // BCC - Branch if Carry Clear
-                        bcc();
-                        break;
-                    }
-                    case 0xB0: {
-                        // BCS - Branch if Carry Set
-                        bcs();
-                        break;
-                    }
-                    case 0x38: {
-                        // SEC - Set Carry Flag
-                        sec();
-                        break;
-                    }
-                    case 0xf0: {
-                        // BEQ - Branch if Equal (Zero flag set)
-                        beq();
-                        break;
-                    }
-                    case 0x24: {
-                        // BIT - Test Bits in Memory with Accumulator
-                        bit(AddressingMode.ZERO_PAGE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x2C: {
-                        // BIT - Absolute
-                        bit(AddressingMode.ABSOLUTE);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x30: {
-                        // BMI - Branch if Minus (Negative flag set)
-                        bmi();
-                        break;
-                    }
-                    case 0xD0: {
-                        // BNE - Branch if Not Equal (Zero flag clear)
-                        bne();
-                        break;
-                    }
-                    case 0x10: {
-                        // BPL - Branch if Positive (Negative flag clear)
-                        bpl();
-                        break;
-                    }
-                    case 0x50: {
-                        // BVC - Branch if Overflow Clear
-                        bvc();
-                        break;
-                    }
-                    case 0x70: {
-                        // BVS - Branch if Overflow Set
-                        bvs();
-                        break;
-                    }
-                    case 0x18: {
-                        // CLC - Clear Carry Flag
-                        clc();
-                        break;
-                    }
-                    case 0xD8: {
-                        // CLD - Clear Decimal Mode
-                        cld();
-                        break;
-                    }
-                    case 0x58: {
-                        // CLI - Clear Interrupt Disable
-                        cli();
-                        break;
-                    }
-                    case 0xB8: {
-                        // CLV - Clear Overflow Flag
-                        clv();
-                        break;
-                    }
-                    case 0xc9: {
-                        // CMP - Compare
-                        cmp(AddressingMode.IMMEDIATE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xC5: {
-                        // CMP - Zero Page
-                        cmp(AddressingMode.ZERO_PAGE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xD5: {
-                        // CMP - Zero Page,X
-                        cmp(AddressingMode.ZERO_PAGE_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xCD: {
-                        // CMP - Absolute
-                        cmp(AddressingMode.ABSOLUTE);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0xDD: {
-                        // CMP - Absolute,X
-                        cmp(AddressingMode.ABSOLUTE_X);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0xD9: {
-                        // CMP - Absolute,Y
-                        cmp(AddressingMode.ABSOLUTE_Y);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0xC1: {
-                        // CMP - Indirect,X
-                        cmp(AddressingMode.INDIRECT_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xD1: {
-                        // CMP - Indirect,Y
-                        cmp(AddressingMode.INDIRECT_Y);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xE0: {
-                        // CPX - Compare X Register
-                        cpx(AddressingMode.IMMEDIATE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xE4: {
-                        // CPX - Zero Page
-                        cpx(AddressingMode.ZERO_PAGE);
-                        programCounter++;
-                        break;
-                    }   
-                    case 0xEC: {
-                        // CPX - Absolute
-                        cpx(AddressingMode.ABSOLUTE);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0xC0: {
-                        // CPY - Compare Y Register
-                        cpy(AddressingMode.IMMEDIATE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xC4: {
-                        // CPY - Zero Page
-                        cpy(AddressingMode.ZERO_PAGE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xCC: {
-                        // CPY - Absolute
-                        cpy(AddressingMode.ABSOLUTE);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0xC6: {
-                        // DEC - Zero Page
-                        dec(AddressingMode.ZERO_PAGE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xD6: {
-                        // DEC - Zero Page,X
-                        dec(AddressingMode.ZERO_PAGE_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xCE: {
-                        // DEC - Absolute
-                        dec(AddressingMode.ABSOLUTE);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0xDE: {
-                        // DEC - Absolute,X
-                        dec(AddressingMode.ABSOLUTE_X);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x6C: {
-                        // JMP - Indirect
-                        jmpIndirect();
-                        break;
-                    }
-                    case 0x4C: {
-                        // JMP - Absolute
-                        jmpAbsolute();
-                        break;
-                    }
-                    case 0x20:
-                        jsr();
-                        break;
-                    case 0x60:
-                        rts();
-                        break;   
-                    case 0x4A: {
-                        // LSR - Accumulator
-                        lsrAccumulator();
-                        break;
-                    }
-                    case 0x46: {
-                        // LSR - Zero Page
-                        lsr(AddressingMode.ZERO_PAGE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x56: {
-                        // LSR - Zero Page,X
-                        lsr(AddressingMode.ZERO_PAGE_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x4E: {
-                        // LSR - Absolute
-                        lsr(AddressingMode.ABSOLUTE);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x5E: {
-                        // LSR - Absolute,X
-                        lsr(AddressingMode.ABSOLUTE_X);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x48: {
-                        // PHA - Push Accumulator on Stack
-                        pha();
-                        break;
-                    }
-                    case 0x08: {
-                        // PHP - Push Processor Status on Stack
-                        php();
-                        break;
-                    }
-                    case 0x28: {
-                        // PLP - Pull Processor Status from Stack
-                        plp();
-                        break;
-                    }   
-                    case 0x2A: {
-                        // ROL - Accumulator
-                        rolAccumulator();
-                        break;
-                    }
-                    case 0x26: {
-                        // ROL - Zero Page
-                        rol(AddressingMode.ZERO_PAGE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x36: {
-                        // ROL - Zero Page,X
-                        rol(AddressingMode.ZERO_PAGE_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x2E: {
-                        // ROL - Absolute
-                        rol(AddressingMode.ABSOLUTE);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x3E: {
-                        // ROL - Absolute,X
-                        rol(AddressingMode.ABSOLUTE_X);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x6A: {
-                        // ROR - Accumulator
-                        rorAccumulator();
-                        break;
-                    }
-                    case 0x66: {
-                        // ROR - Zero Page
-                        ror(AddressingMode.ZERO_PAGE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x76: {
-                        // ROR - Zero Page,X
-                        ror(AddressingMode.ZERO_PAGE_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0x6E: {
-                        // ROR - Absolute
-                        ror(AddressingMode.ABSOLUTE);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0x7E: {
-                        // ROR - Absolute,X
-                        ror(AddressingMode.ABSOLUTE_X);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0xE9: {
-                        // SBC - Immediate
-                        sbc(AddressingMode.IMMEDIATE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xE5: {
-                        // SBC - Zero Page
-                        sbc(AddressingMode.ZERO_PAGE);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xF5: {
-                        // SBC - Zero Page,X
-                        sbc(AddressingMode.ZERO_PAGE_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xED: {
-                        // SBC - Absolute
-                        sbc(AddressingMode.ABSOLUTE);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0xFD: {
-                        // SBC - Absolute,X
-                        sbc(AddressingMode.ABSOLUTE_X);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0xF9: {
-                        // SBC - Absolute,Y
-                        sbc(AddressingMode.ABSOLUTE_Y);
-                        programCounter += 2;
-                        break;
-                    }
-                    case 0xE1: {
-                        // SBC - Indirect,X
-                        sbc(AddressingMode.INDIRECT_X);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xF1: {
-                        // SBC - Indirect,Y
-                        sbc(AddressingMode.INDIRECT_Y);
-                        programCounter++;
-                        break;
-                    }
-                    case 0xF8: {
-                        // SED - Set Decimal Flag
-                        sed();
-                        break;
-                    }
-                    case 0x78: {
-                        // SEI - Set Interrupt Disable
-                        sei();
-                        break;
-                    }
-                    case 0xEA:{
-                        // NOP - No Operation
-                        break;
+                if (opcode == 0x00) {
+                    // BRK - Break (for this demo, we'll just stop execution)
+                    cycles += table[0x00].cycles;
+                    return;
+                }
+
+                execute(table[opcode]);
+            }
+        }
+
+        // Runs until at least `budget` cycles have passed (the last instruction
+        // may overshoot a little), or until BRK / an illegal opcode.
+        public RunResult runCycles(long budget) {
+            long endCycle = cycles + budget;
+
+            // Split the budget at frame boundaries so frame hooks don't
+            // need a check per instruction
+            while (true) {
+                loadFlags();
+                RunResult result = runSlice(Math.min(endCycle, nextFrameCycle));
+                storeFlags();
+                if (cycles >= nextFrameCycle) {
+                    frameCount++;
+                    nextFrameCycle += CYCLES_PER_FRAME;
+                    for (int i = 0; i < frameHooks.size(); i++) {
+                        hookCalls++;
+                        frameHooks.get(i).execute(this);
+                    }
+                    endFrame();
+                }
+                if (result != RunResult.BUDGET_EXHAUSTED || cycles >= endCycle) {
+                    return result;
+                }
+            }
+        }
+
+        // Frame bookkeeping, once per frame boundary. begin() / end() are
+        // no-ops unless Flight Recorder is recording the event. An event
+        // begun before the recording started has no start time, so it's
+        // only committed if it was begun while enabled.
+        private void endFrame() {
+            frameEvent.end();
+            if (frameEventBegun && frameEvent.shouldCommit()) {
+                frameEvent.frame = frameCount;
+                frameEvent.instructions = instructions - frameStartInstructions;
+                frameEvent.cycles = cycles - frameStartCycles;
+                frameEvent.hookCalls = hookCalls - frameStartHookCalls;
+                frameEvent.commit();
+            }
+            if (metrics != null) {
+                metrics.frameEnded(this, instructions - frameStartInstructions,
+                    cycles - frameStartCycles, hookCalls - frameStartHookCalls);
+            }
+            beginFrame();
+        }
+
+        private void beginFrame() {
+            frameStartInstructions = instructions;
+            frameStartCycles = cycles;
+            frameStartHookCalls = hookCalls;
+            frameEventBegun = frameEvent.isEnabled();
+            frameEvent.begin();
+        }
+
+        private RunResult runSlice(long endCycle) {
+            if (instructionHook != null || trace != null || (breakpointHook != null && breakpointCount != 0)) {
+                return interpretHooked(endCycle);
+            }
+            if (profiler != null) {
+                return interpretProfiled(endCycle);
+            }
+            if (coverage != null) {
+                return interpretCovered(endCycle);
+            }
+            if (blockCache != null) {
+                return blockCache.run(endCycle);
+            }
+            return interpret(endCycle);
+        }
+
+        RunResult interpret(long endCycle) {
+            Instruction[] table = Instructions.TABLE;
+            long executed = 0;      // added to `instructions` on the way out
+
+            while (cycles < endCycle) {
+                int opcode = memRead(programCounter);
+                Instruction instruction = table[opcode];
+
+                if (!instruction.implemented) {
+                    instructions += executed;
+                    return RunResult.ILLEGAL_OPCODE;
+                }
+
+                programCounter++;
+
+                if (opcode == 0x00) {
+                    cycles += instruction.cycles;
+                    instructions += executed + 1;
+                    return RunResult.BREAK;
+                }
+
+                execute(instruction);
+                executed++;
+            }
+            instructions += executed;
+            return RunResult.BUDGET_EXHAUSTED;
+        }
+
+        // interpret() with the per instruction hooks, only used while one is set
+        private RunResult interpretHooked(long endCycle) {
+            Instruction[] table = Instructions.TABLE;
+
+            while (cycles < endCycle) {
+                int pc = programCounter & 0xFFFF;
+                storeFlags();
+                if (breakpointHook != null && (breakpoints[pc >> 6] & (1L << pc)) != 0) {
+                    hookCalls++;
+                    breakpointHook.execute(this);
+                }
+                if (instructionHook != null && --instructionsUntilHook == 0) {
+                    instructionsUntilHook = instructionHookInterval;
+                    hookCalls++;
+                    instructionHook.execute(this);
+                }
+                if (trace != null) {
+                    trace.record(this, programCounter & 0xFFFF);
+                }
+                loadFlags();
+
+                // A hook may have moved PC, a breakpoint hook usually does
+                pc = programCounter & 0xFFFF;
+                int opcode = memRead(pc);
+                Instruction instruction = table[opcode];
+
+                if (!instruction.implemented) {
+                    return RunResult.ILLEGAL_OPCODE;
+                }
+                if (coverage != null) {
+                    coverage.mark(pc, instruction.bytes);
+                }
+
+                programCounter++;
+                instructions++;
+                long before = cycles;
+
+                if (opcode == 0x00) {
+                    cycles += instruction.cycles;
+                    if (profiler != null) {
+                        profiler.executed(pc, opcode, (int) (cycles - before));
                     }
-                    case 0x40:
-                        // RTI - Return from Interrupt
-                        rti();
-                        break;
-                    case 0x00:
-                        // BRK - Break (for this demo, we'll just stop execution)
-                        return;    
-                    default:
-                        throw new UnsupportedOperationException("Opcode not implemented yet.");
+                    return RunResult.BREAK;
+                }
+
+                execute(instruction);
+                if (profiler != null) {
+                    profiler.executed(pc, opcode, (int) (cycles - before));
+                }
+            }
+            return RunResult.BUDGET_EXHAUSTED;
+        }
+
+        // interpret() with profiling, only used while a profiler is set
+        private RunResult interpretProfiled(long endCycle) {
+            Instruction[] table = Instructions.TABLE;
+            Profiler profiler = this.profiler;
+            Coverage coverage = this.coverage;
+
+            while (cycles < endCycle) {
+                int pc = programCounter & 0xFFFF;
+                int opcode = memRead(pc);
+                Instruction instruction = table[opcode];
+
+                if (!instruction.implemented) {
+                    return RunResult.ILLEGAL_OPCODE;
+                }
+                if (coverage != null) {
+                    coverage.mark(pc, instruction.bytes);
+                }
+
+                programCounter++;
+                instructions++;
+                long before = cycles;
+
+                if (opcode == 0x00) {
+                    cycles += instruction.cycles;
+                    profiler.executed(pc, opcode, (int) (cycles - before));
+                    return RunResult.BREAK;
+                }
+
+                execute(instruction);
+                profiler.executed(pc, opcode, (int) (cycles - before));
+            }
+            return RunResult.BUDGET_EXHAUSTED;
+        }
+
+        // interpret() marking coverage, only used while coverage is set
+        private RunResult interpretCovered(long endCycle) {
+            Instruction[] table = Instructions.TABLE;
+            Coverage coverage = this.coverage;
+
+            while (cycles < endCycle) {
+                int pc = programCounter & 0xFFFF;
+                int opcode = memRead(pc);
+                Instruction instruction = table[opcode];
+
+                if (!instruction.implemented) {
+                    return RunResult.ILLEGAL_OPCODE;
                 }
+                coverage.mark(pc, instruction.bytes);
+
+                programCounter++;
+                instructions++;
+
+                if (opcode == 0x00) {
+                    cycles += instruction.cycles;
+                    return RunResult.BREAK;
+                }
+
+                execute(instruction);
+            }
+            return RunResult.BUDGET_EXHAUSTED;
+        }
+
+        // Runs up to the next frame boundary. Overshoot from the last
+        // instruction is carried into the next frame so frames stay in sync.
+        public RunResult runFrame() {
+            return runCycles(nextFrameCycle - cycles);
+        }
+
+        public RunResult runFrames(int frames) {
+            for (int i = 0; i < frames; i++) {
+                RunResult result = runFrame();
+                if (result != RunResult.BUDGET_EXHAUSTED) {
+                    return result;
+                }
+            }
+            return RunResult.BUDGET_EXHAUSTED;
+        }
+
+        // Executes one instruction whose opcode byte has already been consumed
+        private void execute(Instruction instruction) {
+            // Fetch the operand bytes and move the PC past the whole instruction
+            int operand = fetchOperand(instruction.bytes);
+            programCounter += instruction.bytes - 1;
+
+            dispatch(instruction, operand);
+        }
+
+        // Runs the handler once the PC is already past the instruction
+        void dispatch(Instruction instruction, int operand) {
+            instruction.handler.execute(this, operand);
+
+            cycles += instruction.cycles;
+            if (instruction.pageCrossPenalty && pageCrossed) {
+                cycles++;
+            }
+        }
+
+        // dispatch() for BlockCompiler's code, which keeps every flag in status
+        void dispatchCompiled(Instruction instruction, int operand) {
+            loadFlags();
+            dispatch(instruction, operand);
+            storeFlags();
+        }
+
+        private int fetchOperand(int bytes) {
+            switch (bytes) {
+                case 2:
+                    return memRead(programCounter);
+                case 3:
+                    return memReadU16(programCounter);
+                default:
+                    return 0;
             }
         }
 }
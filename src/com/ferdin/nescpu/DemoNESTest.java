@@ -2,6 +2,8 @@ package com.ferdin.nescpu;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.nio.ByteBuffer;
+
 public class DemoNESTest {
     @Test
     void test_0xA9_lda_immediate_load_data(){
@@ -269,4 +271,279 @@ public class DemoNESTest {
         assertEquals(0x42 | DemoNES.BREAK | DemoNES.BREAK2, valueOnStack);
     }
 
+    @Test
+    void test_adc_and_rol_use_the_carry_sec_and_cmp_set() {
+        DemoNES cpu = new DemoNES();
+        cpu.loadAndRun(new byte[]{
+            (byte)0x38,        // SEC
+            (byte)0xA9, 0x01,  // LDA #$01
+            (byte)0x69, 0x01,  // ADC #$01  -> 3
+            (byte)0xC9, 0x02,  // CMP #$02  sets carry
+            (byte)0x2A,        // ROL A     -> 7
+            (byte)0x00         // BRK
+        });
+        assertEquals(0x07, cpu.registerA);
+        assertEquals(0, cpu.status & (DemoNES.CARRY | DemoNES.ZERO | DemoNES.NEGATIVE));
+    }
+
+    @Test
+    void test_hooks_see_and_change_flags() {
+        DemoNES cpu = new DemoNES();
+        cpu.load(new byte[]{
+            (byte)0xA9, (byte)0x80,        // LDA #$80
+            (byte)0x8D, 0x00, 0x02,        // STA $0200
+            (byte)0xA9, 0x00,              // LDA #$00
+            (byte)0x69, 0x00,              // ADC #$00
+            (byte)0x00                     // BRK
+        });
+        cpu.reset();
+        int[] seen = new int[1];
+        cpu.watchWrites(0x0200, 0x0200, (c, addr, value) -> {
+            seen[0] = c.status;
+            c.status |= DemoNES.CARRY;
+        });
+        cpu.run();
+
+        assertEquals(DemoNES.NEGATIVE, seen[0] & (DemoNES.NEGATIVE | DemoNES.ZERO | DemoNES.CARRY));
+        assertEquals(0x01, cpu.registerA);
+        assertEquals(0, cpu.status & DemoNES.CARRY);
+    }
+
+    @Test
+    void test_opcode_table_has_all_official_opcodes() {
+        int implemented = 0;
+        for (int opcode = 0; opcode < 256; opcode++) {
+            Instruction instruction = Instructions.get(opcode);
+            assertEquals(opcode, instruction.opcode);
+            if (instruction.isImplemented()) {
+                implemented++;
+            }
+        }
+        assertEquals(151, implemented);
+        assertEquals("LDA", Instructions.get(0xB1).mnemonic);
+        assertEquals(DemoNES.AddressingMode.INDIRECT_Y, Instructions.get(0xB1).mode);
+        assertEquals(2, Instructions.get(0xB1).bytes);
+        assertEquals(5, Instructions.get(0xB1).cycles);
+        assertEquals(3, Instructions.get(0x20).bytes);
+    }
+
+    @Test
+    void test_unknown_opcode_throws() {
+        DemoNES cpu = new DemoNES();
+        assertThrows(UnsupportedOperationException.class,
+            () -> cpu.loadAndRun(new byte[]{(byte)0x02, (byte)0x00}));
+    }
+
+    @Test
+    void test_stx_zero_page_y() {
+        DemoNES cpu = new DemoNES();
+
+        cpu.loadAndRun(new byte[]{
+            (byte)0xA2, 0x42,        // LDX #$42
+            (byte)0xA0, 0x03,        // LDY #$03
+            (byte)0x96, 0x10,        // STX $10,Y
+            (byte)0x00
+        });
+
+        assertEquals(0x42, cpu.memRead(0x13));
+    }
+
+    @Test
+    void test_tsx() {
+        DemoNES cpu = new DemoNES();
+
+        cpu.loadAndRun(new byte[]{
+            (byte)0xBA,  // TSX
+            (byte)0x00
+        });
+
+        assertEquals(0xFD, cpu.registerX);
+        assertEquals(0xFD, cpu.stackPointer);
+    }
+
+    @Test
+    void test_lda_indirect_y() {
+        DemoNES cpu = new DemoNES();
+        cpu.memWriteU16(0x20, 0x0300);
+        cpu.memWrite(0x0305, (byte)0x77);
+
+        cpu.loadAndRun(new byte[]{
+            (byte)0xA0, 0x05,        // LDY #$05
+            (byte)0xB1, 0x20,        // LDA ($20),Y
+            (byte)0x00
+        });
+
+        assertEquals(0x77, cpu.registerA);
+    }
+
+    @Test
+    void test_cycle_counting() {
+        DemoNES cpu = new DemoNES();
+        cpu.load(new byte[]{
+            (byte)0xA9, 0x01,              // LDA #$01      2
+            (byte)0xA2, (byte)0xFF,        // LDX #$FF      2
+            (byte)0xBD, 0x01, 0x02,        // LDA $0201,X   4 + 1 (page cross)
+            (byte)0x9D, 0x01, 0x02,        // STA $0201,X   5 (no extra)
+            (byte)0xF0, 0x00,              // BEQ +0        2 + 1 (taken, $0300 is 0)
+            (byte)0x00                     // BRK           7
+        });
+        cpu.reset();
+        long start = cpu.cycles;
+
+        cpu.run();
+
+        assertEquals(2 + 2 + 5 + 5 + 3 + 7, cpu.cycles - start);
+    }
+
+    @Test
+    void test_run_cycles_stops_endless_loop() {
+        DemoNES cpu = new DemoNES();
+        cpu.load(new byte[]{
+            (byte)0xE8,                    // INX
+            (byte)0x4C, 0x00, (byte)0x80   // JMP $8000
+        });
+        cpu.reset();
+        long start = cpu.cycles;
+
+        DemoNES.RunResult result = cpu.runCycles(1000);
+
+        assertEquals(DemoNES.RunResult.BUDGET_EXHAUSTED, result);
+        assertTrue(cpu.cycles - start >= 1000);
+        assertTrue(cpu.cycles - start < 1000 + 7);
+    }
+
+    @Test
+    void test_run_frame_keeps_frames_in_sync() {
+        DemoNES cpu = new DemoNES();
+        cpu.load(new byte[]{(byte)0x4C, 0x00, (byte)0x80});  // JMP $8000
+        cpu.reset();
+
+        assertEquals(DemoNES.RunResult.BUDGET_EXHAUSTED, cpu.runFrames(10));
+
+        assertEquals(10, cpu.frameCount);
+        assertTrue(cpu.cycles >= 10L * DemoNES.CYCLES_PER_FRAME);
+        assertTrue(cpu.cycles < 10L * DemoNES.CYCLES_PER_FRAME + 7);
+    }
+
+    @Test
+    void test_run_cycles_result_codes() {
+        DemoNES cpu = new DemoNES();
+        cpu.load(new byte[]{(byte)0xEA, (byte)0x00});
+        cpu.reset();
+        assertEquals(DemoNES.RunResult.BREAK, cpu.runCycles(1000));
+
+        cpu.load(new byte[]{(byte)0xEA, (byte)0x02});
+        cpu.reset();
+        assertEquals(DemoNES.RunResult.ILLEGAL_OPCODE, cpu.runCycles(1000));
+        assertEquals(0x8001, cpu.programCounter);
+    }
+
+    @Test
+    void test_hooks() {
+        DemoNES cpu = new DemoNES();
+        cpu.load(new byte[]{
+            (byte)0xE8,                    // $8000 INX
+            (byte)0x8E, 0x00, 0x02,        // $8001 STX $0200
+            (byte)0x8E, 0x00, 0x03,        // $8004 STX $0300
+            (byte)0x4C, 0x00, (byte)0x80   // $8007 JMP $8000
+        });
+        cpu.reset();
+
+        int[] frames = new int[1];
+        int[] every = new int[1];
+        int[] hits = new int[1];
+        int[] writes = new int[1];
+        cpu.onFrame(c -> frames[0]++);
+        cpu.onEveryInstructions(100, c -> every[0]++);
+        cpu.onBreakpoint(c -> {
+            assertEquals(0x8004, c.programCounter);
+            hits[0]++;
+        });
+        cpu.addBreakpoint(0x8004);
+        cpu.watchWrites(0x0200, 0x0200, (c, addr, value) -> {
+            assertEquals(0x0200, addr);
+            writes[0]++;
+        });
+
+        cpu.runFrames(2);
+
+        // 4 instructions and 13 cycles per loop
+        long loops = (cpu.cycles - 7) / 13;
+        assertEquals(2, frames[0]);
+        assertEquals(loops, hits[0], 1);
+        assertEquals(loops, writes[0], 1);
+        assertEquals(loops * 4 / 100, every[0], 1);
+
+        // Removing the instruction hooks goes back to the plain loop
+        cpu.onEveryInstructions(0, null);
+        cpu.removeBreakpoint(0x8004);
+        cpu.clearWriteWatches();
+        int before = hits[0] + writes[0];
+        cpu.runFrame();
+        assertEquals(3, frames[0]);
+        assertEquals(before, hits[0] + writes[0]);
+    }
+
+    @Test
+    void test_frame_hooks_add_up() {
+        DemoNES cpu = new DemoNES();
+        cpu.load(new byte[]{
+            (byte)0x4C, 0x00, (byte)0x80   // $8000 JMP $8000
+        });
+        cpu.reset();
+
+        StringBuilder order = new StringBuilder();
+        DemoNES.CpuCallback first = c -> order.append('a');
+        cpu.onFrame(first);
+        cpu.onFrame(c -> order.append('b'));
+        cpu.runFrames(2);
+        assertEquals("abab", order.toString());
+
+        cpu.removeFrameHook(first);
+        cpu.runFrame();
+        assertEquals("ababb", order.toString());
+        cpu.clearFrameHooks();
+        cpu.runFrame();
+        assertEquals("ababb", order.toString());
+        assertThrows(IllegalArgumentException.class, () -> cpu.onFrame(null));
+    }
+
+    @Test
+    void test_save_and_load_state() {
+        DemoNES cpu = new DemoNES();
+        cpu.enableJit();
+        cpu.load(TestGame.gameBytes(), TestGame.GAME_START);
+        cpu.reset();
+        cpu.memWrite(0xFF, (byte)0x64);   // steer right
+        cpu.runCycles(20_000);
+
+        ByteBuffer state = ByteBuffer.allocate(cpu.stateSize());
+        assertEquals(cpu.stateSize(), cpu.saveState(state));
+
+        // Run on, then rewind and run the same stretch again
+        cpu.runCycles(20_000);
+        int pc = cpu.programCounter;
+        long cycles = cpu.cycles;
+        byte[] screen = new byte[0x400];
+        for (int i = 0; i < screen.length; i++) {
+            screen[i] = (byte) cpu.memRead(0x0200 + i);
+        }
+
+        state.flip();
+        cpu.loadState(state);
+        cpu.runCycles(20_000);
+
+        assertEquals(pc, cpu.programCounter);
+        assertEquals(cycles, cpu.cycles);
+        for (int i = 0; i < screen.length; i++) {
+            assertEquals(screen[i] & 0xFF, cpu.memRead(0x0200 + i));
+        }
+    }
+
+    @Test
+    void test_load_state_rejects_garbage() {
+        DemoNES cpu = new DemoNES();
+        ByteBuffer garbage = ByteBuffer.allocate(cpu.stateSize());
+        assertThrows(IllegalArgumentException.class, () -> cpu.loadState(garbage));
+    }
 }
@@ -0,0 +1,92 @@
+package com.ferdin.nescpu;
+
+public final class Disassembler {
+    // Renders one instruction in the usual 6502 assembler syntax, the way
+    // nestest.log writes it (without its "= value" memory annotations,
+    // which would need the memory at the time).
+
+    private Disassembler() {
+    }
+
+    // pc is the instruction's address, operand the bytes after the opcode
+    public static String disassemble(int pc, int opcode, int operand) {
+        StringBuilder out = new StringBuilder(16);
+        append(out, pc, opcode, operand);
+        return out.toString();
+    }
+
+    public static void append(StringBuilder out, int pc, int opcode, int operand) {
+        Instruction instruction = Instructions.TABLE[opcode];
+        if (!instruction.implemented) {
+            out.append(".db $");
+            hex(out, opcode, 2);
+            return;
+        }
+        out.append(instruction.mnemonic);
+        switch (instruction.mode) {
+            case IMMEDIATE:
+                out.append(" #$");
+                hex(out, operand, 2);
+                break;
+            case ZERO_PAGE:
+                out.append(" $");
+                hex(out, operand, 2);
+                break;
+            case ZERO_PAGE_X:
+                out.append(" $");
+                hex(out, operand, 2);
+                out.append(",X");
+                break;
+            case ZERO_PAGE_Y:
+                out.append(" $");
+                hex(out, operand, 2);
+                out.append(",Y");
+                break;
+            case ABSOLUTE:
+                out.append(" $");
+                hex(out, operand, 4);
+                break;
+            case ABSOLUTE_X:
+                out.append(" $");
+                hex(out, operand, 4);
+                out.append(",X");
+                break;
+            case ABSOLUTE_Y:
+                out.append(" $");
+                hex(out, operand, 4);
+                out.append(",Y");
+                break;
+            case INDIRECT_X:
+                out.append(" ($");
+                hex(out, operand, 2);
+                out.append(",X)");
+                break;
+            case INDIRECT_Y:
+                out.append(" ($");
+                hex(out, operand, 2);
+                out.append("),Y");
+                break;
+            case INDIRECT:
+                out.append(" ($");
+                hex(out, operand, 4);
+                out.append(')');
+                break;
+            case RELATIVE:
+                out.append(" $");
+                hex(out, (pc + 2 + (byte) operand) & 0xFFFF, 4);
+                break;
+            case ACCUMULATOR:
+                out.append(" A");
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Upper case hex, zero padded to digits
+    static void hex(StringBuilder out, int value, int digits) {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            out.append(Character.toUpperCase(Character.forDigit((value >> shift) & 0xF, 16)));
+        }
+    }
+}
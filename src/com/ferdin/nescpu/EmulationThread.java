@@ -0,0 +1,91 @@
+package com.ferdin.nescpu;
+
+import java.util.concurrent.locks.LockSupport;
+
+public final class EmulationThread {
+    // Runs the CPU on its own thread so drawing never stalls it.
+    // Each step: apply queued keys, run stepCycles, and if the screen
+    // changed copy it into the triple buffer and publish it. A presenter on
+    // another thread takes the latest frame from `frames` whenever it's
+    // ready to draw and sends keys through `input`. The two sides share
+    // nothing else.
+    //
+    // With throttle on, steps are paced to stepsPerSecond. Otherwise the
+    // CPU runs flat out, e.g. for headless runs.
+
+    public final DemoNES cpu;
+    public final Framebuffer screen;
+    public final TripleBuffer frames = new TripleBuffer(Framebuffer.WIDTH * Framebuffer.HEIGHT);
+    public final InputQueue input = new InputQueue(64);
+
+    public int stepCycles = DemoNES.CYCLES_PER_FRAME;
+    public int stepsPerSecond = 60;
+    public boolean throttle = true;
+
+    // Written by the emulation thread only
+    public volatile long steps;
+    public volatile long framesPublished;
+    public volatile DemoNES.RunResult result = DemoNES.RunResult.BUDGET_EXHAUSTED;
+
+    private final InputDevice keys;
+    private final Thread thread;
+    private volatile boolean running;
+
+    // cpu should be loaded and reset. Keys are read by the program at keyAddress.
+    public EmulationThread(DemoNES cpu, int keyAddress) {
+        this.cpu = cpu;
+        this.screen = new Framebuffer(cpu);
+        this.keys = InputDevice.attach(cpu, keyAddress);
+        this.thread = new Thread(this::loop, "emulation");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    // Stops after the current step and waits for the thread to end
+    public void stop() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(thread);
+        thread.join();
+    }
+
+    public boolean isRunning() {
+        return thread.isAlive();
+    }
+
+    private void loop() {
+        long period = 1_000_000_000L / stepsPerSecond;
+        long deadline = System.nanoTime();
+        while (running) {
+            for (int key = input.poll(); key >= 0; key = input.poll()) {
+                keys.press(key);
+            }
+
+            DemoNES.RunResult stepResult = cpu.runCycles(stepCycles);
+            steps++;
+            if (screen.changed()) {
+                System.arraycopy(screen.pixels, 0, frames.back(), 0, screen.pixels.length);
+                frames.publish(steps);
+                screen.takeDirtyRows();
+                framesPublished++;
+            }
+            if (stepResult != DemoNES.RunResult.BUDGET_EXHAUSTED) {
+                result = stepResult;
+                return;
+            }
+
+            if (throttle) {
+                deadline += period;
+                long wait = deadline - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                } else if (wait < -period) {
+                    deadline = System.nanoTime();   // fell behind, don't try to catch up
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.ferdin.nescpu;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EmulationThreadTest {
+
+    @Test
+    void test_triple_buffer_hands_over_latest_frame() {
+        TripleBuffer frames = new TripleBuffer(4);
+        assertFalse(frames.take());
+
+        frames.back()[0] = 1;
+        frames.publish(1);
+        frames.back()[0] = 2;
+        frames.publish(2);
+        assertTrue(frames.take());
+        assertEquals(2, frames.front()[0]);
+        assertEquals(2, frames.frontFrameNumber());
+        assertFalse(frames.take());
+    }
+
+    @Test
+    void test_triple_buffer_frames_are_never_torn() throws InterruptedException {
+        TripleBuffer frames = new TripleBuffer(256);
+        Thread producer = new Thread(() -> {
+            for (int frame = 1; frame <= 20_000; frame++) {
+                java.util.Arrays.fill(frames.back(), frame);
+                frames.publish(frame);
+            }
+        });
+        producer.start();
+        long last = 0;
+        boolean done = false;
+        while (!done) {
+            // Checked before take(), so the final frame is always taken
+            done = !producer.isAlive();
+            if (frames.take()) {
+                int[] front = frames.front();
+                for (int value : front) {
+                    assertEquals(front[0], value);
+                }
+                assertTrue(frames.frontFrameNumber() > last);
+                last = frames.frontFrameNumber();
+            } else {
+                Thread.yield();
+            }
+        }
+        producer.join();
+        assertEquals(20_000, last);
+    }
+
+    @Test
+    void test_input_queue_keeps_order() throws InterruptedException {
+        InputQueue queue = new InputQueue(6);
+        assertEquals(-1, queue.poll());
+        Thread producer = new Thread(() -> {
+            for (int key = 0; key < 10_000; key++) {
+                while (!queue.offer(key & 0xFF)) {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+        for (int expected = 0; expected < 10_000; expected++) {
+            int key;
+            while ((key = queue.poll()) < 0) {
+                Thread.yield();
+            }
+            assertEquals(expected & 0xFF, key);
+        }
+        producer.join();
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void test_snake_runs_on_its_own_thread() throws InterruptedException {
+        TestGame cpu = new TestGame();
+        cpu.load(TestGame.gameBytes(), TestGame.GAME_START);
+        cpu.reset();
+        RandomDevice.attach(cpu, 0xFE, 7);
+        EmulationThread emulation = new EmulationThread(cpu, 0xFF);
+        emulation.throttle = false;
+        emulation.stepCycles = 3000;
+        emulation.input.offer(0x73);    // down
+
+        emulation.start();
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (emulation.framesPublished < 10 && emulation.isRunning() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        emulation.stop();
+
+        assertTrue(emulation.framesPublished >= 10);
+        assertTrue(emulation.frames.take());
+        assertEquals(0x73, cpu.memRead(0xFF));
+        // The snake is on screen: head and body are white
+        int white = 0;
+        for (int pixel : emulation.frames.front()) {
+            if (pixel == Framebuffer.WHITE) {
+                white++;
+            }
+        }
+        assertTrue(white > 0);
+    }
+}
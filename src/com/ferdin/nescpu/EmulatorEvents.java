@@ -0,0 +1,60 @@
+package com.ferdin.nescpu;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+public final class EmulatorEvents {
+    // Java Flight Recorder events of DemoNES, under "Emulator" in JMC next
+    // to the GC and JIT events of the same recording.
+    //
+    // Each DemoNES keeps one instance of each event and reuses it, so
+    // nothing is allocated whether or not a recording is running. A Frame
+    // event is committed at each frame boundary runCycles passes, its
+    // duration is the host time the frame took, start to end. Set a
+    // threshold on it ("20 ms") to record only the stalls.
+
+    private EmulatorEvents() {
+    }
+
+    @Name("com.ferdin.nescpu.Frame")
+    @Label("Emulator Frame")
+    @Description("One emulated frame, from one frame boundary to the next")
+    @Category("Emulator")
+    @StackTrace(false)
+    public static final class Frame extends Event {
+        @Label("Frame")
+        public long frame;
+
+        @Label("Instructions")
+        public long instructions;
+
+        @Label("Cycles")
+        public long cycles;
+
+        @Label("Hook Calls")
+        @Description("Frame, instruction, breakpoint and write watch callbacks run")
+        public long hookCalls;
+    }
+
+    @Name("com.ferdin.nescpu.Snapshot")
+    @Label("Emulator Snapshot")
+    @Description("A saveState or loadState")
+    @Category("Emulator")
+    @StackTrace(false)
+    public static final class Snapshot extends Event {
+        @Label("Restore")
+        public boolean restore;
+
+        @Label("Size")
+        @DataAmount
+        public int bytes;
+
+        @Label("Frame")
+        public long frame;
+    }
+}
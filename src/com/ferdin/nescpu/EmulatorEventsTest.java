@@ -0,0 +1,89 @@
+package com.ferdin.nescpu;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class EmulatorEventsTest {
+
+    @Test
+    void test_instruction_count_is_the_same_in_every_loop() {
+        DemoNES plain = TestGame.snake(0, 0x64);
+        DemoNES cached = TestGame.snake(0, 0x64);
+        cached.enableBlockCache();
+        DemoNES jit = TestGame.snake(0, 0x64);
+        jit.enableJit();
+        DemoNES hooked = TestGame.snake(0, 0x64);
+        hooked.onEveryInstructions(1000, cpu -> { });
+
+        for (DemoNES cpu : new DemoNES[]{plain, cached, jit, hooked}) {
+            cpu.runFrames(20);
+        }
+        assertTrue(plain.instructions > 10_000);
+        assertEquals(plain.instructions, cached.instructions);
+        assertEquals(plain.instructions, jit.instructions);
+        assertEquals(plain.instructions, hooked.instructions);
+        assertEquals(plain.instructions / 1000, hooked.hookCalls);
+    }
+
+    @Test
+    void test_frame_and_snapshot_events_are_recorded() throws Exception {
+        Path file = Files.createTempFile("emulator", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(EmulatorEvents.Frame.class);
+            recording.enable(EmulatorEvents.Snapshot.class);
+            recording.start();
+
+            DemoNES cpu = new DemoNES();
+            cpu.load(new byte[]{
+                (byte)0xE8,                    // loop: INX
+                (byte)0x4C, 0x00, (byte)0x80   // JMP loop
+            }, 0x8000);
+            cpu.reset();
+            cpu.onFrame(c -> { });
+            long instructions = cpu.instructions;
+            cpu.runFrames(10);
+            ByteBuffer state = ByteBuffer.allocate(cpu.stateSize());
+            cpu.saveState(state);
+            state.flip();
+            cpu.loadState(state);
+
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            long frames = 0;
+            long executed = 0;
+            int snapshots = 0;
+            for (RecordedEvent event : events) {
+                String name = event.getEventType().getName();
+                if (name.equals("com.ferdin.nescpu.Frame")) {
+                    frames++;
+                    assertEquals(frames, event.getLong("frame"));
+                    assertEquals(1, event.getLong("hookCalls"));
+                    long cycles = event.getLong("cycles");
+                    assertTrue(cycles >= DemoNES.CYCLES_PER_FRAME - 7 && cycles < DemoNES.CYCLES_PER_FRAME + 8,
+                        "cycles " + cycles);
+                    assertFalse(event.getDuration().isNegative());
+                    executed += event.getLong("instructions");
+                } else if (name.equals("com.ferdin.nescpu.Snapshot")) {
+                    assertEquals(cpu.stateSize(), event.getInt("bytes"));
+                    assertEquals(snapshots == 1, event.getBoolean("restore"));
+                    snapshots++;
+                }
+            }
+            assertEquals(10, frames);
+            assertEquals(cpu.instructions - instructions, executed);
+            assertEquals(2, snapshots);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
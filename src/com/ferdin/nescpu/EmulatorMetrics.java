@@ -0,0 +1,284 @@
+package com.ferdin.nescpu;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public final class EmulatorMetrics implements EmulatorMetricsMBean, AutoCloseable {
+    // Live counters of one DemoNES for JMX, under
+    // com.ferdin.nescpu:type=Emulator,name=<name>.
+    //
+    // The CPU's thread is the only writer. DemoNES counts into its own
+    // plain fields and hands the per frame deltas over in frameEnded(),
+    // once per frame boundary, so the interpreter loops never touch
+    // anything here. Totals are volatile so JMX threads see them. With a
+    // single writer, the += on them is not a race.
+    //
+    // Rates are computed by the writer once per rate window and go to 0 if
+    // the CPU stops producing frames. Frame time is the host time from one
+    // frame boundary to the next, kept for the last FRAME_WINDOW frames in
+    // a ring. Readers copy and sort it into their own buffer once per new
+    // frame, the percentile getters all look up that one sorted copy.
+
+    public static final String DOMAIN = "com.ferdin.nescpu";
+    public static final int FRAME_WINDOW = 1024;
+    static final long RATE_WINDOW_NANOS = 1_000_000_000L;
+
+    private final String name;
+    private final long rateWindowNanos;
+    private DemoNES cpu;
+    private ObjectName objectName;
+
+    // Published, written by the CPU's thread only
+    private volatile long frames;
+    private volatile long instructions;
+    private volatile long cycles;
+    private volatile long hookCalls;
+    private volatile long blockLookups;
+    private volatile long blockMisses;
+    private volatile double instructionsPerSecond;
+    private volatile double cyclesPerSecond;
+    private volatile double framesPerSecond;
+    private volatile long ratesNanos;           // when the rates were computed
+    private final int[] frameMicros = new int[FRAME_WINDOW];
+
+    // Reader side, guarded by this
+    private final int[] sortedMicros = new int[FRAME_WINDOW];
+    private int sortedCount;
+    private long sortedFrames = -1;
+
+    // Writer side
+    private long lastFrameNanos;
+    private long windowStartNanos;
+    private long windowInstructions;
+    private long windowCycles;
+    private long windowFrames;
+    private long lastLookups;
+    private long lastMisses;
+
+    public EmulatorMetrics(String name) {
+        this(name, RATE_WINDOW_NANOS);
+    }
+
+    EmulatorMetrics(String name, long rateWindowNanos) {
+        this.name = name;
+        this.rateWindowNanos = rateWindowNanos;
+        this.lastFrameNanos = System.nanoTime();
+        this.windowStartNanos = lastFrameNanos;
+        this.ratesNanos = lastFrameNanos;
+    }
+
+    // Attaches metrics to cpu and registers it, and EmulatorPool with the
+    // first instance, with the platform MBean server
+    public static EmulatorMetrics register(DemoNES cpu, String name) {
+        EmulatorMetrics metrics = new EmulatorMetrics(name);
+        metrics.objectName = objectName("type=Emulator,name=" + ObjectName.quote(name));
+        registerMBean(metrics, metrics.objectName);
+        metrics.cpu = cpu;
+        cpu.setMetrics(metrics);
+        EmulatorPool.get().add(metrics);
+        return metrics;
+    }
+
+    // Detaches from the CPU and unregisters, if register() was used
+    @Override
+    public void close() {
+        if (objectName == null) {
+            return;
+        }
+        cpu.setMetrics(null);
+        EmulatorPool.get().remove(this);
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("Can't unregister " + objectName, e);
+        }
+        objectName = null;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    static ObjectName objectName(String properties) {
+        try {
+            return new ObjectName(DOMAIN + ":" + properties);
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Bad MBean name: " + properties, e);
+        }
+    }
+
+    static void registerMBean(Object mbean, ObjectName objectName) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(mbean, objectName);
+        } catch (InstanceAlreadyExistsException e) {
+            throw new IllegalArgumentException("Already registered: " + objectName, e);
+        } catch (JMException e) {
+            throw new IllegalStateException("Can't register " + objectName, e);
+        }
+    }
+
+    // Called by DemoNES at each frame boundary, on the CPU's thread
+    void frameEnded(DemoNES cpu, long frameInstructions, long frameCycles, long frameHookCalls) {
+        long now = System.nanoTime();
+        long frame = frames;
+        frameMicros[(int) (frame % FRAME_WINDOW)] = (int) Math.min((now - lastFrameNanos) / 1000, Integer.MAX_VALUE);
+        lastFrameNanos = now;
+
+        BlockCache cache = cpu.blockCache();
+        if (cache != null) {
+            blockLookups += cache.lookups - lastLookups;
+            blockMisses += cache.misses - lastMisses;
+            lastLookups = cache.lookups;
+            lastMisses = cache.misses;
+        }
+        instructions += frameInstructions;
+        cycles += frameCycles;
+        hookCalls += frameHookCalls;
+
+        windowInstructions += frameInstructions;
+        windowCycles += frameCycles;
+        windowFrames++;
+        long elapsed = now - windowStartNanos;
+        if (elapsed >= rateWindowNanos) {
+            double perSecond = 1e9 / Math.max(elapsed, 1);
+            instructionsPerSecond = windowInstructions * perSecond;
+            cyclesPerSecond = windowCycles * perSecond;
+            framesPerSecond = windowFrames * perSecond;
+            ratesNanos = now;
+            windowStartNanos = now;
+            windowInstructions = 0;
+            windowCycles = 0;
+            windowFrames = 0;
+        }
+        // Last, so a reader that sees the frame sees its frame time
+        frames = frame + 1;
+    }
+
+    // Rates computed longer than two windows ago are from a CPU that stopped
+    private boolean ratesStale() {
+        return System.nanoTime() - ratesNanos > 2 * Math.max(rateWindowNanos, RATE_WINDOW_NANOS);
+    }
+
+    // Copies the frame times in the window into times at `at`, returns how many
+    int copyFrameTimes(int[] times, int at) {
+        int count = (int) Math.min(frames, FRAME_WINDOW);
+        System.arraycopy(frameMicros, 0, times, at, count);
+        return count;
+    }
+
+    // Nearest rank percentile of times[0..count), in milliseconds. Sorts.
+    static double percentile(int[] times, int count, double p) {
+        Arrays.sort(times, 0, count);
+        return rank(times, count, p);
+    }
+
+    // percentile() of times already sorted
+    static double rank(int[] sorted, int count, double p) {
+        if (count == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(p * count);
+        return sorted[Math.min(Math.max(rank, 1), count) - 1] / 1000.0;
+    }
+
+    static double[] percentiles(int[] sorted, int count) {
+        return new double[]{rank(sorted, count, 0.50), rank(sorted, count, 0.95),
+            rank(sorted, count, 0.99), rank(sorted, count, 1.0)};
+    }
+
+    // Re-sorts only if a frame ended since the last reader sorted
+    private void sortFrameTimes() {
+        long frame = frames;
+        if (frame != sortedFrames) {
+            sortedCount = copyFrameTimes(sortedMicros, 0);
+            Arrays.sort(sortedMicros, 0, sortedCount);
+            sortedFrames = frame;
+        }
+    }
+
+    private synchronized double frameTime(double p) {
+        sortFrameTimes();
+        return rank(sortedMicros, sortedCount, p);
+    }
+
+    long blockLookups() {
+        return blockLookups;
+    }
+
+    long blockMisses() {
+        return blockMisses;
+    }
+
+    @Override
+    public long getFrames() {
+        return frames;
+    }
+
+    @Override
+    public long getInstructions() {
+        return instructions;
+    }
+
+    @Override
+    public long getCycles() {
+        return cycles;
+    }
+
+    @Override
+    public long getHookCalls() {
+        return hookCalls;
+    }
+
+    @Override
+    public double getInstructionsPerSecond() {
+        return ratesStale() ? 0 : instructionsPerSecond;
+    }
+
+    @Override
+    public double getCyclesPerSecond() {
+        return ratesStale() ? 0 : cyclesPerSecond;
+    }
+
+    @Override
+    public double getFramesPerSecond() {
+        return ratesStale() ? 0 : framesPerSecond;
+    }
+
+    @Override
+    public double getBlockCacheHitRate() {
+        long misses = blockMisses;      // first, the writer adds lookups first
+        long lookups = blockLookups;
+        return lookups == 0 ? 0 : (double) (lookups - misses) / lookups;
+    }
+
+    @Override
+    public double getFrameTimeP50Millis() {
+        return frameTime(0.50);
+    }
+
+    @Override
+    public double getFrameTimeP95Millis() {
+        return frameTime(0.95);
+    }
+
+    @Override
+    public double getFrameTimeP99Millis() {
+        return frameTime(0.99);
+    }
+
+    @Override
+    public double getFrameTimeMaxMillis() {
+        return frameTime(1.0);
+    }
+
+    @Override
+    public synchronized double[] getFrameTimePercentilesMillis() {
+        sortFrameTimes();
+        return percentiles(sortedMicros, sortedCount);
+    }
+}
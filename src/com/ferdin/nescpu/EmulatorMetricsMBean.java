@@ -0,0 +1,34 @@
+package com.ferdin.nescpu;
+
+// JMX view of EmulatorMetrics, and of EmulatorPool summed over instances.
+// Rates are over the last second or so, frame times over the last
+// EmulatorMetrics.FRAME_WINDOW frames.
+public interface EmulatorMetricsMBean {
+    long getFrames();
+
+    long getInstructions();
+
+    long getCycles();
+
+    long getHookCalls();
+
+    double getInstructionsPerSecond();
+
+    double getCyclesPerSecond();
+
+    double getFramesPerSecond();
+
+    // Block lookups that found a decoded block, 0 without a block cache
+    double getBlockCacheHitRate();
+
+    double getFrameTimeP50Millis();
+
+    double getFrameTimeP95Millis();
+
+    double getFrameTimeP99Millis();
+
+    double getFrameTimeMaxMillis();
+
+    // p50, p95, p99 and max together, from the same frames
+    double[] getFrameTimePercentilesMillis();
+}
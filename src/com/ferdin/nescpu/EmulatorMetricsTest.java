@@ -0,0 +1,101 @@
+package com.ferdin.nescpu;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class EmulatorMetricsTest {
+
+    private static DemoNES loop() {
+        DemoNES cpu = new DemoNES();
+        cpu.load(new byte[]{
+            (byte)0xE8,                    // loop: INX
+            (byte)0xC8,                    // INY
+            (byte)0x4C, 0x00, (byte)0x80   // JMP loop
+        }, 0x8000);
+        cpu.reset();
+        return cpu;
+    }
+
+    @Test
+    void test_counters_are_handed_over_per_frame() {
+        DemoNES cpu = loop();
+        cpu.enableBlockCache();
+        cpu.onFrame(c -> { });
+        EmulatorMetrics metrics = new EmulatorMetrics("test", 0);
+        cpu.setMetrics(metrics);
+
+        // Nothing is published mid-frame
+        cpu.runCycles(1000);
+        assertEquals(0, metrics.getInstructions());
+
+        cpu.runFrames(50);
+        assertEquals(50, metrics.getFrames());
+        assertEquals(cpu.instructions, metrics.getInstructions());
+        assertEquals(50L * DemoNES.CYCLES_PER_FRAME, metrics.getCycles(), 10);
+        assertEquals(50, metrics.getHookCalls());
+        assertTrue(metrics.getBlockCacheHitRate() > 0.99);
+        assertTrue(metrics.getInstructionsPerSecond() > 0);
+        assertTrue(metrics.getFramesPerSecond() > 0);
+
+        double p50 = metrics.getFrameTimeP50Millis();
+        assertTrue(p50 <= metrics.getFrameTimeP95Millis());
+        assertTrue(metrics.getFrameTimeP95Millis() <= metrics.getFrameTimeP99Millis());
+        assertTrue(metrics.getFrameTimeP99Millis() <= metrics.getFrameTimeMaxMillis());
+        assertTrue(metrics.getFrameTimeMaxMillis() > 0);
+        assertArrayEquals(new double[]{p50, metrics.getFrameTimeP95Millis(), metrics.getFrameTimeP99Millis(),
+            metrics.getFrameTimeMaxMillis()}, metrics.getFrameTimePercentilesMillis());
+    }
+
+    @Test
+    void test_percentile_is_nearest_rank() {
+        int[] times = new int[100];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = (100 - i) * 1000;
+        }
+        assertEquals(50.0, EmulatorMetrics.percentile(times, 100, 0.50));
+        assertEquals(99.0, EmulatorMetrics.percentile(times, 100, 0.99));
+        assertEquals(100.0, EmulatorMetrics.percentile(times, 100, 1.0));
+        assertEquals(0.0, EmulatorMetrics.percentile(times, 0, 0.5));
+    }
+
+    @Test
+    void test_instances_and_pool_are_registered() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        DemoNES first = loop();
+        DemoNES second = loop();
+        EmulatorPool pool = EmulatorPool.get();
+        try (EmulatorMetrics b = EmulatorMetrics.register(second, "metrics-test-b")) {
+            // a is closed halfway through, so it isn't a resource here
+            EmulatorMetrics a = EmulatorMetrics.register(first, "metrics-test-a");
+            try {
+                assertThrows(IllegalArgumentException.class, () -> EmulatorMetrics.register(loop(), "metrics-test-a"));
+
+                first.runFrames(3);
+                second.runFrames(5);
+                ObjectName name = new ObjectName("com.ferdin.nescpu:type=Emulator,name=\"metrics-test-b\"");
+                assertEquals(5L, server.getAttribute(name, "Frames"));
+                assertEquals(second.instructions, server.getAttribute(name, "Instructions"));
+
+                assertEquals(2, server.getAttribute(EmulatorPool.objectName(), "Instances"));
+                assertEquals(8L, server.getAttribute(EmulatorPool.objectName(), "Frames"));
+                assertEquals(first.instructions + second.instructions, pool.getInstructions());
+                assertTrue(pool.getFrameTimeMaxMillis() >= a.getFrameTimeMaxMillis());
+                assertTrue(pool.getFrameTimeMaxMillis() >= b.getFrameTimeMaxMillis());
+                double[] percentiles = (double[]) server.getAttribute(EmulatorPool.objectName(), "FrameTimePercentilesMillis");
+                assertEquals(pool.getFrameTimeP50Millis(), percentiles[0]);
+                assertEquals(pool.getFrameTimeMaxMillis(), percentiles[3]);
+            } finally {
+                a.close();
+            }
+
+            assertFalse(server.isRegistered(new ObjectName("com.ferdin.nescpu:type=Emulator,name=\"metrics-test-a\"")));
+            assertEquals(1, pool.getInstances());
+            first.runFrames(1);
+            assertEquals(3, a.getFrames());
+        }
+        assertEquals(0, EmulatorPool.get().getInstances());
+    }
+}
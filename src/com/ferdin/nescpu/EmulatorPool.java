@@ -0,0 +1,185 @@
+package com.ferdin.nescpu;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.management.ObjectName;
+
+public final class EmulatorPool implements EmulatorPoolMBean {
+    // Every EmulatorMetrics registered in this JVM, summed, under
+    // com.ferdin.nescpu:type=EmulatorPool. Registered with the first
+    // instance and left registered.
+    //
+    // Only reads the instances' published values, so it costs the CPUs
+    // nothing. Frame time percentiles are over all instances' windows
+    // together, sorted into one buffer the pool keeps and re-sorted only
+    // when a frame ended or the instances changed.
+
+    private static final EmulatorPool INSTANCE = new EmulatorPool();
+
+    private final List<EmulatorMetrics> instances = new CopyOnWriteArrayList<>();
+    private boolean registered;
+
+    // Frame times of all instances, sorted. Guarded by this.
+    private int[] sortedMicros = new int[0];
+    private int sortedCount;
+    private long sortedFrames = -1;
+    private int sortedInstances;
+
+    private EmulatorPool() {
+    }
+
+    public static EmulatorPool get() {
+        return INSTANCE;
+    }
+
+    synchronized void add(EmulatorMetrics metrics) {
+        if (!registered) {
+            EmulatorMetrics.registerMBean(this, objectName());
+            registered = true;
+        }
+        instances.add(metrics);
+    }
+
+    void remove(EmulatorMetrics metrics) {
+        instances.remove(metrics);
+    }
+
+    public static ObjectName objectName() {
+        return EmulatorMetrics.objectName("type=EmulatorPool");
+    }
+
+    @Override
+    public int getInstances() {
+        return instances.size();
+    }
+
+    @Override
+    public long getFrames() {
+        long total = 0;
+        for (EmulatorMetrics metrics : instances) {
+            total += metrics.getFrames();
+        }
+        return total;
+    }
+
+    @Override
+    public long getInstructions() {
+        long total = 0;
+        for (EmulatorMetrics metrics : instances) {
+            total += metrics.getInstructions();
+        }
+        return total;
+    }
+
+    @Override
+    public long getCycles() {
+        long total = 0;
+        for (EmulatorMetrics metrics : instances) {
+            total += metrics.getCycles();
+        }
+        return total;
+    }
+
+    @Override
+    public long getHookCalls() {
+        long total = 0;
+        for (EmulatorMetrics metrics : instances) {
+            total += metrics.getHookCalls();
+        }
+        return total;
+    }
+
+    @Override
+    public double getInstructionsPerSecond() {
+        double total = 0;
+        for (EmulatorMetrics metrics : instances) {
+            total += metrics.getInstructionsPerSecond();
+        }
+        return total;
+    }
+
+    @Override
+    public double getCyclesPerSecond() {
+        double total = 0;
+        for (EmulatorMetrics metrics : instances) {
+            total += metrics.getCyclesPerSecond();
+        }
+        return total;
+    }
+
+    @Override
+    public double getFramesPerSecond() {
+        double total = 0;
+        for (EmulatorMetrics metrics : instances) {
+            total += metrics.getFramesPerSecond();
+        }
+        return total;
+    }
+
+    @Override
+    public double getBlockCacheHitRate() {
+        long lookups = 0;
+        long misses = 0;
+        for (EmulatorMetrics metrics : instances) {
+            // Misses first: read after lookups they could exceed them
+            misses += metrics.blockMisses();
+            lookups += metrics.blockLookups();
+        }
+        return lookups == 0 ? 0 : (double) (lookups - misses) / lookups;
+    }
+
+    private void sortFrameTimes() {
+        Object[] snapshot = instances.toArray();
+        long frames = 0;
+        for (Object metrics : snapshot) {
+            frames += ((EmulatorMetrics) metrics).getFrames();
+        }
+        if (frames == sortedFrames && snapshot.length == sortedInstances) {
+            return;
+        }
+        int size = snapshot.length * EmulatorMetrics.FRAME_WINDOW;
+        if (sortedMicros.length < size) {
+            sortedMicros = new int[size];
+        }
+        int count = 0;
+        for (Object metrics : snapshot) {
+            count += ((EmulatorMetrics) metrics).copyFrameTimes(sortedMicros, count);
+        }
+        Arrays.sort(sortedMicros, 0, count);
+        sortedCount = count;
+        sortedFrames = frames;
+        sortedInstances = snapshot.length;
+    }
+
+    private synchronized double frameTime(double p) {
+        sortFrameTimes();
+        return EmulatorMetrics.rank(sortedMicros, sortedCount, p);
+    }
+
+    @Override
+    public double getFrameTimeP50Millis() {
+        return frameTime(0.50);
+    }
+
+    @Override
+    public double getFrameTimeP95Millis() {
+        return frameTime(0.95);
+    }
+
+    @Override
+    public double getFrameTimeP99Millis() {
+        return frameTime(0.99);
+    }
+
+    @Override
+    public double getFrameTimeMaxMillis() {
+        return frameTime(1.0);
+    }
+
+    @Override
+    public synchronized double[] getFrameTimePercentilesMillis() {
+        sortFrameTimes();
+        return EmulatorMetrics.percentiles(sortedMicros, sortedCount);
+    }
+}
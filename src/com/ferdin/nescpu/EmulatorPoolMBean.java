@@ -0,0 +1,5 @@
+package com.ferdin.nescpu;
+
+public interface EmulatorPoolMBean extends EmulatorMetricsMBean {
+    int getInstances();
+}
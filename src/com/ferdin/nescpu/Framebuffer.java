@@ -0,0 +1,114 @@
+package com.ferdin.nescpu;
+
+public final class Framebuffer implements DemoNES.WriteCallback {
+    // Headless 32x32 screen of the snake game, one byte per pixel at
+    // 0x0200 - 0x05FF. It sits on the CPU's write path as a write watch:
+    // a store there converts the byte to an RGBA pixel and marks its row
+    // dirty, so nobody has to scan the 1KB screen to find out whether
+    // anything moved.
+    //
+    // A frame counts as changed only if a write changed a pixel. Headless
+    // runs can skip all frame work while changed() is false.
+
+    public static final int WIDTH = 32;
+    public static final int HEIGHT = 32;
+    public static final int START = 0x0200;
+    public static final int END = START + WIDTH * HEIGHT - 1;
+
+    // Colours of the snake game, as 0xRRGGBBAA
+    static final int BLACK = 0x000000FF;
+    static final int WHITE = 0xFFFFFFFF;
+    static final int GREY = 0x808080FF;
+    static final int RED = 0xFF0000FF;
+    static final int GREEN = 0x00FF00FF;
+    static final int BLUE = 0x0000FFFF;
+    static final int MAGENTA = 0xFF00FFFF;
+    static final int YELLOW = 0xFFFF00FF;
+    static final int CYAN = 0x00FFFFFF;
+
+    private static final int[] PALETTE = new int[256];
+
+    static {
+        for (int value = 0; value < 256; value++) {
+            PALETTE[value] = color(value);
+        }
+    }
+
+    // RGBA pixels, row by row
+    public final int[] pixels = new int[WIDTH * HEIGHT];
+
+    private final DemoNES cpu;
+    private int dirtyRows;      // bit n set = row n changed
+
+    public Framebuffer(DemoNES cpu) {
+        this.cpu = cpu;
+        // The RAM mirrors land on the same screen
+        for (int mirror = 0; mirror < 0x2000; mirror += Bus.RAM_SIZE) {
+            cpu.watchWrites(START + mirror, END + mirror, this);
+        }
+        refresh();
+    }
+
+    static int color(int value) {
+        switch (value) {
+            case 0:
+                return BLACK;
+            case 1:
+                return WHITE;
+            case 2:
+            case 9:
+                return GREY;
+            case 3:
+            case 10:
+                return RED;
+            case 4:
+            case 11:
+                return GREEN;
+            case 5:
+            case 12:
+                return BLUE;
+            case 6:
+            case 13:
+                return MAGENTA;
+            case 7:
+            case 14:
+                return YELLOW;
+            default:
+                return CYAN;
+        }
+    }
+
+    @Override
+    public void written(DemoNES cpu, int addr, int value) {
+        int index = (addr & (Bus.RAM_SIZE - 1)) - START;
+        int pixel = PALETTE[value];
+        if (pixels[index] != pixel) {
+            pixels[index] = pixel;
+            dirtyRows |= 1 << (index / WIDTH);
+        }
+    }
+
+    // Redraws everything from memory, for when RAM changed without CPU
+    // writes (load, loadState, rewind)
+    public void refresh() {
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = PALETTE[cpu.memRead(START + i)];
+        }
+        dirtyRows = -1;
+    }
+
+    public boolean changed() {
+        return dirtyRows != 0;
+    }
+
+    public boolean isRowDirty(int row) {
+        return (dirtyRows & (1 << row)) != 0;
+    }
+
+    // Rows changed since the last call, as a bitmask, and starts a new frame
+    public int takeDirtyRows() {
+        int rows = dirtyRows;
+        dirtyRows = 0;
+        return rows;
+    }
+}
@@ -0,0 +1,51 @@
+package com.ferdin.nescpu;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FramebufferTest {
+
+    @Test
+    void test_snake_pixels_match_memory() {
+        TestGame cpu = new TestGame();
+        cpu.load(TestGame.gameBytes(), TestGame.GAME_START);
+        cpu.reset();
+        Framebuffer screen = new Framebuffer(cpu);
+        screen.takeDirtyRows();
+
+        cpu.memWrite(0xFF, (byte) 0x64);
+        for (int step = 0; step < 100; step++) {
+            cpu.memWrite(0xFE, (byte) (step * 37));
+            cpu.runCycles(2000);
+        }
+        assertTrue(screen.changed());
+        for (int i = 0; i < screen.pixels.length; i++) {
+            assertEquals(Framebuffer.color(cpu.memRead(Framebuffer.START + i)), screen.pixels[i], "pixel " + i);
+        }
+    }
+
+    @Test
+    void test_only_written_rows_are_dirty() {
+        DemoNES cpu = new DemoNES();
+        cpu.load(new byte[]{
+            (byte)0xA9, 0x01,              // LDA #$01
+            (byte)0x8D, (byte)0xA3, 0x02,  // STA $02A3 (row 5)
+            (byte)0x8D, (byte)0xE0, 0x0D,  // STA $0DE0 (mirror of $05E0, row 31)
+            (byte)0x00
+        }, 0x8000);
+        cpu.reset();
+        Framebuffer screen = new Framebuffer(cpu);
+        assertEquals(-1, screen.takeDirtyRows());
+        assertFalse(screen.changed());
+
+        cpu.run();
+        assertTrue(screen.isRowDirty(5));
+        assertEquals((1 << 5) | (1 << 31), screen.takeDirtyRows());
+        assertEquals(Framebuffer.WHITE, screen.pixels[5 * 32 + 3]);
+        assertEquals(Framebuffer.WHITE, screen.pixels[31 * 32]);
+
+        // Writing the same colour again changes nothing
+        cpu.reset();
+        cpu.run();
+        assertFalse(screen.changed());
+    }
+}
@@ -0,0 +1,35 @@
+package com.ferdin.nescpu;
+
+public final class InputDevice implements Bus.Device {
+    // The last key pressed, e.g. the snake game's 0xFF. Any thread may call
+    // press() while the CPU runs: the slot is a single volatile int, so
+    // there is no lock and the CPU sees the newest key on its next read.
+    // Writes from the program land in the slot too.
+
+    private volatile int key;
+
+    // Convenience: hooks a new device at addr on cpu's bus
+    public static InputDevice attach(DemoNES cpu, int addr) {
+        InputDevice device = new InputDevice();
+        cpu.bus.hookAddress(addr, device);
+        return device;
+    }
+
+    public void press(int key) {
+        this.key = key & 0xFF;
+    }
+
+    public int key() {
+        return key;
+    }
+
+    @Override
+    public int read(int addr) {
+        return key;
+    }
+
+    @Override
+    public void write(int addr, int value) {
+        key = value & 0xFF;
+    }
+}
@@ -0,0 +1,56 @@
+package com.ferdin.nescpu;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class InputQueue {
+    // Single-producer / single-consumer ring of key codes, from the thread
+    // that polls the keyboard to the emulation thread. Each side only
+    // writes its own counter, so there is no lock and no CAS. lazySet is
+    // enough to publish: the other side only needs to see it eventually,
+    // and in order with the slot write before it.
+
+    private final int[] ring;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();    // next slot to read, consumer's
+    private final AtomicLong tail = new AtomicLong();    // next slot to write, producer's
+
+    // capacity is rounded up to a power of two
+    public InputQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        ring = new int[size];
+        mask = size - 1;
+    }
+
+    // Producer side. Returns false when the queue is full and the key was
+    // dropped.
+    public boolean offer(int key) {
+        long t = tail.get();
+        if (t - head.get() == ring.length) {
+            return false;
+        }
+        ring[(int) t & mask] = key;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    // Consumer side. Returns -1 when the queue is empty.
+    public int poll() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return -1;
+        }
+        int key = ring[(int) h & mask];
+        head.lazySet(h + 1);
+        return key;
+    }
+
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+}
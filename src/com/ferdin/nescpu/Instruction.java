@@ -0,0 +1,55 @@
+package com.ferdin.nescpu;
+
+public final class Instruction {
+    // Single data structure to hold all the information about an instruction.
+
+    @FunctionalInterface
+    public interface Handler {
+        // operand = the 0, 1 or 2 bytes that follow the opcode (little endian)
+        void execute(DemoNES cpu, int operand);
+    }
+
+    public final int opcode;
+    public final String mnemonic;
+    public final DemoNES.AddressingMode mode;
+    public final int bytes;     // opcode + operand bytes, used to advance the PC
+    public final int cycles;    // base cycle count
+    public final boolean pageCrossPenalty;  // +1 cycle when an indexed read crosses a page
+    public final boolean implemented;
+    public final Handler handler;
+
+    public Instruction(int opcode, String mnemonic, DemoNES.AddressingMode mode,
+                       int bytes, int cycles, boolean pageCrossPenalty, Handler handler) {
+        this.opcode = opcode;
+        this.mnemonic = mnemonic;
+        this.mode = mode;
+        this.bytes = bytes;
+        this.cycles = cycles;
+        this.pageCrossPenalty = pageCrossPenalty;
+        this.implemented = handler != Instructions.UNKNOWN;
+        this.handler = handler;
+    }
+
+    public boolean isImplemented() {
+        return implemented;
+    }
+
+    // True for instructions that may not fall through to the next one
+    public boolean isControlFlow() {
+        switch (mnemonic) {
+            case "JMP":
+            case "JSR":
+            case "RTS":
+            case "RTI":
+            case "BRK":
+                return true;
+            default:
+                return mode == DemoNES.AddressingMode.RELATIVE;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%02X %s %s", opcode, mnemonic, mode);
+    }
+}
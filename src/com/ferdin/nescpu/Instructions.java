@@ -0,0 +1,254 @@
+package com.ferdin.nescpu;
+
+import java.util.Set;
+
+import static com.ferdin.nescpu.AddressingModes.*;
+import static com.ferdin.nescpu.DemoNES.AddressingMode.*;
+
+public final class Instructions {
+    // All the opcodes will be defined here.
+    // One entry per opcode byte (256 entries). Each entry knows its mnemonic,
+    // addressing mode, length in bytes and base cycle count, and its handler
+    // already has the addressing mode baked in, so the run loop never has to
+    // switch on the mode again.
+
+    // Handler used for every opcode we have not implemented (unofficial ones)
+    static final Instruction.Handler UNKNOWN = (cpu, operand) -> {
+        throw new UnsupportedOperationException("Opcode not implemented yet.");
+    };
+
+    public static final Instruction[] TABLE = new Instruction[256];
+
+    private Instructions() {
+    }
+
+    public static Instruction get(int opcode) {
+        return TABLE[opcode & 0xFF];
+    }
+
+    // Stores and read-modify-write instructions always spend the extra
+    // cycle (it is already in their base count), only plain reads pay it
+    // when the index actually crosses a page.
+    private static final Set<String> NO_PAGE_PENALTY = Set.of(
+        "STA", "STX", "STY", "INC", "DEC", "ASL", "LSR", "ROL", "ROR");
+
+    private static void op(int opcode, String mnemonic, DemoNES.AddressingMode mode,
+                           int bytes, int cycles, Instruction.Handler handler) {
+        if (TABLE[opcode] != null) {
+            throw new IllegalStateException(String.format("Opcode %02X defined twice", opcode));
+        }
+        boolean indexed = mode == ABSOLUTE_X || mode == ABSOLUTE_Y || mode == INDIRECT_Y;
+        boolean pageCrossPenalty = indexed && !NO_PAGE_PENALTY.contains(mnemonic);
+        TABLE[opcode] = new Instruction(opcode, mnemonic, mode, bytes, cycles, pageCrossPenalty, handler);
+    }
+
+    static {
+        // BRK - the run loop stops before dispatching it (demo behaviour)
+        op(0x00, "BRK", NONE_ADDRESSING, 1, 7, (cpu, o) -> { });
+        op(0xEA, "NOP", NONE_ADDRESSING, 1, 2, (cpu, o) -> { });
+        op(0x40, "RTI", NONE_ADDRESSING, 1, 6, (cpu, o) -> cpu.rti());
+
+        // LDA
+        op(0xA9, "LDA", IMMEDIATE,   2, 2, (cpu, o) -> cpu.lda(immediate(cpu)));
+        op(0xA5, "LDA", ZERO_PAGE,   2, 3, (cpu, o) -> cpu.lda(zeroPage(cpu, o)));
+        op(0xB5, "LDA", ZERO_PAGE_X, 2, 4, (cpu, o) -> cpu.lda(zeroPageX(cpu, o)));
+        op(0xAD, "LDA", ABSOLUTE,    3, 4, (cpu, o) -> cpu.lda(absolute(cpu, o)));
+        op(0xBD, "LDA", ABSOLUTE_X,  3, 4, (cpu, o) -> cpu.lda(absoluteX(cpu, o)));
+        op(0xB9, "LDA", ABSOLUTE_Y,  3, 4, (cpu, o) -> cpu.lda(absoluteY(cpu, o)));
+        op(0xA1, "LDA", INDIRECT_X,  2, 6, (cpu, o) -> cpu.lda(indirectX(cpu, o)));
+        op(0xB1, "LDA", INDIRECT_Y,  2, 5, (cpu, o) -> cpu.lda(indirectY(cpu, o)));
+
+        // LDX
+        op(0xA2, "LDX", IMMEDIATE,   2, 2, (cpu, o) -> cpu.ldx(immediate(cpu)));
+        op(0xA6, "LDX", ZERO_PAGE,   2, 3, (cpu, o) -> cpu.ldx(zeroPage(cpu, o)));
+        op(0xB6, "LDX", ZERO_PAGE_Y, 2, 4, (cpu, o) -> cpu.ldx(zeroPageY(cpu, o)));
+        op(0xAE, "LDX", ABSOLUTE,    3, 4, (cpu, o) -> cpu.ldx(absolute(cpu, o)));
+        op(0xBE, "LDX", ABSOLUTE_Y,  3, 4, (cpu, o) -> cpu.ldx(absoluteY(cpu, o)));
+
+        // LDY
+        op(0xA0, "LDY", IMMEDIATE,   2, 2, (cpu, o) -> cpu.ldy(immediate(cpu)));
+        op(0xA4, "LDY", ZERO_PAGE,   2, 3, (cpu, o) -> cpu.ldy(zeroPage(cpu, o)));
+        op(0xB4, "LDY", ZERO_PAGE_X, 2, 4, (cpu, o) -> cpu.ldy(zeroPageX(cpu, o)));
+        op(0xAC, "LDY", ABSOLUTE,    3, 4, (cpu, o) -> cpu.ldy(absolute(cpu, o)));
+        op(0xBC, "LDY", ABSOLUTE_X,  3, 4, (cpu, o) -> cpu.ldy(absoluteX(cpu, o)));
+
+        // STA
+        op(0x85, "STA", ZERO_PAGE,   2, 3, (cpu, o) -> cpu.sta(zeroPage(cpu, o)));
+        op(0x95, "STA", ZERO_PAGE_X, 2, 4, (cpu, o) -> cpu.sta(zeroPageX(cpu, o)));
+        op(0x8D, "STA", ABSOLUTE,    3, 4, (cpu, o) -> cpu.sta(absolute(cpu, o)));
+        op(0x9D, "STA", ABSOLUTE_X,  3, 5, (cpu, o) -> cpu.sta(absoluteX(cpu, o)));
+        op(0x99, "STA", ABSOLUTE_Y,  3, 5, (cpu, o) -> cpu.sta(absoluteY(cpu, o)));
+        op(0x81, "STA", INDIRECT_X,  2, 6, (cpu, o) -> cpu.sta(indirectX(cpu, o)));
+        op(0x91, "STA", INDIRECT_Y,  2, 6, (cpu, o) -> cpu.sta(indirectY(cpu, o)));
+
+        // STX / STY
+        op(0x86, "STX", ZERO_PAGE,   2, 3, (cpu, o) -> cpu.stx(zeroPage(cpu, o)));
+        op(0x96, "STX", ZERO_PAGE_Y, 2, 4, (cpu, o) -> cpu.stx(zeroPageY(cpu, o)));
+        op(0x8E, "STX", ABSOLUTE,    3, 4, (cpu, o) -> cpu.stx(absolute(cpu, o)));
+        op(0x84, "STY", ZERO_PAGE,   2, 3, (cpu, o) -> cpu.sty(zeroPage(cpu, o)));
+        op(0x94, "STY", ZERO_PAGE_X, 2, 4, (cpu, o) -> cpu.sty(zeroPageX(cpu, o)));
+        op(0x8C, "STY", ABSOLUTE,    3, 4, (cpu, o) -> cpu.sty(absolute(cpu, o)));
+
+        // Register transfers
+        op(0xAA, "TAX", NONE_ADDRESSING, 1, 2, (cpu, o) -> cpu.tax());
+        op(0xA8, "TAY", NONE_ADDRESSING, 1, 2, (cpu, o) -> cpu.tay());
+        op(0x8A, "TXA", NONE_ADDRESSING, 1, 2, (cpu, o) -> cpu.txa());
+        op(0x98, "TYA", NONE_ADDRESSING, 1, 2, (cpu, o) -> cpu.tya());
+        op(0xBA, "TSX", NONE_ADDRESSING, 1, 2, (cpu, o) -> cpu.tsx());
+        op(0x9A, "TXS", NONE_ADDRESSING, 1, 2, (cpu, o) -> cpu.txs());
+
+        // Stack
+        op(0x48, "PHA", NONE_ADDRESSING, 1, 3, (cpu, o) -> cpu.pha());
+        op(0x08, "PHP", NONE_ADDRESSING, 1, 3, (cpu, o) -> cpu.php());
+        op(0x68, "PLA", NONE_ADDRESSING, 1, 4, (cpu, o) -> cpu.pla());
+        op(0x28, "PLP", NONE_ADDRESSING, 1, 4, (cpu, o) -> cpu.plp());
+
+        // AND
+        op(0x29, "AND", IMMEDIATE,   2, 2, (cpu, o) -> cpu.and(immediate(cpu)));
+        op(0x25, "AND", ZERO_PAGE,   2, 3, (cpu, o) -> cpu.and(zeroPage(cpu, o)));
+        op(0x35, "AND", ZERO_PAGE_X, 2, 4, (cpu, o) -> cpu.and(zeroPageX(cpu, o)));
+        op(0x2D, "AND", ABSOLUTE,    3, 4, (cpu, o) -> cpu.and(absolute(cpu, o)));
+        op(0x3D, "AND", ABSOLUTE_X,  3, 4, (cpu, o) -> cpu.and(absoluteX(cpu, o)));
+        op(0x39, "AND", ABSOLUTE_Y,  3, 4, (cpu, o) -> cpu.and(absoluteY(cpu, o)));
+        op(0x21, "AND", INDIRECT_X,  2, 6, (cpu, o) -> cpu.and(indirectX(cpu, o)));
+        op(0x31, "AND", INDIRECT_Y,  2, 5, (cpu, o) -> cpu.and(indirectY(cpu, o)));
+
+        // EOR
+        op(0x49, "EOR", IMMEDIATE,   2, 2, (cpu, o) -> cpu.eor(immediate(cpu)));
+        op(0x45, "EOR", ZERO_PAGE,   2, 3, (cpu, o) -> cpu.eor(zeroPage(cpu, o)));
+        op(0x55, "EOR", ZERO_PAGE_X, 2, 4, (cpu, o) -> cpu.eor(zeroPageX(cpu, o)));
+        op(0x4D, "EOR", ABSOLUTE,    3, 4, (cpu, o) -> cpu.eor(absolute(cpu, o)));
+        op(0x5D, "EOR", ABSOLUTE_X,  3, 4, (cpu, o) -> cpu.eor(absoluteX(cpu, o)));
+        op(0x59, "EOR", ABSOLUTE_Y,  3, 4, (cpu, o) -> cpu.eor(absoluteY(cpu, o)));
+        op(0x41, "EOR", INDIRECT_X,  2, 6, (cpu, o) -> cpu.eor(indirectX(cpu, o)));
+        op(0x51, "EOR", INDIRECT_Y,  2, 5, (cpu, o) -> cpu.eor(indirectY(cpu, o)));
+
+        // ORA
+        op(0x09, "ORA", IMMEDIATE,   2, 2, (cpu, o) -> cpu.ora(immediate(cpu)));
+        op(0x05, "ORA", ZERO_PAGE,   2, 3, (cpu, o) -> cpu.ora(zeroPage(cpu, o)));
+        op(0x15, "ORA", ZERO_PAGE_X, 2, 4, (cpu, o) -> cpu.ora(zeroPageX(cpu, o)));
+        op(0x0D, "ORA", ABSOLUTE,    3, 4, (cpu, o) -> cpu.ora(absolute(cpu, o)));
+        op(0x1D, "ORA", ABSOLUTE_X,  3, 4, (cpu, o) -> cpu.ora(absoluteX(cpu, o)));
+        op(0x19, "ORA", ABSOLUTE_Y,  3, 4, (cpu, o) -> cpu.ora(absoluteY(cpu, o)));
+        op(0x01, "ORA", INDIRECT_X,  2, 6, (cpu, o) -> cpu.ora(indirectX(cpu, o)));
+        op(0x11, "ORA", INDIRECT_Y,  2, 5, (cpu, o) -> cpu.ora(indirectY(cpu, o)));
+
+        // BIT
+        op(0x24, "BIT", ZERO_PAGE,   2, 3, (cpu, o) -> cpu.bit(zeroPage(cpu, o)));
+        op(0x2C, "BIT", ABSOLUTE,    3, 4, (cpu, o) -> cpu.bit(absolute(cpu, o)));
+
+        // ADC
+        op(0x69, "ADC", IMMEDIATE,   2, 2, (cpu, o) -> cpu.adc(immediate(cpu)));
+        op(0x65, "ADC", ZERO_PAGE,   2, 3, (cpu, o) -> cpu.adc(zeroPage(cpu, o)));
+        op(0x75, "ADC", ZERO_PAGE_X, 2, 4, (cpu, o) -> cpu.adc(zeroPageX(cpu, o)));
+        op(0x6D, "ADC", ABSOLUTE,    3, 4, (cpu, o) -> cpu.adc(absolute(cpu, o)));
+        op(0x7D, "ADC", ABSOLUTE_X,  3, 4, (cpu, o) -> cpu.adc(absoluteX(cpu, o)));
+        op(0x79, "ADC", ABSOLUTE_Y,  3, 4, (cpu, o) -> cpu.adc(absoluteY(cpu, o)));
+        op(0x61, "ADC", INDIRECT_X,  2, 6, (cpu, o) -> cpu.adc(indirectX(cpu, o)));
+        op(0x71, "ADC", INDIRECT_Y,  2, 5, (cpu, o) -> cpu.adc(indirectY(cpu, o)));
+
+        // SBC
+        op(0xE9, "SBC", IMMEDIATE,   2, 2, (cpu, o) -> cpu.sbc(immediate(cpu)));
+        op(0xE5, "SBC", ZERO_PAGE,   2, 3, (cpu, o) -> cpu.sbc(zeroPage(cpu, o)));
+        op(0xF5, "SBC", ZERO_PAGE_X, 2, 4, (cpu, o) -> cpu.sbc(zeroPageX(cpu, o)));
+        op(0xED, "SBC", ABSOLUTE,    3, 4, (cpu, o) -> cpu.sbc(absolute(cpu, o)));
+        op(0xFD, "SBC", ABSOLUTE_X,  3, 4, (cpu, o) -> cpu.sbc(absoluteX(cpu, o)));
+        op(0xF9, "SBC", ABSOLUTE_Y,  3, 4, (cpu, o) -> cpu.sbc(absoluteY(cpu, o)));
+        op(0xE1, "SBC", INDIRECT_X,  2, 6, (cpu, o) -> cpu.sbc(indirectX(cpu, o)));
+        op(0xF1, "SBC", INDIRECT_Y,  2, 5, (cpu, o) -> cpu.sbc(indirectY(cpu, o)));
+
+        // CMP
+        op(0xC9, "CMP", IMMEDIATE,   2, 2, (cpu, o) -> cpu.cmp(immediate(cpu)));
+        op(0xC5, "CMP", ZERO_PAGE,   2, 3, (cpu, o) -> cpu.cmp(zeroPage(cpu, o)));
+        op(0xD5, "CMP", ZERO_PAGE_X, 2, 4, (cpu, o) -> cpu.cmp(zeroPageX(cpu, o)));
+        op(0xCD, "CMP", ABSOLUTE,    3, 4, (cpu, o) -> cpu.cmp(absolute(cpu, o)));
+        op(0xDD, "CMP", ABSOLUTE_X,  3, 4, (cpu, o) -> cpu.cmp(absoluteX(cpu, o)));
+        op(0xD9, "CMP", ABSOLUTE_Y,  3, 4, (cpu, o) -> cpu.cmp(absoluteY(cpu, o)));
+        op(0xC1, "CMP", INDIRECT_X,  2, 6, (cpu, o) -> cpu.cmp(indirectX(cpu, o)));
+        op(0xD1, "CMP", INDIRECT_Y,  2, 5, (cpu, o) -> cpu.cmp(indirectY(cpu, o)));
+
+        // CPX / CPY
+        op(0xE0, "CPX", IMMEDIATE,   2, 2, (cpu, o) -> cpu.cpx(immediate(cpu)));
+        op(0xE4, "CPX", ZERO_PAGE,   2, 3, (cpu, o) -> cpu.cpx(zeroPage(cpu, o)));
+        op(0xEC, "CPX", ABSOLUTE,    3, 4, (cpu, o) -> cpu.cpx(absolute(cpu, o)));
+        op(0xC0, "CPY", IMMEDIATE,   2, 2, (cpu, o) -> cpu.cpy(immediate(cpu)));
+        op(0xC4, "CPY", ZERO_PAGE,   2, 3, (cpu, o) -> cpu.cpy(zeroPage(cpu, o)));
+        op(0xCC, "CPY", ABSOLUTE,    3, 4, (cpu, o) -> cpu.cpy(absolute(cpu, o)));
+
+        // INC / INX / INY
+        op(0xE6, "INC", ZERO_PAGE,   2, 5, (cpu, o) -> cpu.inc(zeroPage(cpu, o)));
+        op(0xF6, "INC", ZERO_PAGE_X, 2, 6, (cpu, o) -> cpu.inc(zeroPageX(cpu, o)));
+        op(0xEE, "INC", ABSOLUTE,    3, 6, (cpu, o) -> cpu.inc(absolute(cpu, o)));
+        op(0xFE, "INC", ABSOLUTE_X,  3, 7, (cpu, o) -> cpu.inc(absoluteX(cpu, o)));
+        op(0xE8, "INX", NONE_ADDRESSING, 1, 2, (cpu, o) -> cpu.inx());
+        op(0xC8, "INY", NONE_ADDRESSING, 1, 2, (cpu, o) -> cpu.iny());
+
+        // DEC / DEX / DEY
+        op(0xC6, "DEC", ZERO_PAGE,   2, 5, (cpu, o) -> cpu.dec(zeroPage(cpu, o)));
+        op(0xD6, "DEC", ZERO_PAGE_X, 2, 6, (cpu, o) -> cpu.dec(zeroPageX(cpu, o)));
+        op(0xCE, "DEC", ABSOLUTE,    3, 6, (cpu, o) -> cpu.dec(absolute(cpu, o)));
+        op(0xDE, "DEC", ABSOLUTE_X,  3, 7, (cpu, o) -> cpu.dec(absoluteX(cpu, o)));
+        op(0xCA, "DEX", NONE_ADDRESSING, 1, 2, (cpu, o) -> cpu.dex());
+        op(0x88, "DEY", NONE_ADDRESSING, 1, 2, (cpu, o) -> cpu.dey());
+
+        // ASL
+        op(0x0A, "ASL", ACCUMULATOR, 1, 2, (cpu, o) -> cpu.aslAccumulator());
+        op(0x06, "ASL", ZERO_PAGE,   2, 5, (cpu, o) -> cpu.asl(zeroPage(cpu, o)));
+        op(0x16, "ASL", ZERO_PAGE_X, 2, 6, (cpu, o) -> cpu.asl(zeroPageX(cpu, o)));
+        op(0x0E, "ASL", ABSOLUTE,    3, 6, (cpu, o) -> cpu.asl(absolute(cpu, o)));
+        op(0x1E, "ASL", ABSOLUTE_X,  3, 7, (cpu, o) -> cpu.asl(absoluteX(cpu, o)));
+
+        // LSR
+        op(0x4A, "LSR", ACCUMULATOR, 1, 2, (cpu, o) -> cpu.lsrAccumulator());
+        op(0x46, "LSR", ZERO_PAGE,   2, 5, (cpu, o) -> cpu.lsr(zeroPage(cpu, o)));
+        op(0x56, "LSR", ZERO_PAGE_X, 2, 6, (cpu, o) -> cpu.lsr(zeroPageX(cpu, o)));
+        op(0x4E, "LSR", ABSOLUTE,    3, 6, (cpu, o) -> cpu.lsr(absolute(cpu, o)));
+        op(0x5E, "LSR", ABSOLUTE_X,  3, 7, (cpu, o) -> cpu.lsr(absoluteX(cpu, o)));
+
+        // ROL
+        op(0x2A, "ROL", ACCUMULATOR, 1, 2, (cpu, o) -> cpu.rolAccumulator());
+        op(0x26, "ROL", ZERO_PAGE,   2, 5, (cpu, o) -> cpu.rol(zeroPage(cpu, o)));
+        op(0x36, "ROL", ZERO_PAGE_X, 2, 6, (cpu, o) -> cpu.rol(zeroPageX(cpu, o)));
+        op(0x2E, "ROL", ABSOLUTE,    3, 6, (cpu, o) -> cpu.rol(absolute(cpu, o)));
+        op(0x3E, "ROL", ABSOLUTE_X,  3, 7, (cpu, o) -> cpu.rol(absoluteX(cpu, o)));
+
+        // ROR
+        op(0x6A, "ROR", ACCUMULATOR, 1, 2, (cpu, o) -> cpu.rorAccumulator());
+        op(0x66, "ROR", ZERO_PAGE,   2, 5, (cpu, o) -> cpu.ror(zeroPage(cpu, o)));
+        op(0x76, "ROR", ZERO_PAGE_X, 2, 6, (cpu, o) -> cpu.ror(zeroPageX(cpu, o)));
+        op(0x6E, "ROR", ABSOLUTE,    3, 6, (cpu, o) -> cpu.ror(absolute(cpu, o)));
+        op(0x7E, "ROR", ABSOLUTE_X,  3, 7, (cpu, o) -> cpu.ror(absoluteX(cpu, o)));
+
+        // Jumps and subroutines
+        op(0x4C, "JMP", ABSOLUTE,    3, 3, (cpu, o) -> cpu.jmp(absolute(cpu, o)));
+        op(0x6C, "JMP", INDIRECT,    3, 5, (cpu, o) -> cpu.jmp(indirect(cpu, o)));
+        op(0x20, "JSR", ABSOLUTE,    3, 6, (cpu, o) -> cpu.jsr(absolute(cpu, o)));
+        op(0x60, "RTS", NONE_ADDRESSING, 1, 6, (cpu, o) -> cpu.rts());
+
+        // Branches
+        op(0x90, "BCC", RELATIVE,    2, 2, (cpu, o) -> cpu.bcc(relative(cpu, o)));
+        op(0xB0, "BCS", RELATIVE,    2, 2, (cpu, o) -> cpu.bcs(relative(cpu, o)));
+        op(0xF0, "BEQ", RELATIVE,    2, 2, (cpu, o) -> cpu.beq(relative(cpu, o)));
+        op(0x30, "BMI", RELATIVE,    2, 2, (cpu, o) -> cpu.bmi(relative(cpu, o)));
+        op(0xD0, "BNE", RELATIVE,    2, 2, (cpu, o) -> cpu.bne(relative(cpu, o)));
+        op(0x10, "BPL", RELATIVE,    2, 2, (cpu, o) -> cpu.bpl(relative(cpu, o)));
+        op(0x50, "BVC", RELATIVE,    2, 2, (cpu, o) -> cpu.bvc(relative(cpu, o)));
+        op(0x70, "BVS", RELATIVE,    2, 2, (cpu, o) -> cpu.bvs(relative(cpu, o)));
+
+        // Flag instructions
+        op(0x18, "CLC", NONE_ADDRESSING, 1, 2, (cpu, o) -> cpu.clc());
+        op(0xD8, "CLD", NONE_ADDRESSING, 1, 2, (cpu, o) -> cpu.cld());
+        op(0x58, "CLI", NONE_ADDRESSING, 1, 2, (cpu, o) -> cpu.cli());
+        op(0xB8, "CLV", NONE_ADDRESSING, 1, 2, (cpu, o) -> cpu.clv());
+        op(0x38, "SEC", NONE_ADDRESSING, 1, 2, (cpu, o) -> cpu.sec());
+        op(0xF8, "SED", NONE_ADDRESSING, 1, 2, (cpu, o) -> cpu.sed());
+        op(0x78, "SEI", NONE_ADDRESSING, 1, 2, (cpu, o) -> cpu.sei());
+
+        // Everything else (unofficial opcodes) is not implemented yet
+        for (int opcode = 0; opcode < 256; opcode++) {
+            if (TABLE[opcode] == null) {
+                TABLE[opcode] = new Instruction(opcode, "???", NONE_ADDRESSING, 1, 2, false, UNKNOWN);
+            }
+        }
+    }
+}
@@ -0,0 +1,843 @@
+package com.ferdin.nescpu;
+
+import static com.ferdin.nescpu.DemoNES.CARRY;
+import static com.ferdin.nescpu.DemoNES.ZERO;
+import static com.ferdin.nescpu.DemoNES.INTERRUPT_DISABLE;
+import static com.ferdin.nescpu.DemoNES.DECIMAL_MODE;
+import static com.ferdin.nescpu.DemoNES.BREAK;
+import static com.ferdin.nescpu.DemoNES.BREAK2;
+import static com.ferdin.nescpu.DemoNES.OVERFLOW;
+import static com.ferdin.nescpu.DemoNES.NEGATIVE;
+
+public final class LockstepEngine {
+    // Runs many copies of the same program side by side, structure of
+    // arrays style: each register is an array indexed by lane, and the RAM
+    // of all lanes is one strided block, ram[addr * lanes + lane], so the
+    // lanes' copies of an address sit next to each other.
+    //
+    // Each step picks the lowest PC among the running lanes and executes
+    // that instruction for every lane at the same PC: it is fetched and
+    // decoded once, then applied lane by lane in a tight loop. While the
+    // lanes agree that is all of them. When they diverge (different
+    // inputs take different branches) they run in smaller groups, down to
+    // one lane at a time, and merge again when their PCs meet.
+    //
+    // The lane loops are plain array loops, not jdk.incubator.vector: an
+    // ALU on the Vector API made ALU-heavy loops 10-50% faster, but a
+    // 64-lane snake frame took 6.1 ms either way (the PC scan, branches
+    // and stores dominate), allocated about 6 KB, and needed
+    // add-modules on every javac and java that touches this tree.
+    //
+    // Instruction semantics are DemoNES's, quirks included (the unmasked
+    // stack pointer), so every lane ends up bit for bit where a DemoNES
+    // would.
+    //
+    // Each lane has its own 2KB RAM (mirrored to 0x1FFF). Cartridge space
+    // is one read-only image shared by all lanes, the I/O registers read
+    // as 0. A write outside RAM throws, there's no per-lane copy of it.
+
+    public final int lanes;
+
+    public final int[] registerA;
+    public final int[] registerX;
+    public final int[] registerY;
+    public final int[] stackPointer;
+    public final int[] status;
+    public final int[] programCounter;
+    public final long[] cycles;
+
+    private final byte[] ram;
+    private final byte[] cartridge = new byte[0x10000 - 0x4000];
+
+    // Steps taken and lanes moved by them, laneSteps / groupSteps is the
+    // average number of lanes sharing an instruction
+    public long groupSteps;
+    public long laneSteps;
+
+    // Scratch, reused by every step
+    private final int[] group;
+    private final int[] addr;
+    private final boolean[] crossed;
+    private final long[] endCycle;
+    private final DemoNES.RunResult[] results;
+    private final boolean[] running;
+
+    // Instruction kinds, what the switch in step() executes
+    private static final int ILLEGAL = 0, BRK = 1, NOP = 2,
+        LDA = 3, LDX = 4, LDY = 5, STA = 6, STX = 7, STY = 8,
+        TAX = 9, TAY = 10, TXA = 11, TYA = 12, TSX = 13, TXS = 14,
+        AND = 15, ORA = 16, EOR = 17, ADC = 18, SBC = 19,
+        CMP = 20, CPX = 21, CPY = 22, BIT = 23,
+        INC = 24, DEC = 25, INX = 26, INY = 27, DEX = 28, DEY = 29,
+        ASL = 30, LSR = 31, ROL = 32, ROR = 33,
+        ASL_A = 34, LSR_A = 35, ROL_A = 36, ROR_A = 37,
+        JMP = 38, JSR = 39, RTS = 40, RTI = 41,
+        PHA = 42, PHP = 43, PLA = 44, PLP = 45,
+        CLC = 46, SEC = 47, CLD = 48, CLI = 49, CLV = 50, SED = 51, SEI = 52,
+        BCC = 53, BCS = 54, BEQ = 55, BNE = 56, BMI = 57, BPL = 58, BVC = 59, BVS = 60;
+
+    private static final String[] KIND_NAMES = {
+        "???", "BRK", "NOP", "LDA", "LDX", "LDY", "STA", "STX", "STY",
+        "TAX", "TAY", "TXA", "TYA", "TSX", "TXS",
+        "AND", "ORA", "EOR", "ADC", "SBC", "CMP", "CPX", "CPY", "BIT",
+        "INC", "DEC", "INX", "INY", "DEX", "DEY",
+        "ASL", "LSR", "ROL", "ROR", "ASL_A", "LSR_A", "ROL_A", "ROR_A",
+        "JMP", "JSR", "RTS", "RTI", "PHA", "PHP", "PLA", "PLP",
+        "CLC", "SEC", "CLD", "CLI", "CLV", "SED", "SEI",
+        "BCC", "BCS", "BEQ", "BNE", "BMI", "BPL", "BVC", "BVS"
+    };
+
+    private static final int[] KIND = new int[256];
+
+    static {
+        for (int opcode = 0; opcode < 256; opcode++) {
+            Instruction instruction = Instructions.TABLE[opcode];
+            String name = instruction.mnemonic;
+            if (instruction.mode == DemoNES.AddressingMode.ACCUMULATOR) {
+                name += "_A";
+            }
+            KIND[opcode] = ILLEGAL;
+            if (instruction.implemented) {
+                for (int kind = 0; kind < KIND_NAMES.length; kind++) {
+                    if (KIND_NAMES[kind].equals(name)) {
+                        KIND[opcode] = kind;
+                    }
+                }
+                if (KIND[opcode] == ILLEGAL) {
+                    throw new IllegalStateException("No lockstep version of " + instruction);
+                }
+            }
+        }
+    }
+
+    public LockstepEngine(int lanes) {
+        if (lanes <= 0) {
+            throw new IllegalArgumentException("Need at least one lane");
+        }
+        this.lanes = lanes;
+        registerA = new int[lanes];
+        registerX = new int[lanes];
+        registerY = new int[lanes];
+        stackPointer = new int[lanes];
+        status = new int[lanes];
+        programCounter = new int[lanes];
+        cycles = new long[lanes];
+        ram = new byte[Bus.RAM_SIZE * lanes];
+
+        group = new int[lanes];
+        addr = new int[lanes];
+        crossed = new boolean[lanes];
+        endCycle = new long[lanes];
+        results = new DemoNES.RunResult[lanes];
+        running = new boolean[lanes];
+        reset();
+    }
+
+    // Same as DemoNES.load, into every lane's RAM or the shared cartridge
+    public void load(byte[] program, int startAddress) {
+        for (int i = 0; i < program.length; i++) {
+            poke(startAddress + i, program[i]);
+        }
+        poke(0xFFFC, (byte) (startAddress & 0xFF));
+        poke(0xFFFD, (byte) (startAddress >> 8));
+    }
+
+    // Same as DemoNES.reset, for every lane
+    public void reset() {
+        int start = read(0, 0xFFFC) | (read(0, 0xFFFD) << 8);
+        for (int lane = 0; lane < lanes; lane++) {
+            registerA[lane] = 0;
+            registerX[lane] = 0;
+            registerY[lane] = 0;
+            stackPointer[lane] = 0xFD;
+            status[lane] = 0;
+            programCounter[lane] = start;
+            cycles[lane] = 7;
+        }
+    }
+
+    public int memRead(int lane, int address) {
+        return read(lane, address);
+    }
+
+    public void memWrite(int lane, int address, byte data) {
+        write(lane, address, data);
+    }
+
+    private void poke(int address, byte data) {
+        address &= 0xFFFF;
+        if (address < 0x2000) {
+            for (int lane = 0; lane < lanes; lane++) {
+                write(lane, address, data);
+            }
+        } else if (address >= Bus.CARTRIDGE_START) {
+            cartridge[address - 0x4000] = data;
+        } else {
+            throw new IllegalArgumentException("Can't load into I/O registers at " + address);
+        }
+    }
+
+    private int read(int lane, int address) {
+        address &= 0xFFFF;
+        if (address < 0x2000) {
+            return ram[(address & 0x07FF) * lanes + lane] & 0xFF;
+        }
+        if (address >= Bus.CARTRIDGE_START) {
+            return cartridge[address - 0x4000] & 0xFF;
+        }
+        return 0;   // I/O registers, lanes can't write them so they stay 0
+    }
+
+    private void write(int lane, int address, int value) {
+        address &= 0xFFFF;
+        if (address >= 0x2000) {
+            throw new IllegalStateException("Lane " + lane + " wrote outside RAM at " + address);
+        }
+        ram[(address & 0x07FF) * lanes + lane] = (byte) value;
+    }
+
+    // Runs every lane like DemoNES.runCycles(budget). The returned array is
+    // reused by the next call.
+    public DemoNES.RunResult[] runCycles(long budget) {
+        int active = 0;
+        for (int lane = 0; lane < lanes; lane++) {
+            endCycle[lane] = cycles[lane] + budget;
+            results[lane] = DemoNES.RunResult.BUDGET_EXHAUSTED;
+            running[lane] = cycles[lane] < endCycle[lane];
+            if (running[lane]) {
+                active++;
+            }
+        }
+
+        while (active > 0) {
+            active -= step();
+        }
+        return results;
+    }
+
+    // Executes the instruction at the lowest PC among the running lanes,
+    // for every lane sharing it. Returns how many lanes stopped.
+    private int step() {
+        // One pass: the group restarts whenever a lower PC shows up
+        int pc = Integer.MAX_VALUE;
+        int n = 0;
+        for (int lane = 0; lane < lanes; lane++) {
+            if (running[lane]) {
+                int lanePc = programCounter[lane];
+                if (lanePc < pc) {
+                    pc = lanePc;
+                    n = 0;
+                }
+                if (lanePc == pc) {
+                    group[n++] = lane;
+                }
+            }
+        }
+
+        int leader = group[0];
+        int opcode = read(leader, pc);
+        Instruction instruction = Instructions.TABLE[opcode];
+        int bytes = instruction.bytes;
+        int operand = 0;
+        if (bytes == 2) {
+            operand = read(leader, pc + 1);
+        } else if (bytes == 3) {
+            operand = read(leader, pc + 1) | (read(leader, pc + 2) << 8);
+        }
+
+        // Code in RAM may differ between lanes, those run in a later step
+        if ((pc & 0xFFFF) < 0x2000) {
+            n = sameCode(n, pc, bytes);
+        }
+        groupSteps++;
+        laneSteps += n;
+
+        int kind = KIND[opcode];
+        if (kind == ILLEGAL) {
+            return stop(n, DemoNES.RunResult.ILLEGAL_OPCODE);
+        }
+        int next = pc + bytes;
+        if (kind == BRK) {
+            for (int i = 0; i < n; i++) {
+                int l = group[i];
+                programCounter[l] = pc + 1;
+                cycles[l] += instruction.cycles;
+            }
+            return stop(n, DemoNES.RunResult.BREAK);
+        }
+
+        for (int i = 0; i < n; i++) {
+            programCounter[group[i]] = next;
+        }
+        resolve(instruction.mode, operand, n, next);
+        execute(kind, instruction.mode == DemoNES.AddressingMode.IMMEDIATE, operand, n, next);
+
+        int stopped = 0;
+        int base = instruction.cycles;
+        boolean penalty = instruction.pageCrossPenalty;
+        for (int i = 0; i < n; i++) {
+            int l = group[i];
+            cycles[l] += base + (penalty && crossed[l] ? 1 : 0);
+            if (cycles[l] >= endCycle[l]) {
+                running[l] = false;
+                stopped++;
+            }
+        }
+        return stopped;
+    }
+
+    // Keeps the lanes whose code bytes at pc are the leader's
+    private int sameCode(int n, int pc, int bytes) {
+        int leader = group[0];
+        int kept = 1;
+        for (int i = 1; i < n; i++) {
+            int l = group[i];
+            boolean same = true;
+            for (int b = 0; b < bytes; b++) {
+                int row = ((pc + b) & 0x07FF) * lanes;
+                same &= ram[row + l] == ram[row + leader];
+            }
+            if (same) {
+                group[kept++] = l;
+            }
+        }
+        return kept;
+    }
+
+    private int stop(int n, DemoNES.RunResult result) {
+        for (int i = 0; i < n; i++) {
+            int l = group[i];
+            running[l] = false;
+            results[l] = result;
+        }
+        return n;
+    }
+
+    // Effective address per lane, as AddressingModes does it
+    private void resolve(DemoNES.AddressingMode mode, int operand, int n, int next) {
+        switch (mode) {
+            case ZERO_PAGE:
+                fill(n, operand & 0xFF);
+                break;
+            case ABSOLUTE:
+                fill(n, operand & 0xFFFF);
+                break;
+            case RELATIVE:
+                fill(n, (next + (byte) operand) & 0xFFFF);
+                break;
+            case ZERO_PAGE_X:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    addr[l] = (operand + registerX[l]) & 0xFF;
+                }
+                break;
+            case ZERO_PAGE_Y:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    addr[l] = (operand + registerY[l]) & 0xFF;
+                }
+                break;
+            case ABSOLUTE_X:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    int a = (operand + registerX[l]) & 0xFFFF;
+                    addr[l] = a;
+                    crossed[l] = ((operand ^ a) & 0xFF00) != 0;
+                }
+                break;
+            case ABSOLUTE_Y:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    int a = (operand + registerY[l]) & 0xFFFF;
+                    addr[l] = a;
+                    crossed[l] = ((operand ^ a) & 0xFF00) != 0;
+                }
+                break;
+            case INDIRECT_X:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    int ptr = (operand + registerX[l]) & 0xFF;
+                    addr[l] = read(l, ptr) | (read(l, (ptr + 1) & 0xFF) << 8);
+                }
+                break;
+            case INDIRECT_Y:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    int base = operand & 0xFF;
+                    int deref = read(l, base) | (read(l, (base + 1) & 0xFF) << 8);
+                    int a = (deref + registerY[l]) & 0xFFFF;
+                    addr[l] = a;
+                    crossed[l] = ((deref ^ a) & 0xFF00) != 0;
+                }
+                break;
+            case INDIRECT:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    int ptr = operand & 0xFFFF;
+                    int hiAddr = (ptr & 0x00FF) == 0x00FF ? ptr & 0xFF00 : ptr + 1;
+                    addr[l] = read(l, ptr) | (read(l, hiAddr) << 8);
+                }
+                break;
+            default:
+                break;  // immediate, accumulator, implied
+        }
+    }
+
+    private void fill(int n, int value) {
+        for (int i = 0; i < n; i++) {
+            addr[group[i]] = value;
+        }
+    }
+
+    private int operandValue(int l, boolean immediate, int operand) {
+        return immediate ? operand & 0xFF : read(l, addr[l]);
+    }
+
+    private void execute(int kind, boolean immediate, int operand, int n, int next) {
+        switch (kind) {
+            case NOP:
+                break;
+
+            // Loads, stores and transfers
+            case LDA:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    registerA[l] = operandValue(l, immediate, operand);
+                    zeroAndNegative(l, registerA[l]);
+                }
+                break;
+            case LDX:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    registerX[l] = operandValue(l, immediate, operand);
+                    zeroAndNegative(l, registerX[l]);
+                }
+                break;
+            case LDY:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    registerY[l] = operandValue(l, immediate, operand);
+                    zeroAndNegative(l, registerY[l]);
+                }
+                break;
+            case STA:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    write(l, addr[l], registerA[l]);
+                }
+                break;
+            case STX:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    write(l, addr[l], registerX[l]);
+                }
+                break;
+            case STY:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    write(l, addr[l], registerY[l]);
+                }
+                break;
+            case TAX:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    registerX[l] = registerA[l];
+                    zeroAndNegative(l, registerX[l]);
+                }
+                break;
+            case TAY:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    registerY[l] = registerA[l];
+                    zeroAndNegative(l, registerY[l]);
+                }
+                break;
+            case TXA:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    registerA[l] = registerX[l];
+                    zeroAndNegative(l, registerA[l]);
+                }
+                break;
+            case TYA:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    registerA[l] = registerY[l];
+                    zeroAndNegative(l, registerA[l]);
+                }
+                break;
+            case TSX:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    registerX[l] = stackPointer[l] & 0xFF;
+                    zeroAndNegative(l, registerX[l]);
+                }
+                break;
+            case TXS:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    stackPointer[l] = registerX[l];
+                }
+                break;
+
+            // Logic and arithmetic
+            case AND:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    registerA[l] = registerA[l] & operandValue(l, immediate, operand);
+                    zeroAndNegative(l, registerA[l]);
+                }
+                break;
+            case ORA:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    registerA[l] = registerA[l] | operandValue(l, immediate, operand);
+                    zeroAndNegative(l, registerA[l]);
+                }
+                break;
+            case EOR:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    registerA[l] = registerA[l] ^ operandValue(l, immediate, operand);
+                    zeroAndNegative(l, registerA[l]);
+                }
+                break;
+            case ADC:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    int value = operandValue(l, immediate, operand);
+                    int oldA = registerA[l];
+                    int result = oldA + value + (status[l] & CARRY);
+                    int newA = result & 0xFF;
+                    int p = result > 0xFF ? status[l] | CARRY : status[l] & ~CARRY;
+                    p = ((oldA ^ newA) & (value ^ newA) & 0x80) != 0 ? p | OVERFLOW : p & ~OVERFLOW;
+                    status[l] = p;
+                    registerA[l] = newA;
+                    zeroAndNegative(l, newA);
+                }
+                break;
+            case SBC:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    int value = operandValue(l, immediate, operand);
+                    int oldA = registerA[l];
+                    int result = oldA + (value ^ 0xFF) + ((status[l] & CARRY) != 0 ? 1 : 0);
+                    int newA = result & 0xFF;
+                    int p = result > 0xFF ? status[l] | CARRY : status[l] & ~CARRY;
+                    p = ((oldA ^ newA) & (oldA ^ value) & 0x80) != 0 ? p | OVERFLOW : p & ~OVERFLOW;
+                    status[l] = p;
+                    registerA[l] = newA;
+                    zeroAndNegative(l, newA);
+                }
+                break;
+            case CMP:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    compare(l, registerA[l], operandValue(l, immediate, operand));
+                }
+                break;
+            case CPX:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    compare(l, registerX[l], operandValue(l, immediate, operand));
+                }
+                break;
+            case CPY:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    compare(l, registerY[l], operandValue(l, immediate, operand));
+                }
+                break;
+            case BIT:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    int value = read(l, addr[l]);
+                    int p = (registerA[l] & value) == 0 ? status[l] | ZERO : status[l] & ~ZERO;
+                    p = (value & 0x80) != 0 ? p | NEGATIVE : p & ~NEGATIVE;
+                    p = (value & 0x40) != 0 ? p | OVERFLOW : p & ~OVERFLOW;
+                    status[l] = p;
+                }
+                break;
+
+            // Increments and decrements
+            case INC:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    int value = (read(l, addr[l]) + 1) & 0xFF;
+                    write(l, addr[l], value);
+                    zeroAndNegative(l, value);
+                }
+                break;
+            case DEC:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    int value = (read(l, addr[l]) - 1) & 0xFF;
+                    write(l, addr[l], value);
+                    zeroAndNegative(l, value);
+                }
+                break;
+            case INX:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    registerX[l] = (registerX[l] + 1) & 0xFF;
+                    zeroAndNegative(l, registerX[l]);
+                }
+                break;
+            case INY:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    registerY[l] = (registerY[l] + 1) & 0xFF;
+                    zeroAndNegative(l, registerY[l]);
+                }
+                break;
+            case DEX:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    registerX[l] = (registerX[l] - 1) & 0xFF;
+                    zeroAndNegative(l, registerX[l]);
+                }
+                break;
+            case DEY:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    registerY[l] = (registerY[l] - 1) & 0xFF;
+                    zeroAndNegative(l, registerY[l]);
+                }
+                break;
+
+            // Shifts
+            case ASL:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    write(l, addr[l], asl(l, read(l, addr[l])));
+                }
+                break;
+            case LSR:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    write(l, addr[l], lsr(l, read(l, addr[l])));
+                }
+                break;
+            case ROL:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    write(l, addr[l], rol(l, read(l, addr[l])));
+                }
+                break;
+            case ROR:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    write(l, addr[l], ror(l, read(l, addr[l])));
+                }
+                break;
+            case ASL_A:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    registerA[l] = asl(l, registerA[l]);
+                }
+                break;
+            case LSR_A:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    registerA[l] = lsr(l, registerA[l]);
+                }
+                break;
+            case ROL_A:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    registerA[l] = rol(l, registerA[l]);
+                }
+                break;
+            case ROR_A:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    registerA[l] = ror(l, registerA[l]);
+                }
+                break;
+
+            // Jumps, subroutines and the stack
+            case JMP:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    programCounter[l] = addr[l];
+                }
+                break;
+            case JSR:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    int returnAddr = next - 1;
+                    push(l, (returnAddr >> 8) & 0xFF);
+                    push(l, returnAddr & 0xFF);
+                    programCounter[l] = addr[l];
+                }
+                break;
+            case RTS:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    int lo = pop(l);
+                    int hi = pop(l);
+                    programCounter[l] = ((hi << 8) | lo) + 1;
+                }
+                break;
+            case RTI:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    status[l] = pop(l) & ~(BREAK | BREAK2);
+                    int lo = pop(l);
+                    int hi = pop(l);
+                    programCounter[l] = (hi << 8) | lo;
+                }
+                break;
+            case PHA:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    push(l, registerA[l]);
+                }
+                break;
+            case PHP:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    push(l, status[l] | BREAK | BREAK2);
+                }
+                break;
+            case PLA:
+                // DemoNES.pla reads before moving the stack pointer
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    registerA[l] = read(l, 0x0100 + (stackPointer[l] & 0xFF));
+                    stackPointer[l] = (stackPointer[l] + 1) & 0xFF;
+                    zeroAndNegative(l, registerA[l]);
+                }
+                break;
+            case PLP:
+                for (int i = 0; i < n; i++) {
+                    int l = group[i];
+                    status[l] = pop(l) & ~(BREAK | BREAK2);
+                }
+                break;
+
+            // Flags
+            case CLC:
+                clearFlag(n, CARRY);
+                break;
+            case SEC:
+                setFlag(n, CARRY);
+                break;
+            case SED:
+                setFlag(n, DECIMAL_MODE);
+                break;
+            case SEI:
+                setFlag(n, INTERRUPT_DISABLE);
+                break;
+            case CLD:
+                clearFlag(n, DECIMAL_MODE);
+                break;
+            case CLI:
+                clearFlag(n, INTERRUPT_DISABLE);
+                break;
+            case CLV:
+                clearFlag(n, OVERFLOW);
+                break;
+
+            // Branches
+            case BCC:
+                branch(n, CARRY, 0, next);
+                break;
+            case BCS:
+                branch(n, CARRY, CARRY, next);
+                break;
+            case BNE:
+                branch(n, ZERO, 0, next);
+                break;
+            case BEQ:
+                branch(n, ZERO, ZERO, next);
+                break;
+            case BPL:
+                branch(n, NEGATIVE, 0, next);
+                break;
+            case BMI:
+                branch(n, NEGATIVE, NEGATIVE, next);
+                break;
+            case BVC:
+                branch(n, OVERFLOW, 0, next);
+                break;
+            case BVS:
+                branch(n, OVERFLOW, OVERFLOW, next);
+                break;
+
+            default:
+                throw new IllegalStateException("Unhandled kind " + KIND_NAMES[kind]);
+        }
+    }
+
+    private void zeroAndNegative(int l, int result) {
+        int p = result == 0 ? status[l] | ZERO : status[l] & 0b1111_1101;
+        status[l] = (result & 0x80) != 0 ? p | NEGATIVE : p & 0b0111_1111;
+    }
+
+    private void compare(int l, int register, int value) {
+        status[l] = register >= value ? status[l] | CARRY : status[l] & ~CARRY;
+        zeroAndNegative(l, (register - value) & 0xFF);
+    }
+
+    private int asl(int l, int value) {
+        status[l] = (value & 0x80) != 0 ? status[l] | CARRY : status[l] & ~CARRY;
+        int result = (value << 1) & 0xFF;
+        zeroAndNegative(l, result);
+        return result;
+    }
+
+    private int lsr(int l, int value) {
+        status[l] = (value & 0x01) != 0 ? status[l] | CARRY : status[l] & ~CARRY;
+        int result = value >> 1;
+        zeroAndNegative(l, result);
+        return result;
+    }
+
+    private int rol(int l, int value) {
+        int result = ((value << 1) & 0xFF) | (status[l] & CARRY);
+        status[l] = (value & 0x80) != 0 ? status[l] | CARRY : status[l] & ~CARRY;
+        zeroAndNegative(l, result);
+        return result;
+    }
+
+    private int ror(int l, int value) {
+        int result = (value >> 1) | ((status[l] & CARRY) << 7);
+        status[l] = (value & 0x01) != 0 ? status[l] | CARRY : status[l] & ~CARRY;
+        zeroAndNegative(l, result);
+        return result;
+    }
+
+    private void push(int l, int value) {
+        write(l, 0x0100 + stackPointer[l], value & 0xFF);
+        stackPointer[l]--;
+    }
+
+    private int pop(int l) {
+        stackPointer[l]++;
+        return read(l, 0x0100 + stackPointer[l]);
+    }
+
+    private void setFlag(int n, int flag) {
+        for (int i = 0; i < n; i++) {
+            status[group[i]] |= flag;
+        }
+    }
+
+    private void clearFlag(int n, int flag) {
+        for (int i = 0; i < n; i++) {
+            status[group[i]] &= ~flag;
+        }
+    }
+
+    private void branch(int n, int flag, int expected, int next) {
+        for (int i = 0; i < n; i++) {
+            int l = group[i];
+            if ((status[l] & flag) == expected) {
+                int target = addr[l];
+                cycles[l] += ((next ^ target) & 0xFF00) != 0 ? 2 : 1;
+                programCounter[l] = target;
+            }
+        }
+    }
+}
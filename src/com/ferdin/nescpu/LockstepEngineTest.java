@@ -0,0 +1,157 @@
+package com.ferdin.nescpu;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LockstepEngineTest {
+
+    private static void assertLaneMatches(DemoNES expected, LockstepEngine engine, int lane) {
+        assertEquals(expected.registerA, engine.registerA[lane], "A, lane " + lane);
+        assertEquals(expected.registerX, engine.registerX[lane], "X, lane " + lane);
+        assertEquals(expected.registerY, engine.registerY[lane], "Y, lane " + lane);
+        assertEquals(expected.stackPointer, engine.stackPointer[lane], "SP, lane " + lane);
+        assertEquals(expected.status, engine.status[lane], "status, lane " + lane);
+        assertEquals(expected.programCounter, engine.programCounter[lane], "PC, lane " + lane);
+        assertEquals(expected.cycles, engine.cycles[lane], "cycles, lane " + lane);
+        for (int addr = 0; addr < Bus.RAM_SIZE; addr++) {
+            assertEquals(expected.memRead(addr), engine.memRead(lane, addr), "RAM " + addr + ", lane " + lane);
+        }
+    }
+
+    @Test
+    void test_snake_lanes_match_single_cpus() {
+        int lanes = 16;
+        LockstepEngine engine = new LockstepEngine(lanes);
+        engine.load(TestGame.gameBytes(), TestGame.GAME_START);
+        engine.reset();
+        DemoNES[] cpus = new DemoNES[lanes];
+        for (int lane = 0; lane < lanes; lane++) {
+            cpus[lane] = new DemoNES();
+            cpus[lane].load(TestGame.gameBytes(), TestGame.GAME_START);
+            cpus[lane].reset();
+        }
+
+        long random = 0x9E3779B97F4A7C15L;
+        for (int step = 0; step < 200; step++) {
+            for (int lane = 0; lane < lanes; lane++) {
+                random ^= random << 13;
+                random ^= random >>> 7;
+                random ^= random << 17;
+                // Half the lanes share inputs so they stay in lockstep
+                byte key = TestGame.KEYS[(lane < lanes / 2 ? step / 7 : lane + step / 5) % TestGame.KEYS.length];
+                byte value = lane < lanes / 2 ? (byte) step : (byte) random;
+                engine.memWrite(lane, 0xFE, value);
+                engine.memWrite(lane, 0xFF, key);
+                cpus[lane].memWrite(0xFE, value);
+                cpus[lane].memWrite(0xFF, key);
+            }
+
+            DemoNES.RunResult[] results = engine.runCycles(500);
+            for (int lane = 0; lane < lanes; lane++) {
+                assertEquals(cpus[lane].runCycles(500), results[lane], "result, lane " + lane);
+                assertLaneMatches(cpus[lane], engine, lane);
+            }
+        }
+        // Shared instructions did most of the work
+        assertTrue(engine.laneSteps > 2 * engine.groupSteps);
+    }
+
+    @Test
+    void test_stack_quirk_and_carry_match() {
+        byte[] program = {
+            (byte)0xA2, 0x00,              // LDX #$00
+            (byte)0x20, 0x10, (byte)0x80,  // loop: JSR sub
+            (byte)0xE8,                    // INX
+            (byte)0xE0, 0x05,              // CPX #$05
+            (byte)0xD0, (byte)0xF8,        // BNE loop
+            (byte)0x00,                    // BRK
+            0, 0, 0, 0, 0,
+            (byte)0x08,                    // sub: PHP
+            (byte)0x38,                    // SEC
+            (byte)0x2A,                    // ROL A
+            (byte)0x69, (byte)0xF0,        // ADC #$F0
+            (byte)0xE9, 0x10,              // SBC #$10
+            (byte)0x48,                    // PHA
+            (byte)0x68,                    // PLA
+            (byte)0x95, 0x20,              // STA $20,X
+            (byte)0x66, 0x20,              // ROR $20
+            (byte)0x28,                    // PLP
+            (byte)0x60                     // RTS
+        };
+        assertBreaksLikeSingleCpus(program, 4);
+    }
+
+    @Test
+    void test_alu_on_ram_columns_matches() {
+        byte[] program = {
+            (byte)0xA2, 0x00,              // LDX #$00
+            (byte)0x85, 0x10,              // loop: STA $10
+            (byte)0x06, 0x10,              // ASL $10
+            (byte)0x2E, 0x10, 0x03,        // ROL $0310
+            (byte)0x45, 0x10,              // EOR $10
+            (byte)0x24, 0x10,              // BIT $10
+            (byte)0x35, 0x10,              // AND $10,X
+            (byte)0x1D, 0x10, 0x03,        // ORA $0310,X
+            (byte)0xE6, 0x11,              // INC $11
+            (byte)0xC5, 0x11,              // CMP $11
+            (byte)0x6D, 0x11, 0x00,        // ADC $0011
+            (byte)0xC6, 0x12,              // DEC $12
+            (byte)0x4A,                    // LSR A
+            (byte)0x76, 0x10,              // ROR $10,X
+            (byte)0xE8,                    // INX
+            (byte)0xE0, 0x08,              // CPX #$08
+            (byte)0xD0, (byte)0xDF,        // BNE loop
+            (byte)0x00                     // BRK
+        };
+        assertBreaksLikeSingleCpus(program, 11);
+    }
+
+    private static void assertBreaksLikeSingleCpus(byte[] program, int lanes) {
+        LockstepEngine engine = new LockstepEngine(lanes);
+        engine.load(program, 0x8000);
+        engine.reset();
+        DemoNES[] cpus = new DemoNES[lanes];
+        for (int lane = 0; lane < lanes; lane++) {
+            cpus[lane] = new DemoNES();
+            cpus[lane].load(program, 0x8000);
+            cpus[lane].reset();
+            // Different A per lane, so lanes differ in flags and memory
+            cpus[lane].registerA = lane * 0x55 & 0xFF;
+            engine.registerA[lane] = lane * 0x55 & 0xFF;
+        }
+
+        DemoNES.RunResult[] results = engine.runCycles(10_000);
+        for (int lane = 0; lane < lanes; lane++) {
+            assertEquals(DemoNES.RunResult.BREAK, results[lane]);
+            assertEquals(DemoNES.RunResult.BREAK, cpus[lane].runCycles(10_000));
+            assertLaneMatches(cpus[lane], engine, lane);
+        }
+    }
+
+    @Test
+    void test_lanes_stop_on_their_own() {
+        byte[] program = {
+            (byte)0xA5, 0x10,              // LDA $10
+            (byte)0xD0, 0x01,              // BNE +1
+            (byte)0x00,                    // BRK
+            (byte)0x02                     // illegal
+        };
+        LockstepEngine engine = new LockstepEngine(2);
+        engine.load(program, 0x8000);
+        engine.reset();
+        engine.memWrite(1, 0x10, (byte) 1);
+
+        DemoNES.RunResult[] results = engine.runCycles(1000);
+        assertEquals(DemoNES.RunResult.BREAK, results[0]);
+        assertEquals(0x8005, engine.programCounter[0]);
+        assertEquals(DemoNES.RunResult.ILLEGAL_OPCODE, results[1]);
+        assertEquals(0x8005, engine.programCounter[1]);
+    }
+
+    @Test
+    void test_writes_outside_ram_throw() {
+        LockstepEngine engine = new LockstepEngine(2);
+        engine.load(new byte[]{(byte)0x8D, 0x00, (byte)0x90}, 0x8000);  // STA $9000
+        engine.reset();
+        assertThrows(IllegalStateException.class, () -> engine.runCycles(100));
+    }
+}
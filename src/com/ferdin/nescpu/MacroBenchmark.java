@@ -0,0 +1,502 @@
+package com.ferdin.nescpu;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public final class MacroBenchmark {
+    // Runs a fixed corpus of programs headless on each engine and reports
+    // MIPS, emulated frames per host second and bytes allocated per frame
+    // as JSON. Given a baseline (an earlier output of this), each result's
+    // MIPS samples are compared with the baseline's by a one-sided Welch t
+    // test, and a drop of more than the tolerance that is also significant
+    // at ALPHA is a regression: the exit code is 1.
+    //
+    // Corpus: the snake game from TestGame with seeded random bytes and
+    // scripted keys, the App / NESCpu examples translated to 6502 and run
+    // in a loop, and any ROMs given with --rom (started from their reset
+    // vector). A program that stops is reset and keeps going.
+    //
+    // Every sample is `frames` frames on a fresh measurement of time,
+    // instructions and allocated bytes; the first `warmup` samples are
+    // thrown away. The defaults are what benchmarks/baseline.json was run
+    // with. 10000 frames keep a JIT sample around 0.3s, long enough that
+    // timer and scheduler noise averages out. 15 warm-up samples let the
+    // JIT compile every hot block, and C2 replace the frame loop below on
+    // the stack, which allocates once after about 100000 frames.
+    //
+    // Usage: MacroBenchmark [--frames N] [--samples N] [--warmup N]
+    //        [--engine interpreter|blocks|jit]... [--rom file.nes]...
+    //        [--baseline baseline.json] [--tolerance 0.05] [--out results.json]
+
+    public static final String[] ENGINES = {"interpreter", "blocks", "jit"};
+    public static final double DEFAULT_TOLERANCE = 0.05;
+    public static final double ALPHA = 0.05;
+
+    // The App and NESCpu examples, one after the other, then JMP back
+    static final int EXAMPLES_START = 0x8000;
+    static final byte[] EXAMPLES = bytes(
+        // App.example1: A = 10 + X(5), TAX
+        0xA9, 0x0A, 0xA2, 0x05, 0x86, 0x00, 0x18, 0x65, 0x00, 0xAA,
+        // example2: store 42 at 100 and load it back
+        0xA9, 0x2A, 0x85, 0x64, 0xA9, 0x00, 0xA5, 0x64,
+        // example3: count X to 5 through A
+        0xA2, 0x00, 0xE8, 0x8A, 0xC9, 0x05, 0xD0, 0xFA,
+        // example3Better: count X to 5 with CPX
+        0xA2, 0x00, 0xE8, 0xE0, 0x05, 0xD0, 0xFB,
+        // example4: A, X, Y, INX, INY
+        0xA9, 0x0A, 0xA2, 0x14, 0xA0, 0x1E, 0xE8, 0xC8,
+        // example5 / example6: ADC with and without carry out
+        0x18, 0xA9, 0xC8, 0x69, 0x64,
+        0x18, 0xA9, 0xC8, 0x69, 0x04,
+        // example7 / exampleSBC2: SBC without and with borrow
+        0x38, 0xA9, 0x32, 0xE9, 0x14,
+        0x38, 0xA9, 0x0A, 0xE9, 0x32,
+        // NESCpu.exampleStack: save A on the stack and restore it
+        0xA9, 0x2A, 0x48, 0xA9, 0x63, 0x68,
+        // JMP $8000
+        0x4C, 0x00, 0x80);
+
+    private static final byte[] SNAKE_KEYS = {0x77, 0x64, 0x73, 0x61};   // w d s a
+
+    // One program of the corpus
+    interface Workload {
+        String name();
+
+        void load(DemoNES cpu) throws IOException;
+
+        // Runs one frame, resets the program if it stops
+        void frame(DemoNES cpu);
+    }
+
+    static final class Program implements Workload {
+        private final String name;
+        private final byte[] code;
+        private final int start;
+
+        Program(String name, byte[] code, int start) {
+            this.name = name;
+            this.code = code;
+            this.start = start;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public void load(DemoNES cpu) {
+            cpu.load(code, start);
+            cpu.reset();
+        }
+
+        @Override
+        public void frame(DemoNES cpu) {
+            if (cpu.runFrame() != DemoNES.RunResult.BUDGET_EXHAUSTED) {
+                cpu.reset();
+            }
+        }
+    }
+
+    static final class Snake implements Workload {
+        @Override
+        public String name() {
+            return "snake";
+        }
+
+        @Override
+        public void load(DemoNES cpu) {
+            cpu.load(TestGame.gameBytes(), TestGame.GAME_START);
+            RandomDevice.attach(cpu, 0xFE, 1);
+            cpu.reset();
+        }
+
+        @Override
+        public void frame(DemoNES cpu) {
+            cpu.memWrite(0xFF, SNAKE_KEYS[(int) (cpu.frameCount >> 3) & 3]);
+            if (cpu.runFrame() != DemoNES.RunResult.BUDGET_EXHAUSTED) {
+                cpu.reset();
+            }
+        }
+    }
+
+    static final class Rom implements Workload {
+        private final Path path;
+
+        Rom(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        public String name() {
+            return path.getFileName().toString();
+        }
+
+        @Override
+        public void load(DemoNES cpu) throws IOException {
+            cpu.loadCartridge(Cartridge.open(path));
+            cpu.reset();
+        }
+
+        @Override
+        public void frame(DemoNES cpu) {
+            if (cpu.runFrame() != DemoNES.RunResult.BUDGET_EXHAUSTED) {
+                cpu.reset();
+            }
+        }
+    }
+
+    // Samples of one workload on one engine
+    public static final class Result {
+        public final String name;               // workload/engine
+        public final double[] mips;
+        public final double[] framesPerSecond;
+        public final double[] bytesPerFrame;
+
+        Result(String name, double[] mips, double[] framesPerSecond, double[] bytesPerFrame) {
+            this.name = name;
+            this.mips = mips;
+            this.framesPerSecond = framesPerSecond;
+            this.bytesPerFrame = bytesPerFrame;
+        }
+    }
+
+    public static final class Comparison {
+        public final double baselineMips;
+        public final double mips;
+        public final double change;             // relative, -0.05 is 5% slower
+        public final double p;                  // one-sided, for "slower than baseline"
+        public final boolean regression;
+
+        Comparison(double baselineMips, double mips, double change, double p, boolean regression) {
+            this.baselineMips = baselineMips;
+            this.mips = mips;
+            this.change = change;
+            this.p = p;
+            this.regression = regression;
+        }
+    }
+
+    private MacroBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int frames = 10000;
+        int samples = 10;
+        int warmup = 15;
+        double tolerance = DEFAULT_TOLERANCE;
+        List<String> engines = new ArrayList<>();
+        List<Workload> corpus = new ArrayList<>();
+        corpus.add(new Snake());
+        corpus.add(new Program("examples", EXAMPLES, EXAMPLES_START));
+        Path baseline = null;
+        Path out = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                }
+                String value = args[++i];
+                switch (arg) {
+                    case "--frames": frames = positive(arg, value); break;
+                    case "--samples": samples = positive(arg, value); break;
+                    case "--warmup": warmup = Math.max(Integer.parseInt(value), 0); break;
+                    case "--engine": engines.add(engine(value)); break;
+                    case "--rom": corpus.add(new Rom(Paths.get(value))); break;
+                    case "--baseline": baseline = Paths.get(value); break;
+                    case "--tolerance": tolerance = Double.parseDouble(value); break;
+                    case "--out": out = Paths.get(value); break;
+                    default: throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: MacroBenchmark [--frames N] [--samples N] [--warmup N] [--engine E]..."
+                + " [--rom file.nes]... [--baseline file.json] [--tolerance 0.05] [--out file.json]");
+            System.exit(2);
+        }
+        if (engines.isEmpty()) {
+            engines.addAll(List.of(ENGINES));
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (Workload workload : corpus) {
+            for (String engine : engines) {
+                Result result = measure(workload, engine, frames, warmup, samples);
+                System.err.printf("%-24s %10.2f MIPS %10.1f frames/s %8.1f B/frame%n",
+                    result.name, mean(result.mips), mean(result.framesPerSecond), mean(result.bytesPerFrame));
+                results.add(result);
+            }
+        }
+
+        Map<String, Comparison> comparisons = new LinkedHashMap<>();
+        boolean regressed = false;
+        if (baseline != null) {
+            Map<String, double[]> base = readBaseline(Files.readString(baseline, StandardCharsets.UTF_8));
+            for (Result result : results) {
+                double[] baseMips = base.get(result.name);
+                if (baseMips == null) {
+                    continue;
+                }
+                Comparison comparison = compare(baseMips, result.mips, tolerance);
+                comparisons.put(result.name, comparison);
+                regressed |= comparison.regression;
+                System.err.printf("%-24s %+7.2f%% p=%.4f%s%n", result.name, comparison.change * 100,
+                    comparison.p, comparison.regression ? "  REGRESSION" : "");
+            }
+        }
+
+        StringBuilder json = new StringBuilder();
+        writeJson(json, frames, results, comparisons);
+        if (out != null) {
+            Files.writeString(out, json, StandardCharsets.UTF_8);
+        } else {
+            System.out.print(json);
+        }
+        if (regressed) {
+            System.exit(1);
+        }
+    }
+
+    private static int positive(String option, String value) {
+        int n = Integer.parseInt(value);
+        if (n <= 0) {
+            throw new IllegalArgumentException(option + " must be positive: " + value);
+        }
+        return n;
+    }
+
+    private static String engine(String name) {
+        for (String engine : ENGINES) {
+            if (engine.equals(name)) {
+                return engine;
+            }
+        }
+        throw new IllegalArgumentException("Unknown engine: " + name);
+    }
+
+    static DemoNES newCpu(String engine) {
+        DemoNES cpu = new DemoNES();
+        switch (engine) {
+            case "interpreter":
+                break;
+            case "blocks":
+                cpu.enableBlockCache();
+                break;
+            case "jit":
+                cpu.enableJit();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+        return cpu;
+    }
+
+    static Result measure(Workload workload, String engine, int frames, int warmup, int samples) throws IOException {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        DemoNES cpu = newCpu(engine);
+        workload.load(cpu);
+
+        double[] mips = new double[samples];
+        double[] framesPerSecond = new double[samples];
+        double[] bytesPerFrame = new double[samples];
+        for (int sample = -warmup; sample < samples; sample++) {
+            long instructions = cpu.instructions;
+            long allocated = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            for (int frame = 0; frame < frames; frame++) {
+                workload.frame(cpu);
+            }
+            long nanos = Math.max(System.nanoTime() - start, 1);
+            long bytes = threads.getCurrentThreadAllocatedBytes() - allocated;
+            if (sample >= 0) {
+                mips[sample] = (cpu.instructions - instructions) * 1e3 / nanos;
+                framesPerSecond[sample] = frames * 1e9 / nanos;
+                bytesPerFrame[sample] = (double) bytes / frames;
+            }
+        }
+        return new Result(workload.name() + "/" + engine, mips, framesPerSecond, bytesPerFrame);
+    }
+
+    static Comparison compare(double[] baseline, double[] current, double tolerance) {
+        double baseMean = mean(baseline);
+        double mean = mean(current);
+        double change = (mean - baseMean) / baseMean;
+        double p = welchP(baseline, current);
+        return new Comparison(baseMean, mean, change, p, change <= -tolerance && p < ALPHA);
+    }
+
+    // One-sided Welch t test, p-value for "current's mean is lower"
+    static double welchP(double[] baseline, double[] current) {
+        double vb = variance(baseline) / baseline.length;
+        double vc = variance(current) / current.length;
+        double diff = mean(baseline) - mean(current);
+        if (vb + vc == 0) {
+            return diff > 0 ? 0 : 1;
+        }
+        double t = diff / Math.sqrt(vb + vc);
+        double df = (vb + vc) * (vb + vc)
+            / (vb * vb / (baseline.length - 1) + vc * vc / (current.length - 1));
+        // P(T > t) for Student's t with df degrees of freedom
+        double tail = 0.5 * incompleteBeta(df / (df + t * t), df / 2, 0.5);
+        return t > 0 ? tail : 1 - tail;
+    }
+
+    static double mean(double[] values) {
+        double sum = 0;
+        for (double v : values) {
+            sum += v;
+        }
+        return sum / values.length;
+    }
+
+    static double variance(double[] values) {
+        if (values.length < 2) {
+            return 0;
+        }
+        double mean = mean(values);
+        double sum = 0;
+        for (double v : values) {
+            sum += (v - mean) * (v - mean);
+        }
+        return sum / (values.length - 1);
+    }
+
+    // Regularized incomplete beta I_x(a, b), by its continued fraction
+    // (Numerical Recipes' betacf, modified Lentz)
+    static double incompleteBeta(double x, double a, double b) {
+        if (x <= 0) {
+            return 0;
+        }
+        if (x >= 1) {
+            return 1;
+        }
+        double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b)
+            + a * Math.log(x) + b * Math.log(1 - x));
+        // The fraction converges fast only on one side of the mean
+        if (x > (a + 1) / (a + b + 2)) {
+            return 1 - front * betaFraction(1 - x, b, a) / b;
+        }
+        return front * betaFraction(x, a, b) / a;
+    }
+
+    private static double betaFraction(double x, double a, double b) {
+        final double tiny = 1e-300;
+        double c = 1;
+        double d = 1 - (a + b) * x / (a + 1);
+        d = 1 / (Math.abs(d) < tiny ? tiny : d);
+        double h = d;
+        for (int m = 1; m <= 300; m++) {
+            int m2 = 2 * m;
+            double aa = m * (b - m) * x / ((a + m2 - 1) * (a + m2));
+            d = 1 + aa * d;
+            d = 1 / (Math.abs(d) < tiny ? tiny : d);
+            c = 1 + aa / c;
+            c = Math.abs(c) < tiny ? tiny : c;
+            h *= d * c;
+            aa = -(a + m) * (a + b + m) * x / ((a + m2) * (a + m2 + 1));
+            d = 1 + aa * d;
+            d = 1 / (Math.abs(d) < tiny ? tiny : d);
+            c = 1 + aa / c;
+            c = Math.abs(c) < tiny ? tiny : c;
+            double step = d * c;
+            h *= step;
+            if (Math.abs(step - 1) < 1e-12) {
+                break;
+            }
+        }
+        return h;
+    }
+
+    // Lanczos approximation, good to ~15 digits for x > 0
+    static double logGamma(double x) {
+        double[] g = {57.1562356658629235, -59.5979603554754912, 14.1360979747417471,
+            -0.491913816097620199, 0.339946499848118887e-4, 0.465236289270485756e-4,
+            -0.983744753048795646e-4, 0.158088703224912494e-3, -0.210264441724104883e-3,
+            0.217439618115212643e-3, -0.164318106536763890e-3, 0.844182239838527433e-4,
+            -0.261908384015814087e-4, 0.368991826595316234e-5};
+        double y = x;
+        double tmp = x + 5.24218750000000000;
+        tmp = (x + 0.5) * Math.log(tmp) - tmp;
+        double series = 0.999999999999997092;
+        for (double coefficient : g) {
+            series += coefficient / ++y;
+        }
+        return tmp + Math.log(2.5066282746310005 * series / x);
+    }
+
+    // {"frames":10000,"results":[
+    //   {"name":"snake/jit","mips":123.45,"framesPerSecond":..., "bytesPerFrame":0.0,
+    //    "mipsSamples":[...], "baselineMips":..., "change":..., "p":..., "regression":false},
+    // ...]}
+    static void writeJson(StringBuilder out, int frames, List<Result> results, Map<String, Comparison> comparisons) {
+        out.append("{\"frames\":").append(frames).append(",\"results\":[\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            out.append("  {\"name\":\"").append(result.name).append('"');
+            out.append(",\"mips\":").append(round(mean(result.mips)));
+            out.append(",\"framesPerSecond\":").append(round(mean(result.framesPerSecond)));
+            out.append(",\"bytesPerFrame\":").append(round(mean(result.bytesPerFrame)));
+            out.append(",\"mipsSamples\":[");
+            for (int s = 0; s < result.mips.length; s++) {
+                out.append(s == 0 ? "" : ",").append(round(result.mips[s]));
+            }
+            out.append(']');
+            Comparison comparison = comparisons.get(result.name);
+            if (comparison != null) {
+                out.append(",\"baselineMips\":").append(round(comparison.baselineMips));
+                out.append(",\"change\":").append(round(comparison.change));
+                out.append(",\"p\":").append(round(comparison.p));
+                out.append(",\"regression\":").append(comparison.regression);
+            }
+            out.append(i + 1 < results.size() ? "},\n" : "}\n");
+        }
+        out.append("]}\n");
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10000) / 10000.0;
+    }
+
+    private static final Pattern RESULT = Pattern.compile(
+        "\"name\"\\s*:\\s*\"([^\"]+)\"[^}]*?\"mipsSamples\"\\s*:\\s*\\[([^\\]]*)\\]");
+
+    // MIPS samples by result name from a file writeJson wrote
+    static Map<String, double[]> readBaseline(String json) {
+        Map<String, double[]> samples = new LinkedHashMap<>();
+        Matcher matcher = RESULT.matcher(json);
+        while (matcher.find()) {
+            String[] values = matcher.group(2).split(",");
+            double[] mips = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                mips[i] = Double.parseDouble(values[i].trim());
+            }
+            samples.put(matcher.group(1), mips);
+        }
+        if (samples.isEmpty()) {
+            throw new IllegalArgumentException("No results in baseline");
+        }
+        return samples;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,61 @@
+package com.ferdin.nescpu;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+
+public class MacroBenchmarkTest {
+
+    @Test
+    void test_examples_program_runs_forever() {
+        for (String engine : MacroBenchmark.ENGINES) {
+            DemoNES cpu = MacroBenchmark.newCpu(engine);
+            cpu.load(MacroBenchmark.EXAMPLES, MacroBenchmark.EXAMPLES_START);
+            cpu.reset();
+            assertEquals(DemoNES.RunResult.BUDGET_EXHAUSTED, cpu.runFrames(5), engine);
+            assertEquals(0xFD, cpu.stackPointer & 0xFF, engine);
+        }
+    }
+
+    @Test
+    void test_t_distribution() {
+        // I_0.5(2, 3) = 11/16
+        assertEquals(0.6875, MacroBenchmark.incompleteBeta(0.5, 2, 3), 1e-12);
+        // Means 12 vs 10, variances 2.5: t = 2 with 8 degrees of freedom
+        double p = MacroBenchmark.welchP(new double[]{10, 11, 12, 13, 14}, new double[]{8, 9, 10, 11, 12});
+        assertEquals(0.0403, p, 1e-4);
+        assertEquals(1 - p, MacroBenchmark.welchP(new double[]{8, 9, 10, 11, 12}, new double[]{10, 11, 12, 13, 14}), 1e-12);
+    }
+
+    @Test
+    void test_only_significant_drops_past_the_tolerance_regress() {
+        double[] baseline = {100, 101, 99, 100, 100, 101, 99, 100};
+        double[] slower = {94, 95, 93, 94, 94, 95, 93, 94};
+        double[] slightlySlower = {98, 99, 97, 98, 98, 99, 97, 98};
+        double[] noisy = {60, 140, 70, 130, 90, 110, 80, 80};
+
+        assertTrue(MacroBenchmark.compare(baseline, slower, 0.05).regression);
+        assertFalse(MacroBenchmark.compare(baseline, slightlySlower, 0.05).regression);
+        assertFalse(MacroBenchmark.compare(baseline, noisy, 0.05).regression);
+        assertFalse(MacroBenchmark.compare(slower, baseline, 0.05).regression);
+        assertEquals(-0.06, MacroBenchmark.compare(baseline, slower, 0.05).change, 1e-9);
+    }
+
+    @Test
+    void test_json_round_trips_as_baseline() throws Exception {
+        MacroBenchmark.Result result = MacroBenchmark.measure(
+            new MacroBenchmark.Program("examples", MacroBenchmark.EXAMPLES, MacroBenchmark.EXAMPLES_START),
+            "blocks", 2, 1, 3);
+        assertEquals("examples/blocks", result.name);
+        for (double mips : result.mips) {
+            assertTrue(mips > 0);
+        }
+
+        StringBuilder json = new StringBuilder();
+        MacroBenchmark.writeJson(json, 2, List.of(result), Map.of());
+        Map<String, double[]> baseline = MacroBenchmark.readBaseline(json.toString());
+        assertEquals(1, baseline.size());
+        assertArrayEquals(result.mips, baseline.get("examples/blocks"), 1e-3);
+    }
+}
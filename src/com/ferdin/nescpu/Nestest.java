@@ -0,0 +1,299 @@
+package com.ferdin.nescpu;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public final class Nestest {
+    // Runs nestest.nes in automation mode (start at 0xC000, no PPU needed)
+    // and checks every instruction against the golden nestest.log while it
+    // runs. The log is memory-mapped and parsed a line at a time straight
+    // from the mapping, no line is turned into a String unless it's shown
+    // in a report. PC, A, X, Y, P, SP and CYC are compared; disassembly and
+    // PPU columns are ignored. P is compared with bit 5 (BREAK2) masked:
+    // it always reads 1 on a 6502 and in the log, but DemoNES's PLP and RTI
+    // clear it in status.
+    //
+    // The first divergence stops the run and is reported with the last
+    // CONTEXT_LINES lines of the log next to our own trace of them.
+    //
+    // DemoNES only has the official opcodes. From the first unofficial one
+    // on (marked with '*' in the log, around line 5000) nestest tests
+    // those, so the official mode ends the run there, as a pass.
+    //
+    // Usage: Nestest [--official] <nestest.nes> <nestest.log>
+
+    public static final int START = 0xC000;
+    public static final int START_STATUS = 0x24;
+    public static final int CONTEXT_LINES = 8;
+
+    public static final class Result {
+        public final int linesMatched;
+        public final boolean passed;            // the whole log matched, or up to the first unofficial opcode
+        public final DemoNES.RunResult stopped; // why the CPU stopped, if it did
+        public final String report;             // null when passed
+
+        Result(int linesMatched, boolean passed, DemoNES.RunResult stopped, String report) {
+            this.linesMatched = linesMatched;
+            this.passed = passed;
+            this.stopped = stopped;
+            this.report = report;
+        }
+    }
+
+    // Register columns of one log line, parsed in place
+    static final class LogReader {
+        private final MappedByteBuffer log;
+        private int position;
+        int lineStart;
+        int lineEnd;
+
+        int pc;
+        int a;
+        int x;
+        int y;
+        int p;
+        int sp;
+        long cycles;
+        boolean unofficial;                     // '*' before the mnemonic
+
+        LogReader(MappedByteBuffer log) {
+            this.log = log;
+        }
+
+        static LogReader open(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return new LogReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        // Moves to the next non-empty line, false at the end of the log
+        boolean next() {
+            int limit = log.limit();
+            while (position < limit && isLineBreak(log.get(position))) {
+                position++;
+            }
+            if (position >= limit) {
+                return false;
+            }
+            lineStart = position;
+            while (position < limit && !isLineBreak(log.get(position))) {
+                position++;
+            }
+            lineEnd = position;
+
+            pc = hex(lineStart, 4);
+            unofficial = lineStart + 15 < lineEnd && log.get(lineStart + 15) == '*';
+            int registers = find(" A:", lineStart + 4);
+            a = hex(registers + 3, 2);
+            x = hex(expect(registers + 5, " X:") + 3, 2);
+            y = hex(expect(registers + 10, " Y:") + 3, 2);
+            p = hex(expect(registers + 15, " P:") + 3, 2);
+            sp = hex(expect(registers + 20, " SP:") + 4, 2);
+            int cyc = find(" CYC:", registers + 26);
+            cycles = 0;
+            for (int i = cyc + 5; i < lineEnd && log.get(i) >= '0' && log.get(i) <= '9'; i++) {
+                cycles = cycles * 10 + (log.get(i) - '0');
+            }
+            return true;
+        }
+
+        String line() {
+            byte[] bytes = new byte[lineEnd - lineStart];
+            log.get(lineStart, bytes);
+            return new String(bytes, StandardCharsets.US_ASCII);
+        }
+
+        // The line `back` lines before the current one
+        String lineBefore(int back) {
+            int start = lineStart;
+            for (int i = 0; i < back; i++) {
+                int end = start - 1;
+                while (end >= 0 && isLineBreak(log.get(end))) {
+                    end--;
+                }
+                if (end < 0) {
+                    return null;
+                }
+                start = end;
+                while (start > 0 && !isLineBreak(log.get(start - 1))) {
+                    start--;
+                }
+            }
+            int end = start;
+            while (end < log.limit() && !isLineBreak(log.get(end))) {
+                end++;
+            }
+            byte[] bytes = new byte[end - start];
+            log.get(start, bytes);
+            return new String(bytes, StandardCharsets.US_ASCII);
+        }
+
+        private int find(String token, int from) {
+            for (int i = from; i + token.length() <= lineEnd; i++) {
+                if (matches(i, token)) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("No '" + token.trim() + "' column in log line: " + line());
+        }
+
+        private int expect(int at, String token) {
+            if (at + token.length() > lineEnd || !matches(at, token)) {
+                throw new IllegalArgumentException("Expected '" + token.trim() + "' in log line: " + line());
+            }
+            return at;
+        }
+
+        private boolean matches(int at, String token) {
+            for (int j = 0; j < token.length(); j++) {
+                if (log.get(at + j) != token.charAt(j)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int hex(int at, int digits) {
+            int value = 0;
+            for (int i = at; i < at + digits; i++) {
+                int digit = Character.digit(log.get(i), 16);
+                if (digit < 0) {
+                    throw new IllegalArgumentException("Bad hex digit in log line: " + line());
+                }
+                value = (value << 4) | digit;
+            }
+            return value;
+        }
+
+        private static boolean isLineBreak(byte b) {
+            return b == '\n' || b == '\r';
+        }
+    }
+
+    private Nestest() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean officialOnly = args.length == 3 && args[0].equals("--official");
+        if (args.length != (officialOnly ? 3 : 2)) {
+            System.err.println("Usage: Nestest [--official] <nestest.nes> <nestest.log>");
+            System.exit(2);
+        }
+        int first = officialOnly ? 1 : 0;
+        DemoNES cpu = new DemoNES();
+        cpu.loadCartridge(Cartridge.open(Paths.get(args[first])));
+        Result result = run(cpu, Paths.get(args[first + 1]), officialOnly);
+        if (result.passed) {
+            System.out.println("nestest: all " + result.linesMatched + " lines match"
+                + (officialOnly ? " up to the first unofficial opcode" : ""));
+        } else {
+            System.out.println(result.report);
+            System.exit(1);
+        }
+    }
+
+    // cpu must have nestest.nes inserted
+    public static Result run(DemoNES cpu, Path log) throws IOException {
+        return run(cpu, log, false);
+    }
+
+    // officialOnly ends the run at the first unofficial opcode in the log
+    public static Result run(DemoNES cpu, Path log, boolean officialOnly) throws IOException {
+        cpu.reset();
+        cpu.programCounter = START;
+        cpu.status = START_STATUS;
+        return compare(cpu, LogReader.open(log), officialOnly);
+    }
+
+    static Result compare(DemoNES cpu, LogReader log) {
+        return compare(cpu, log, false);
+    }
+
+    // Steps cpu one instruction at a time from its current state, checking
+    // it against each log line before the instruction runs
+    static Result compare(DemoNES cpu, LogReader log, boolean officialOnly) {
+        Trace trace = new Trace(CONTEXT_LINES);
+        Trace previous = cpu.getTrace();
+        cpu.setTrace(trace);
+        try {
+            int matched = 0;
+            while (log.next()) {
+                if (officialOnly && log.unofficial) {
+                    return new Result(matched, true, null, null);
+                }
+                if (!matches(cpu, log)) {
+                    return new Result(matched, false, null, report(cpu, log, trace, matched));
+                }
+                matched++;
+                DemoNES.RunResult result = cpu.runCycles(1);
+                if (result != DemoNES.RunResult.BUDGET_EXHAUSTED) {
+                    boolean more = log.next();
+                    if (!more || officialOnly && log.unofficial) {
+                        return new Result(matched, true, result, null);
+                    }
+                    return new Result(matched, false, result, report(cpu, log, trace, matched)
+                        + "\nCPU stopped: " + result);
+                }
+            }
+            return new Result(matched, true, null, null);
+        } finally {
+            cpu.setTrace(previous);
+        }
+    }
+
+    private static boolean matches(DemoNES cpu, LogReader log) {
+        return (cpu.programCounter & 0xFFFF) == log.pc
+            && cpu.registerA == log.a
+            && cpu.registerX == log.x
+            && cpu.registerY == log.y
+            && (cpu.status | DemoNES.BREAK2) == (log.p | DemoNES.BREAK2)
+            && (cpu.stackPointer & 0xFF) == log.sp
+            && cpu.cycles == log.cycles;
+    }
+
+    private static String report(DemoNES cpu, LogReader log, Trace trace, int matched) {
+        StringBuilder out = new StringBuilder();
+        out.append("nestest: diverged at log line ").append(matched + 1).append('\n');
+        out.append("expected (nestest.log):\n");
+        int context = Math.min(trace.size(), matched);
+        for (int back = context; back > 0; back--) {
+            out.append("    ").append(log.lineBefore(back)).append('\n');
+        }
+        out.append("  > ").append(log.line()).append('\n');
+
+        out.append("actual (DemoNES):\n");
+        for (int i = trace.size() - context; i < trace.size(); i++) {
+            out.append("    ");
+            trace.format(out, i);
+            out.append('\n');
+        }
+        out.append("  > ");
+        formatState(out, cpu);
+        return out.toString();
+    }
+
+    // The CPU's current state in log format, registers only
+    private static void formatState(StringBuilder out, DemoNES cpu) {
+        int start = out.length();
+        Disassembler.hex(out, cpu.programCounter & 0xFFFF, 4);
+        while (out.length() < start + 48) {
+            out.append(' ');
+        }
+        out.append("A:");
+        Disassembler.hex(out, cpu.registerA, 2);
+        out.append(" X:");
+        Disassembler.hex(out, cpu.registerX, 2);
+        out.append(" Y:");
+        Disassembler.hex(out, cpu.registerY, 2);
+        out.append(" P:");
+        Disassembler.hex(out, cpu.status, 2);
+        out.append(" SP:");
+        Disassembler.hex(out, cpu.stackPointer & 0xFF, 2);
+        out.append(" CYC:").append(cpu.cycles);
+    }
+}
@@ -0,0 +1,131 @@
+package com.ferdin.nescpu;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class NestestTest {
+
+    private static final byte[] PROGRAM = {
+        (byte)0xA2, 0x03,              // LDX #$03
+        (byte)0xCA,                    // loop: DEX
+        (byte)0x8E, 0x00, 0x02,        // STX $0200
+        (byte)0xD0, (byte)0xFA,        // BNE loop
+        (byte)0x00                     // BRK
+    };
+
+    private static DemoNES programCpu() {
+        DemoNES cpu = new DemoNES();
+        cpu.load(PROGRAM, 0x8000);
+        cpu.reset();
+        return cpu;
+    }
+
+    // A golden log of PROGRAM, from our own trace export
+    private static Path writeLog(Path dir) throws IOException {
+        DemoNES cpu = programCpu();
+        Trace trace = new Trace(64);
+        cpu.setTrace(trace);
+        cpu.runCycles(1000);
+        StringBuilder log = new StringBuilder();
+        trace.export(log);
+        Path file = dir.resolve("golden.log");
+        Files.writeString(file, log.toString().replace("\n", "\r\n"));
+        return file;
+    }
+
+    @Test
+    void test_matching_log_passes(@TempDir Path dir) throws IOException {
+        Nestest.Result result = Nestest.compare(programCpu(), Nestest.LogReader.open(writeLog(dir)));
+        assertTrue(result.passed, result.report);
+        assertEquals(11, result.linesMatched);
+        assertEquals(DemoNES.RunResult.BREAK, result.stopped);
+    }
+
+    @Test
+    void test_first_divergence_is_reported(@TempDir Path dir) throws IOException {
+        Path log = writeLog(dir);
+        // Line 6 (the second STX) claims X:07
+        String[] lines = Files.readString(log).split("\r\n");
+        lines[5] = lines[5].replace("X:01", "X:07");
+        Files.writeString(log, String.join("\n", lines));
+
+        Nestest.Result result = Nestest.compare(programCpu(), Nestest.LogReader.open(log));
+        assertFalse(result.passed);
+        assertEquals(5, result.linesMatched);
+        assertTrue(result.report.contains("diverged at log line 6"), result.report);
+        assertTrue(result.report.contains("  > 8003  8E 00 02  STX $0200"), result.report);
+        assertTrue(result.report.contains("X:07"), result.report);
+    }
+
+    @Test
+    void test_official_mode_ends_at_first_unofficial_opcode(@TempDir Path dir) throws IOException {
+        Path log = writeLog(dir);
+        // Line 6 (the second STX) marked unofficial, like nestest's *NOP
+        String[] lines = Files.readString(log).split("\r\n");
+        lines[5] = lines[5].substring(0, 15) + "*" + lines[5].substring(16);
+        Files.writeString(log, String.join("\n", lines));
+
+        Nestest.Result result = Nestest.compare(programCpu(), Nestest.LogReader.open(log), true);
+        assertTrue(result.passed, result.report);
+        assertEquals(5, result.linesMatched);
+        assertNull(result.stopped);
+
+        result = Nestest.compare(programCpu(), Nestest.LogReader.open(log), false);
+        assertTrue(result.passed, result.report);
+        assertEquals(11, result.linesMatched);
+    }
+
+    @Test
+    void test_break2_is_not_compared(@TempDir Path dir) throws IOException {
+        Path log = writeLog(dir);
+        // nestest shows bit 5 of P always set, DemoNES keeps it clear
+        Matcher p = Pattern.compile("P:([0-9A-F]{2})").matcher(Files.readString(log));
+        StringBuilder withBreak2 = new StringBuilder();
+        while (p.find()) {
+            p.appendReplacement(withBreak2, String.format("P:%02X", Integer.parseInt(p.group(1), 16) | 0x20));
+        }
+        p.appendTail(withBreak2);
+        assertTrue(withBreak2.indexOf("P:2") >= 0);
+        Files.writeString(log, withBreak2);
+
+        Nestest.Result result = Nestest.compare(programCpu(), Nestest.LogReader.open(log));
+        assertTrue(result.passed, result.report);
+        assertEquals(11, result.linesMatched);
+    }
+
+    // The real ROM and log aren't in the repository, point -Dnestest.dir at
+    // a directory holding nestest.nes and nestest.log to run this. DemoNES
+    // has no unofficial opcodes, so it must match every line before the
+    // first one.
+    @Test
+    void test_nestest_golden_log() throws IOException {
+        String dir = System.getProperty("nestest.dir");
+        Assumptions.assumeTrue(dir != null, "nestest.dir not set");
+        Path rom = Paths.get(dir, "nestest.nes");
+        Path log = Paths.get(dir, "nestest.log");
+        Assumptions.assumeTrue(Files.exists(rom) && Files.exists(log), "nestest files not found");
+
+        int official = 0;
+        for (String line : Files.readAllLines(log)) {
+            if (line.length() > 15 && line.charAt(15) == '*') {
+                break;
+            }
+            official += line.isEmpty() ? 0 : 1;
+        }
+        assertTrue(official > 0 && official < Files.readAllLines(log).size(), "no unofficial opcode in the log");
+
+        DemoNES cpu = new DemoNES();
+        cpu.loadCartridge(Cartridge.open(rom));
+        Nestest.Result result = Nestest.run(cpu, log, true);
+        assertTrue(result.passed, result.report);
+        assertEquals(official, result.linesMatched);
+    }
+}
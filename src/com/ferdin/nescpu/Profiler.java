@@ -0,0 +1,221 @@
+package com.ferdin.nescpu;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public final class Profiler {
+    // Where guest time goes: instruction and cycle counts per PC, an opcode
+    // histogram and a call tree built from JSR / RTS. Everything is in
+    // primitive arrays, counting an instruction boxes nothing and looks
+    // nothing up in a map.
+    //
+    // DemoNES.setProfiler() switches runCycles to interpretProfiled(), a
+    // copy of the interpreter loop with the counting in it, so the normal
+    // loops don't pay for it.
+    //
+    // The call tree is what the collapsed stacks come from: node 0 is the
+    // root (code running outside any JSR seen), each JSR moves to the
+    // child for its target, RTS / RTI move back up. Children are found
+    // through an open addressing table keyed by (parent, target).
+
+    public final long[] pcCounts = new long[0x10000];
+    public final long[] pcCycles = new long[0x10000];
+    public final long[] opcodeCounts = new long[256];
+
+    private final DemoNES cpu;
+
+    // Call tree
+    private int[] nodeTarget = new int[64];
+    private int[] nodeParent = new int[64];
+    private long[] nodeCycles = new long[64];     // self cycles
+    private int nodeCount = 1;
+    private int[] children = new int[128];        // node + 1, 0 = empty slot
+    private int current;
+
+    public Profiler(DemoNES cpu) {
+        this.cpu = cpu;
+        nodeParent[0] = -1;
+    }
+
+    // Called by the interpreter loops after each instruction
+    void executed(int pc, int opcode, int cycles) {
+        pcCounts[pc]++;
+        pcCycles[pc] += cycles;
+        opcodeCounts[opcode]++;
+        nodeCycles[current] += cycles;
+
+        if (opcode == 0x20) {           // JSR
+            current = child(current, cpu.programCounter & 0xFFFF);
+        } else if (opcode == 0x60 || opcode == 0x40) {  // RTS, RTI
+            if (current != 0) {
+                current = nodeParent[current];
+            }
+        }
+    }
+
+    public long instructions() {
+        long total = 0;
+        for (long count : opcodeCounts) {
+            total += count;
+        }
+        return total;
+    }
+
+    public void clear() {
+        Arrays.fill(pcCounts, 0);
+        Arrays.fill(pcCycles, 0);
+        Arrays.fill(opcodeCounts, 0);
+        Arrays.fill(children, 0);
+        Arrays.fill(nodeCycles, 0);
+        nodeCount = 1;
+        current = 0;
+    }
+
+    private int child(int parent, int target) {
+        int mask = children.length - 1;
+        int slot = hash(parent, target) & mask;
+        while (children[slot] != 0) {
+            int node = children[slot] - 1;
+            if (nodeParent[node] == parent && nodeTarget[node] == target) {
+                return node;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (nodeCount == nodeTarget.length) {
+            nodeTarget = Arrays.copyOf(nodeTarget, nodeCount * 2);
+            nodeParent = Arrays.copyOf(nodeParent, nodeCount * 2);
+            nodeCycles = Arrays.copyOf(nodeCycles, nodeCount * 2);
+        }
+        int node = nodeCount++;
+        nodeTarget[node] = target;
+        nodeParent[node] = parent;
+        nodeCycles[node] = 0;
+        children[slot] = node + 1;
+        if (nodeCount * 2 > children.length) {
+            rehash();
+        }
+        return node;
+    }
+
+    private void rehash() {
+        children = new int[children.length * 2];
+        int mask = children.length - 1;
+        for (int node = 1; node < nodeCount; node++) {
+            int slot = hash(nodeParent[node], nodeTarget[node]) & mask;
+            while (children[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            children[slot] = node + 1;
+        }
+    }
+
+    private static int hash(int parent, int target) {
+        return (parent * 0x9E3779B1) ^ (target * 0x85EBCA6B);
+    }
+
+    // The `top` PCs by cycles spent, with their disassembly:
+    //   C72A  LDA $10                  instructions  cycles  % of cycles
+    public void writeHotSpots(Appendable out, int top) throws IOException {
+        long total = 0;
+        for (long c : pcCycles) {
+            total += c;
+        }
+        StringBuilder line = new StringBuilder(80);
+        for (int pc : top(pcCycles, top)) {
+            line.setLength(0);
+            appendInstruction(line, cpu, pc);
+            line.append(String.format("%12d %14d %6.2f%%", pcCounts[pc], pcCycles[pc],
+                total == 0 ? 0.0 : 100.0 * pcCycles[pc] / total));
+            out.append(line).append('\n');
+        }
+    }
+
+    // Indexes of the `top` largest non-zero values, largest first
+    static int[] top(long[] values, int top) {
+        int[] best = new int[top];
+        int found = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == 0) {
+                continue;
+            }
+            int at;
+            if (found < top) {
+                at = found++;
+            } else if (values[i] > values[best[top - 1]]) {
+                at = top - 1;
+            } else {
+                continue;
+            }
+            while (at > 0 && values[best[at - 1]] < values[i]) {
+                best[at] = best[at - 1];
+                at--;
+            }
+            best[at] = i;
+        }
+        return Arrays.copyOf(best, found);
+    }
+
+    // "C72A  LDA $10" padded to 24 columns, from the current memory
+    static void appendInstruction(StringBuilder line, DemoNES cpu, int pc) {
+        int start = line.length();
+        int opcode = cpu.memRead(pc);
+        int bytes = Instructions.TABLE[opcode].bytes;
+        int operand = bytes == 2 ? cpu.memRead(pc + 1)
+            : bytes == 3 ? cpu.memRead(pc + 1) | (cpu.memRead(pc + 2) << 8) : 0;
+        Disassembler.hex(line, pc, 4);
+        line.append("  ");
+        Disassembler.append(line, pc, opcode, operand);
+        while (line.length() < start + 24) {
+            line.append(' ');
+        }
+    }
+
+    // Executed count per opcode, most frequent first, zero counts left out
+    public void writeOpcodeHistogram(Appendable out) throws IOException {
+        boolean[] written = new boolean[256];
+        for (int n = 0; n < 256; n++) {
+            int max = -1;
+            for (int opcode = 0; opcode < 256; opcode++) {
+                if (!written[opcode] && opcodeCounts[opcode] > 0
+                        && (max < 0 || opcodeCounts[opcode] > opcodeCounts[max])) {
+                    max = opcode;
+                }
+            }
+            if (max < 0) {
+                return;
+            }
+            written[max] = true;
+            out.append(Instructions.TABLE[max].toString()).append(' ')
+                .append(Long.toString(opcodeCounts[max])).append('\n');
+        }
+    }
+
+    // One line per call stack with its self cycles, the input format of
+    // flamegraph.pl and speedscope: main;sub_0606;sub_062A 1234
+    public void writeCollapsedStacks(Appendable out) throws IOException {
+        StringBuilder line = new StringBuilder(128);
+        int[] path = new int[64];
+        for (int node = 0; node < nodeCount; node++) {
+            if (nodeCycles[node] == 0) {
+                continue;
+            }
+            int depth = 0;
+            for (int n = node; n > 0; n = nodeParent[n]) {
+                if (depth == path.length) {
+                    path = Arrays.copyOf(path, depth * 2);
+                }
+                path[depth++] = nodeTarget[n];
+            }
+
+            line.setLength(0);
+            line.append("main");
+            for (int i = depth - 1; i >= 0; i--) {
+                line.append(";sub_");
+                Disassembler.hex(line, path[i], 4);
+            }
+            line.append(' ').append(nodeCycles[node]);
+            out.append(line).append('\n');
+        }
+    }
+}
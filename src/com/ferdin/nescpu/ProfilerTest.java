@@ -0,0 +1,99 @@
+package com.ferdin.nescpu;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProfilerTest {
+
+    @Test
+    void test_counts_add_up_and_match_plain_run() {
+        DemoNES plain = TestGame.snake(0x35, 0x64);
+        DemoNES profiled = TestGame.snake(0x35, 0x64);
+        Profiler profiler = new Profiler(profiled);
+        profiled.setProfiler(profiler);
+
+        assertEquals(plain.runCycles(100_000), profiled.runCycles(100_000));
+        assertEquals(plain.cycles, profiled.cycles);
+        assertEquals(plain.programCounter, profiled.programCounter);
+
+        long cycles = 0;
+        long instructions = 0;
+        for (int pc = 0; pc < 0x10000; pc++) {
+            cycles += profiler.pcCycles[pc];
+            instructions += profiler.pcCounts[pc];
+        }
+        assertEquals(profiled.cycles - 7, cycles);
+        assertEquals(profiler.instructions(), instructions);
+        assertEquals(1, profiler.pcCounts[0x0600]);                 // JSR init
+        long jsrs = 0;
+        for (int pc = 0; pc < 0x10000; pc++) {
+            if (profiled.memRead(pc) == 0x20) {
+                jsrs += profiler.pcCounts[pc];
+            }
+        }
+        assertEquals(profiler.opcodeCounts[0x20], jsrs);
+
+        // Off again: nothing more is counted
+        profiled.setProfiler(null);
+        profiled.runCycles(10_000);
+        assertEquals(instructions, profiler.instructions());
+    }
+
+    @Test
+    void test_breakpoint_redirect_is_counted_where_it_lands() {
+        DemoNES cpu = new DemoNES();
+        cpu.load(new byte[]{
+            (byte)0xE8,                    // INX
+            (byte)0x00                     // BRK
+        }, 0x8010);
+        // Loaded last, load() points the reset vector here
+        cpu.load(new byte[]{
+            (byte)0xA2, 0x01,              // LDX #$01
+            (byte)0x8E, 0x00, 0x02,        // STX $0200, skipped by the breakpoint
+            (byte)0x00                     // BRK
+        }, 0x8000);
+        cpu.reset();
+        Profiler profiler = new Profiler(cpu);
+        cpu.setProfiler(profiler);
+        Coverage coverage = new Coverage();
+        cpu.setCoverage(coverage);
+        cpu.addBreakpoint(0x8002);
+        cpu.onBreakpoint(c -> c.programCounter = 0x8010);
+
+        assertEquals(DemoNES.RunResult.BREAK, cpu.runCycles(100));
+        assertEquals(2, cpu.registerX);
+        assertEquals(0, profiler.pcCounts[0x8002]);
+        assertEquals(1, profiler.pcCounts[0x8010]);
+        assertEquals(1, profiler.pcCounts[0x8011]);
+        assertFalse(coverage.isExecuted(0x8002));
+        assertTrue(coverage.isOpcode(0x8010));
+        assertEquals(4, coverage.count(0x8000, 0x8011));
+    }
+
+    @Test
+    void test_exports() throws Exception {
+        DemoNES cpu = TestGame.snake(0x35, 0x64);
+        Profiler profiler = new Profiler(cpu);
+        cpu.setProfiler(profiler);
+        cpu.runCycles(100_000);
+
+        StringBuilder hot = new StringBuilder();
+        profiler.writeHotSpots(hot, 5);
+        String[] lines = hot.toString().split("\n");
+        assertEquals(5, lines.length);
+        // The delay loop at the end of the game loop dominates
+        assertTrue(hot.toString().contains("0731  DEX"), hot.toString());
+
+        StringBuilder stacks = new StringBuilder();
+        profiler.writeCollapsedStacks(stacks);
+        assertTrue(stacks.toString().contains("main;sub_0638;sub_072D "), stacks.toString());
+        long total = 0;
+        for (String line : stacks.toString().split("\n")) {
+            total += Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+        }
+        assertEquals(cpu.cycles - 7, total);
+
+        StringBuilder histogram = new StringBuilder();
+        profiler.writeOpcodeHistogram(histogram);
+        assertTrue(histogram.toString().startsWith("EA NOP"), histogram.toString());
+    }
+}
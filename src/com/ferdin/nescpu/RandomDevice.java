@@ -0,0 +1,38 @@
+package com.ferdin.nescpu;
+
+public final class RandomDevice implements Bus.Device {
+    // A random byte that is only generated when the program reads it, e.g.
+    // the snake game's 0xFE. xorshift64, so it allocates nothing and the
+    // same seed always gives the same run.
+
+    private long state;
+
+    public RandomDevice(long seed) {
+        seed(seed);
+    }
+
+    // Convenience: hooks a new device at addr on cpu's bus
+    public static RandomDevice attach(DemoNES cpu, int addr, long seed) {
+        RandomDevice device = new RandomDevice(seed);
+        cpu.bus.hookAddress(addr, device);
+        return device;
+    }
+
+    public void seed(long seed) {
+        // xorshift never leaves 0
+        state = seed == 0 ? 0x9E3779B97F4A7C15L : seed;
+    }
+
+    @Override
+    public int read(int addr) {
+        state ^= state << 13;
+        state ^= state >>> 7;
+        state ^= state << 17;
+        return (int) state & 0xFF;
+    }
+
+    @Override
+    public void write(int addr, int value) {
+        // The program can't set the random byte
+    }
+}
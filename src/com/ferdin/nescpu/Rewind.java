@@ -0,0 +1,297 @@
+package com.ferdin.nescpu;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public final class Rewind {
+    // Records a save state per frame into a fixed-size byte ring, so memory
+    // stays bounded however long the session runs.
+    //
+    // Every KEYFRAME_INTERVAL-th entry is a keyframe, the rest are deltas
+    // against the latest keyframe. Either way an entry is the XOR of the
+    // state against its base (all zeros for a keyframe), run length
+    // encoded. Most of memory doesn't change between frames, so the XOR is
+    // mostly zero runs and an entry is usually a few hundred bytes.
+    //
+    // Stepping back any distance decodes at most two entries: the keyframe
+    // and the delta. When space runs out, the oldest keyframe is dropped
+    // together with the deltas that need it.
+    //
+    // Encoded entry: repeated [zero run][literal length][literal bytes],
+    // both lengths as 7-bit varints.
+
+    public static final int KEYFRAME_INTERVAL = 30;
+
+    private final DemoNES cpu;
+    private final byte[] arena;
+
+    // Ring of entries, oldest at `first`
+    private final int[] starts;
+    private final int[] lengths;
+    private final int[] keyframes;     // ring index of the entry's keyframe
+    private final long[] frameNumbers;
+    private int first;
+    private int count;
+    private int head;                  // next free byte in the arena
+
+    private final byte[] state;        // scratch, one full save state
+    private final ByteBuffer stateBuffer;
+    private final byte[] keyState;     // decoded latest keyframe
+    private final byte[] encoded;      // scratch for one encoded entry
+    private int sinceKeyframe;
+
+    private final DemoNES.CpuCallback frameHook = c -> record();
+    private boolean recording;
+
+    // maxFrames entries at most, in an arena of bufferBytes
+    public Rewind(DemoNES cpu, int maxFrames, int bufferBytes) {
+        if (maxFrames <= 0 || bufferBytes <= 0) {
+            throw new IllegalArgumentException("Rewind needs room for at least one frame");
+        }
+        this.cpu = cpu;
+        this.arena = new byte[bufferBytes];
+        this.starts = new int[maxFrames];
+        this.lengths = new int[maxFrames];
+        this.keyframes = new int[maxFrames];
+        this.frameNumbers = new long[maxFrames];
+
+        int size = cpu.stateSize();
+        this.state = new byte[size];
+        this.stateBuffer = ByteBuffer.wrap(state);
+        this.keyState = new byte[size];
+        // Worst case: one token of up to 6 varint bytes per 4 input bytes
+        this.encoded = new byte[size * 3 + 16];
+    }
+
+    // Records a state at every frame boundary from now on, next to any
+    // other frame hooks the CPU has
+    public void recordEveryFrame() {
+        if (!recording) {
+            cpu.onFrame(frameHook);
+            recording = true;
+        }
+    }
+
+    public void stopRecording() {
+        cpu.removeFrameHook(frameHook);
+        recording = false;
+    }
+
+    public int frames() {
+        return count;
+    }
+
+    // Frame number of the entry `back` steps ago, 1 being the newest
+    public long frameAt(int back) {
+        checkBack(back);
+        return frameNumbers[ring(count - back)];
+    }
+
+    public void record() {
+        stateBuffer.clear();
+        if (cpu.stateSize() != state.length) {
+            throw new IllegalStateException("State size changed, was a cartridge loaded? Create a new Rewind.");
+        }
+        cpu.saveState(stateBuffer);
+
+        boolean keyframe = count == 0 || sinceKeyframe >= KEYFRAME_INTERVAL - 1;
+        while (true) {
+            int length = keyframe ? encode(state, null) : encode(state, keyState);
+            int at = count < starts.length ? findSpace(length) : -1;
+            while (at < 0 && canDropOldest(keyframe)) {
+                dropOldestGroup();
+                at = findSpace(length);
+            }
+            if (at < 0) {
+                if (keyframe) {
+                    throw new IllegalStateException("Rewind buffer of " + arena.length
+                        + " bytes can't hold a single " + length + " byte state");
+                }
+                // Only the current group is left and it's full, start over
+                // with a keyframe
+                keyframe = true;
+                continue;
+            }
+
+            int index = ring(count);
+            System.arraycopy(encoded, 0, arena, at, length);
+            starts[index] = at;
+            lengths[index] = length;
+            frameNumbers[index] = cpu.frameCount;
+            if (keyframe) {
+                keyframes[index] = index;
+                System.arraycopy(state, 0, keyState, 0, state.length);
+                sinceKeyframe = 0;
+            } else {
+                keyframes[index] = currentKeyframe();
+                sinceKeyframe++;
+            }
+            head = at + length;
+            count++;
+            return;
+        }
+    }
+
+    // Restores the state from `back` entries ago, 1 being the newest, and
+    // forgets everything recorded after it
+    public void rewind(int back) {
+        checkBack(back);
+        int index = ring(count - back);
+        int key = keyframes[index];
+
+        Arrays.fill(state, (byte) 0);
+        decode(key, state);
+        System.arraycopy(state, 0, keyState, 0, state.length);
+        if (index != key) {
+            decode(index, state);
+        }
+        stateBuffer.clear();
+        cpu.loadState(stateBuffer);
+
+        count -= back - 1;
+        head = starts[index] + lengths[index];
+        sinceKeyframe = (index - key + starts.length) % starts.length;
+    }
+
+    public void clear() {
+        count = 0;
+        first = 0;
+        head = 0;
+    }
+
+    // Bytes of the arena holding entries, for tuning the buffer size
+    public int bytesUsed() {
+        int total = 0;
+        for (int i = 0; i < count; i++) {
+            total += lengths[ring(i)];
+        }
+        return total;
+    }
+
+    private int currentKeyframe() {
+        return keyframes[ring(count - 1)];
+    }
+
+    private int ring(int offset) {
+        return (first + offset) % starts.length;
+    }
+
+    private void checkBack(int back) {
+        if (back < 1 || back > count) {
+            throw new IllegalArgumentException("Can rewind 1.." + count + " frames, not " + back);
+        }
+    }
+
+    // A delta can't drop the group holding its own keyframe
+    private boolean canDropOldest(boolean keyframe) {
+        return count > 0 && (keyframe || keyframes[first] != currentKeyframe());
+    }
+
+    private void dropOldestGroup() {
+        do {
+            first = (first + 1) % starts.length;
+            count--;
+        } while (count > 0 && keyframes[first] != first);
+    }
+
+    // Start of a free run of `length` bytes in the arena, or -1
+    private int findSpace(int length) {
+        if (count == 0) {
+            head = 0;
+            return length <= arena.length ? 0 : -1;
+        }
+        int tail = starts[first];
+        if (head > tail) {
+            if (arena.length - head >= length) {
+                return head;
+            }
+            return tail >= length ? 0 : -1;   // wrap, the end is wasted
+        }
+        if (head < tail) {
+            return tail - head >= length ? head : -1;
+        }
+        return -1;  // head == tail: full
+    }
+
+    // XOR of data against base (zeros if null), run length encoded into
+    // `encoded`. Returns the encoded length.
+    private int encode(byte[] data, byte[] base) {
+        int out = 0;
+        int i = 0;
+        int n = data.length;
+        while (i < n) {
+            int zeroStart = i;
+            while (i < n && xor(data, base, i) == 0) {
+                i++;
+            }
+            int zeros = i - zeroStart;
+            if (i == n) {
+                break;
+            }
+
+            // Literal until the next run of 3+ unchanged bytes
+            int literalStart = i;
+            int literalEnd = i;
+            while (i < n) {
+                if (xor(data, base, i) != 0) {
+                    i++;
+                    literalEnd = i;
+                } else if (i + 2 < n && xor(data, base, i + 1) == 0 && xor(data, base, i + 2) == 0) {
+                    break;
+                } else {
+                    i++;
+                }
+            }
+            i = literalEnd;
+
+            out = putVarint(out, zeros);
+            out = putVarint(out, literalEnd - literalStart);
+            for (int j = literalStart; j < literalEnd; j++) {
+                encoded[out++] = (byte) xor(data, base, j);
+            }
+        }
+        return out;
+    }
+
+    private static int xor(byte[] data, byte[] base, int i) {
+        return base == null ? data[i] : data[i] ^ base[i];
+    }
+
+    private int putVarint(int out, int value) {
+        while (value >= 0x80) {
+            encoded[out++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        encoded[out++] = (byte) value;
+        return out;
+    }
+
+    // XORs the entry into target
+    private void decode(int index, byte[] target) {
+        int in = starts[index];
+        int end = in + lengths[index];
+        int pos = 0;
+        while (in < end) {
+            int zeros = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = arena[in++];
+                zeros |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            int literal = 0;
+            shift = 0;
+            do {
+                b = arena[in++];
+                literal |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            pos += zeros;
+            for (int j = 0; j < literal; j++) {
+                target[pos++] ^= arena[in++];
+            }
+        }
+    }
+}
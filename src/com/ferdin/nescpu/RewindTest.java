@@ -0,0 +1,106 @@
+package com.ferdin.nescpu;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class RewindTest {
+
+    private static byte[] stateOf(DemoNES cpu) {
+        ByteBuffer buffer = ByteBuffer.allocate(cpu.stateSize());
+        cpu.saveState(buffer);
+        return buffer.array();
+    }
+
+    // Keeps the snake alive: new random byte and steering every slice
+    private static void step(DemoNES cpu, int frame) {
+        cpu.memWrite(0xFE, (byte) (frame * 37));
+        cpu.memWrite(0xFF, TestGame.KEYS[(frame / 3) % TestGame.KEYS.length]);
+        cpu.runCycles(500);
+    }
+
+    @Test
+    void test_rewind_restores_exact_states() {
+        DemoNES cpu = TestGame.snake(0, 0);
+        Rewind rewind = new Rewind(cpu, 1000, 1 << 20);
+        List<byte[]> expected = new ArrayList<>();
+
+        for (int frame = 0; frame < 100; frame++) {
+            step(cpu, frame);
+            rewind.record();
+            expected.add(stateOf(cpu));
+        }
+        assertEquals(100, rewind.frames());
+        // Deltas are far smaller than full states
+        assertTrue(rewind.bytesUsed() < 100 * cpu.stateSize() / 10);
+
+        rewind.rewind(1);
+        assertArrayEquals(expected.get(99), stateOf(cpu));
+        rewind.rewind(25);
+        assertArrayEquals(expected.get(75), stateOf(cpu));
+        assertEquals(76, rewind.frames());
+        rewind.rewind(76);
+        assertArrayEquals(expected.get(0), stateOf(cpu));
+
+        // Recording carries on from the restored point
+        step(cpu, 0);
+        rewind.record();
+        rewind.rewind(1);
+        assertEquals(2, rewind.frames());
+    }
+
+    @Test
+    void test_recording_keeps_other_frame_hooks() {
+        DemoNES cpu = new DemoNES();
+        cpu.load(new byte[]{
+            (byte)0xE8,                    // $8000 INX
+            (byte)0x4C, 0x00, (byte)0x80   // $8001 JMP $8000
+        });
+        cpu.reset();
+        int[] frames = new int[1];
+        cpu.onFrame(c -> frames[0]++);
+        Rewind rewind = new Rewind(cpu, 100, 1 << 20);
+        rewind.recordEveryFrame();
+        rewind.recordEveryFrame();
+
+        cpu.runFrames(2);
+        assertEquals(2, frames[0]);
+        assertEquals(2, rewind.frames());
+
+        rewind.stopRecording();
+        cpu.runFrame();
+        assertEquals(3, frames[0]);
+        assertEquals(2, rewind.frames());
+    }
+
+    @Test
+    void test_memory_stays_bounded() {
+        DemoNES cpu = TestGame.snake(0, 0);
+        int bufferBytes = 64 * 1024;
+        Rewind rewind = new Rewind(cpu, 200, bufferBytes);
+        List<byte[]> expected = new ArrayList<>();
+
+        for (int frame = 0; frame < 1000; frame++) {
+            step(cpu, frame);
+            rewind.record();
+            expected.add(stateOf(cpu));
+            assertTrue(rewind.bytesUsed() <= bufferBytes);
+            assertTrue(rewind.frames() <= 200);
+        }
+
+        // Whatever is left must still decode to the recorded states
+        int frames = rewind.frames();
+        assertTrue(frames > 0);
+        rewind.rewind(frames);
+        assertArrayEquals(expected.get(1000 - frames), stateOf(cpu));
+    }
+
+    @Test
+    void test_buffer_too_small() {
+        DemoNES cpu = TestGame.snake(0, 0);
+        Rewind rewind = new Rewind(cpu, 10, 16);
+        assertThrows(IllegalStateException.class, rewind::record);
+    }
+}
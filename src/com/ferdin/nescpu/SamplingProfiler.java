@@ -0,0 +1,197 @@
+package com.ferdin.nescpu;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+public final class SamplingProfiler implements AutoCloseable {
+    // Samples a running DemoNES from another thread, cheap enough to leave
+    // on in production where Profiler's exact counters are not.
+    //
+    // The CPU doesn't publish anything extra: its PC field is already
+    // written every instruction, and jsr() / rts() keep a shadow call stack
+    // with plain writes. The sampler reads those with opaque reads, without
+    // locks and without stopping the CPU, so a sample can be slightly torn
+    // (a stack read while a JSR is half done). That's fine for statistics.
+    // Under the JIT, the PC is only stored at block exits, so samples land
+    // on block starts.
+    //
+    // Samples are aggregated in primitive tables: a long[65536] per PC and
+    // an open addressing table of call stacks keyed by their hash, with the
+    // frames of each stack in one int[] pool.
+
+    private static final VarHandle PC;
+    private static final VarHandle DEPTH;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            PC = lookup.findVarHandle(DemoNES.class, "programCounter", int.class);
+            DEPTH = lookup.findVarHandle(DemoNES.class, "callDepth", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public final long[] pcSamples = new long[0x10000];
+
+    private final DemoNES cpu;
+    private final long intervalNanos;
+    private final Thread thread;
+    private volatile boolean running;
+    private volatile long samples;
+
+    // Stack table
+    private long[] keys = new long[1024];       // 0 = empty
+    private long[] counts = new long[1024];
+    private int[] stackStart = new int[1024];
+    private int[] stackLength = new int[1024];
+    private int stacks;
+    private int[] frames = new int[4096];
+    private int framesUsed;
+    private final int[] scratch = new int[DemoNES.CALL_STACK_SIZE];
+
+    public SamplingProfiler(DemoNES cpu, long intervalNanos) {
+        if (intervalNanos <= 0) {
+            throw new IllegalArgumentException("Interval must be positive: " + intervalNanos);
+        }
+        this.cpu = cpu;
+        this.intervalNanos = intervalNanos;
+        this.thread = new Thread(this::loop, "guest-sampler");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    // Stops sampling and waits for the sampler thread. Results are safe to
+    // read after this, unless the caller was interrupted while waiting: then
+    // the interrupt flag is set again and the sampler stops on its own.
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long samples() {
+        return samples;
+    }
+
+    private void loop() {
+        while (running) {
+            LockSupport.parkNanos(intervalNanos);
+            sample();
+        }
+    }
+
+    void sample() {
+        int pc = (int) PC.getOpaque(cpu) & 0xFFFF;
+        int depth = Math.min(Math.max((int) DEPTH.getOpaque(cpu), 0), DemoNES.CALL_STACK_SIZE);
+        long hash = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < depth; i++) {
+            scratch[i] = cpu.callStack[i] & 0xFFFF;
+            hash = (hash ^ scratch[i]) * 0x100000001B3L;
+        }
+        hash = (hash ^ depth) * 0x100000001B3L;
+        if (hash == 0) {
+            hash = 1;
+        }
+
+        pcSamples[pc]++;
+        counts[slot(hash, depth)]++;
+        samples++;
+    }
+
+    // Slot of the stack in scratch[0..depth), added if new
+    private int slot(long hash, int depth) {
+        int mask = keys.length - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == hash) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (framesUsed + depth > frames.length) {
+            frames = Arrays.copyOf(frames, Math.max(frames.length * 2, framesUsed + depth));
+        }
+        System.arraycopy(scratch, 0, frames, framesUsed, depth);
+        keys[slot] = hash;
+        stackStart[slot] = framesUsed;
+        stackLength[slot] = depth;
+        framesUsed += depth;
+        if (++stacks * 2 > keys.length) {
+            grow();
+            return slot(hash, depth);
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldCounts = counts;
+        int[] oldStart = stackStart;
+        int[] oldLength = stackLength;
+        keys = new long[oldKeys.length * 2];
+        counts = new long[keys.length];
+        stackStart = new int[keys.length];
+        stackLength = new int[keys.length];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            long hash = oldKeys[i];
+            if (hash == 0) {
+                continue;
+            }
+            int slot = (int) (hash ^ (hash >>> 32)) & mask;
+            while (keys[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = hash;
+            counts[slot] = oldCounts[i];
+            stackStart[slot] = oldStart[i];
+            stackLength[slot] = oldLength[i];
+        }
+    }
+
+    // The `top` PCs by samples, with their disassembly
+    public void writeHotSpots(Appendable out, int top) throws IOException {
+        long total = samples;
+        StringBuilder line = new StringBuilder(64);
+        for (int pc : Profiler.top(pcSamples, top)) {
+            line.setLength(0);
+            Profiler.appendInstruction(line, cpu, pc);
+            line.append(String.format("%12d %6.2f%%", pcSamples[pc],
+                total == 0 ? 0.0 : 100.0 * pcSamples[pc] / total));
+            out.append(line).append('\n');
+        }
+    }
+
+    // One line per sampled call stack with its sample count, the same
+    // format as Profiler.writeCollapsedStacks
+    public void writeCollapsedStacks(Appendable out) throws IOException {
+        StringBuilder line = new StringBuilder(128);
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] == 0) {
+                continue;
+            }
+            line.setLength(0);
+            line.append("main");
+            for (int i = 0; i < stackLength[slot]; i++) {
+                line.append(";sub_");
+                Disassembler.hex(line, frames[stackStart[slot] + i], 4);
+            }
+            line.append(' ').append(counts[slot]);
+            out.append(line).append('\n');
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.ferdin.nescpu;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SamplingProfilerTest {
+
+    @Test
+    void test_sample_reads_pc_and_shadow_stack() throws Exception {
+        DemoNES cpu = new DemoNES();
+        cpu.load(new byte[]{
+            (byte)0x20, 0x06, (byte)0x80,  // JSR $8006
+            (byte)0x4C, 0x00, (byte)0x80,  // JMP $8000
+            (byte)0x20, 0x0A, (byte)0x80,  // JSR $800A
+            (byte)0x60,                    // RTS
+            (byte)0x4C, 0x0A, (byte)0x80   // JMP $800A
+        }, 0x8000);
+        cpu.reset();
+        cpu.runCycles(100);
+
+        SamplingProfiler sampler = new SamplingProfiler(cpu, 1_000_000);
+        sampler.sample();
+        sampler.sample();
+        assertEquals(2, sampler.samples());
+        assertEquals(2, sampler.pcSamples[0x800A]);
+        StringBuilder stacks = new StringBuilder();
+        sampler.writeCollapsedStacks(stacks);
+        assertEquals("main;sub_8006;sub_800A 2\n", stacks.toString());
+
+        // A reset forgets the stack
+        cpu.reset();
+        sampler.sample();
+        stacks.setLength(0);
+        sampler.writeCollapsedStacks(stacks);
+        assertTrue(stacks.toString().contains("main 1\n"), stacks.toString());
+    }
+
+    @Test
+    void test_samples_a_running_snake() throws Exception {
+        TestGame cpu = new TestGame();
+        cpu.load(TestGame.gameBytes(), TestGame.GAME_START);
+        cpu.reset();
+        cpu.memWrite(0xFE, (byte) 0x35);
+        cpu.memWrite(0xFF, (byte) 0x64);
+
+        SamplingProfiler sampler = new SamplingProfiler(cpu, 100_000);
+        sampler.start();
+        long end = System.nanoTime() + 5_000_000_000L;
+        while (sampler.samples() < 20 && System.nanoTime() < end) {
+            if (cpu.runCycles(10_000) != DemoNES.RunResult.BUDGET_EXHAUSTED) {
+                cpu.reset();    // game over, start again
+            }
+        }
+        sampler.close();
+
+        assertTrue(sampler.samples() >= 20);
+        // Game over jumps past the code to a BRK, PC ends up one further
+        long inGame = 0;
+        for (int pc = TestGame.GAME_START; pc <= TestGame.GAME_START + TestGame.game_code.length + 1; pc++) {
+            inGame += sampler.pcSamples[pc];
+        }
+        assertEquals(sampler.samples(), inGame);
+
+        StringBuilder stacks = new StringBuilder();
+        sampler.writeCollapsedStacks(stacks);
+        assertTrue(stacks.toString().contains("main;sub_0638"), stacks.toString());
+        StringBuilder hot = new StringBuilder();
+        sampler.writeHotSpots(hot, 3);
+        assertFalse(hot.toString().isEmpty());
+    }
+}
@@ -1,40 +1,117 @@
 package com.ferdin.nescpu;
+import java.nio.IntBuffer;
+
+import org.lwjgl.BufferUtils;
 import org.lwjgl.glfw.GLFW;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
 
 public class TestGame extends DemoNES {
     public TestGame() {
         super();
     }
-    public static void main(String[] args) {
-        
-        int[] game_code = new int[]{
-            0x20, 0x06, 0x06, 0x20, 0x38, 0x06, 0x20, 0x0d, 0x06, 0x20, 0x2a, 0x06, 0x60, 0xa9, 0x02, 0x85,
-            0x02, 0xa9, 0x04, 0x85, 0x03, 0xa9, 0x11, 0x85, 0x10, 0xa9, 0x10, 0x85, 0x12, 0xa9, 0x0f, 0x85,
-            0x14, 0xa9, 0x04, 0x85, 0x11, 0x85, 0x13, 0x85, 0x15, 0x60, 0xa5, 0xfe, 0x85, 0x00, 0xa5, 0xfe,
-            0x29, 0x03, 0x18, 0x69, 0x02, 0x85, 0x01, 0x60, 0x20, 0x4d, 0x06, 0x20, 0x8d, 0x06, 0x20, 0xc3,
-            0x06, 0x20, 0x19, 0x07, 0x20, 0x20, 0x07, 0x20, 0x2d, 0x07, 0x4c, 0x38, 0x06, 0xa5, 0xff, 0xc9,
-            0x77, 0xf0, 0x0d, 0xc9, 0x64, 0xf0, 0x14, 0xc9, 0x73, 0xf0, 0x1b, 0xc9, 0x61, 0xf0, 0x22, 0x60,
-            0xa9, 0x04, 0x24, 0x02, 0xd0, 0x26, 0xa9, 0x01, 0x85, 0x02, 0x60, 0xa9, 0x08, 0x24, 0x02, 0xd0,
-            0x1b, 0xa9, 0x02, 0x85, 0x02, 0x60, 0xa9, 0x01, 0x24, 0x02, 0xd0, 0x10, 0xa9, 0x04, 0x85, 0x02,
-            0x60, 0xa9, 0x02, 0x24, 0x02, 0xd0, 0x05, 0xa9, 0x08, 0x85, 0x02, 0x60, 0x60, 0x20, 0x94, 0x06,
-            0x20, 0xa8, 0x06, 0x60, 0xa5, 0x00, 0xc5, 0x10, 0xd0, 0x0d, 0xa5, 0x01, 0xc5, 0x11, 0xd0, 0x07,
-            0xe6, 0x03, 0xe6, 0x03, 0x20, 0x2a, 0x06, 0x60, 0xa2, 0x02, 0xb5, 0x10, 0xc5, 0x10, 0xd0, 0x06,
-            0xb5, 0x11, 0xc5, 0x11, 0xf0, 0x09, 0xe8, 0xe8, 0xe4, 0x03, 0xf0, 0x06, 0x4c, 0xaa, 0x06, 0x4c,
-            0x35, 0x07, 0x60, 0xa6, 0x03, 0xca, 0x8a, 0xb5, 0x10, 0x95, 0x12, 0xca, 0x10, 0xf9, 0xa5, 0x02,
-            0x4a, 0xb0, 0x09, 0x4a, 0xb0, 0x19, 0x4a, 0xb0, 0x1f, 0x4a, 0xb0, 0x2f, 0xa5, 0x10, 0x38, 0xe9,
-            0x20, 0x85, 0x10, 0x90, 0x01, 0x60, 0xc6, 0x11, 0xa9, 0x01, 0xc5, 0x11, 0xf0, 0x28, 0x60, 0xe6,
-            0x10, 0xa9, 0x1f, 0x24, 0x10, 0xf0, 0x1f, 0x60, 0xa5, 0x10, 0x18, 0x69, 0x20, 0x85, 0x10, 0xb0,
-            0x01, 0x60, 0xe6, 0x11, 0xa9, 0x06, 0xc5, 0x11, 0xf0, 0x0c, 0x60, 0xc6, 0x10, 0xa5, 0x10, 0x29,
-            0x1f, 0xc9, 0x1f, 0xf0, 0x01, 0x60, 0x4c, 0x35, 0x07, 0xa0, 0x00, 0xa5, 0xfe, 0x91, 0x00, 0x60,
-            0xa6, 0x03, 0xa9, 0x00, 0x81, 0x10, 0xa2, 0x00, 0xa9, 0x01, 0x81, 0x10, 0x60, 0xa2, 0x00, 0xea,
-            0xea, 0xca, 0xd0, 0xfb, 0x60
-        };
-        
+
+    // Snake game from bugzmanov/nes_ebook, it expects to be loaded at 0x0600
+    public static final int GAME_START = 0x0600;
+
+    public static final int[] game_code = new int[]{
+        0x20, 0x06, 0x06, 0x20, 0x38, 0x06, 0x20, 0x0d, 0x06, 0x20, 0x2a, 0x06, 0x60, 0xa9, 0x02, 0x85,
+        0x02, 0xa9, 0x04, 0x85, 0x03, 0xa9, 0x11, 0x85, 0x10, 0xa9, 0x10, 0x85, 0x12, 0xa9, 0x0f, 0x85,
+        0x14, 0xa9, 0x04, 0x85, 0x11, 0x85, 0x13, 0x85, 0x15, 0x60, 0xa5, 0xfe, 0x85, 0x00, 0xa5, 0xfe,
+        0x29, 0x03, 0x18, 0x69, 0x02, 0x85, 0x01, 0x60, 0x20, 0x4d, 0x06, 0x20, 0x8d, 0x06, 0x20, 0xc3,
+        0x06, 0x20, 0x19, 0x07, 0x20, 0x20, 0x07, 0x20, 0x2d, 0x07, 0x4c, 0x38, 0x06, 0xa5, 0xff, 0xc9,
+        0x77, 0xf0, 0x0d, 0xc9, 0x64, 0xf0, 0x14, 0xc9, 0x73, 0xf0, 0x1b, 0xc9, 0x61, 0xf0, 0x22, 0x60,
+        0xa9, 0x04, 0x24, 0x02, 0xd0, 0x26, 0xa9, 0x01, 0x85, 0x02, 0x60, 0xa9, 0x08, 0x24, 0x02, 0xd0,
+        0x1b, 0xa9, 0x02, 0x85, 0x02, 0x60, 0xa9, 0x01, 0x24, 0x02, 0xd0, 0x10, 0xa9, 0x04, 0x85, 0x02,
+        0x60, 0xa9, 0x02, 0x24, 0x02, 0xd0, 0x05, 0xa9, 0x08, 0x85, 0x02, 0x60, 0x60, 0x20, 0x94, 0x06,
+        0x20, 0xa8, 0x06, 0x60, 0xa5, 0x00, 0xc5, 0x10, 0xd0, 0x0d, 0xa5, 0x01, 0xc5, 0x11, 0xd0, 0x07,
+        0xe6, 0x03, 0xe6, 0x03, 0x20, 0x2a, 0x06, 0x60, 0xa2, 0x02, 0xb5, 0x10, 0xc5, 0x10, 0xd0, 0x06,
+        0xb5, 0x11, 0xc5, 0x11, 0xf0, 0x09, 0xe8, 0xe8, 0xe4, 0x03, 0xf0, 0x06, 0x4c, 0xaa, 0x06, 0x4c,
+        0x35, 0x07, 0x60, 0xa6, 0x03, 0xca, 0x8a, 0xb5, 0x10, 0x95, 0x12, 0xca, 0x10, 0xf9, 0xa5, 0x02,
+        0x4a, 0xb0, 0x09, 0x4a, 0xb0, 0x19, 0x4a, 0xb0, 0x1f, 0x4a, 0xb0, 0x2f, 0xa5, 0x10, 0x38, 0xe9,
+        0x20, 0x85, 0x10, 0x90, 0x01, 0x60, 0xc6, 0x11, 0xa9, 0x01, 0xc5, 0x11, 0xf0, 0x28, 0x60, 0xe6,
+        0x10, 0xa9, 0x1f, 0x24, 0x10, 0xf0, 0x1f, 0x60, 0xa5, 0x10, 0x18, 0x69, 0x20, 0x85, 0x10, 0xb0,
+        0x01, 0x60, 0xe6, 0x11, 0xa9, 0x06, 0xc5, 0x11, 0xf0, 0x0c, 0x60, 0xc6, 0x10, 0xa5, 0x10, 0x29,
+        0x1f, 0xc9, 0x1f, 0xf0, 0x01, 0x60, 0x4c, 0x35, 0x07, 0xa0, 0x00, 0xa5, 0xfe, 0x91, 0x00, 0x60,
+        0xa6, 0x03, 0xa9, 0x00, 0x81, 0x10, 0xa2, 0x00, 0xa9, 0x01, 0x81, 0x10, 0x60, 0xa2, 0x00, 0xea,
+        0xea, 0xca, 0xd0, 0xfb, 0x60
+    };
+
+    public static byte[] gameBytes() {
+        byte[] program = new byte[game_code.length];
+        for (int i = 0; i < game_code.length; i++) {
+            program[i] = (byte) game_code[i];
+        }
+        return program;
+    }
+
+    // The keys the game reads at 0xFF: w d s a
+    static final byte[] KEYS = {0x77, 0x64, 0x73, 0x61};
+
+    // A plain DemoNES with the game loaded and reset, for the tests.
+    // random is the byte at 0xFE, key the last key pressed at 0xFF.
+    static DemoNES snake(int random, int key) {
+        DemoNES cpu = new DemoNES();
+        cpu.load(gameBytes(), GAME_START);
+        cpu.reset();
+        cpu.memWrite(0xFE, (byte) random);
+        cpu.memWrite(0xFF, (byte) key);
+        return cpu;
+    }
+
+    // Window size, one screen pixel is SCALE x SCALE
+    private static final int SCALE = 10;
+
+    // Cycles per emulation step, roughly one move of the snake
+    private static final int STEP_CYCLES = 3000;
+
+    public static void main(String[] args) throws InterruptedException {
+
         if(!GLFW.glfwInit()) {
             throw new IllegalStateException("Failed to init GLFW");
         }
-    
-        System.out.println("LWJGL working!");
+
+        TestGame cpu = new TestGame();
+        cpu.load(gameBytes(), GAME_START);
+        cpu.reset();
+        RandomDevice.attach(cpu, 0xFE, System.nanoTime());
+        EmulationThread emulation = new EmulationThread(cpu, 0xFF);
+        emulation.stepCycles = STEP_CYCLES;
+
+        long window = GLFW.glfwCreateWindow(Framebuffer.WIDTH * SCALE, Framebuffer.HEIGHT * SCALE, "Snake", 0, 0);
+        if (window == 0) {
+            GLFW.glfwTerminate();
+            throw new IllegalStateException("Failed to create the window");
+        }
+        // Runs on this thread, only hands the key over to the emulation thread
+        GLFW.glfwSetKeyCallback(window, (w, key, scancode, action, mods) -> {
+            if (action == GLFW.GLFW_PRESS && key >= GLFW.GLFW_KEY_A && key <= GLFW.GLFW_KEY_Z) {
+                emulation.input.offer(Character.toLowerCase(key));
+            }
+        });
+        GLFW.glfwMakeContextCurrent(window);
+        GLFW.glfwSwapInterval(1);
+        GL.createCapabilities();
+
+        // Presentation: draw the newest frame at the monitor's rate, the
+        // emulation thread keeps its own pace
+        IntBuffer pixels = BufferUtils.createIntBuffer(Framebuffer.WIDTH * Framebuffer.HEIGHT);
+        emulation.start();
+        while (!GLFW.glfwWindowShouldClose(window) && emulation.isRunning()) {
+            if (emulation.frames.take()) {
+                pixels.clear();
+                pixels.put(emulation.frames.front()).flip();
+            }
+            GL11.glRasterPos2f(-1, 1);
+            GL11.glPixelZoom(SCALE, -SCALE);
+            GL11.glDrawPixels(Framebuffer.WIDTH, Framebuffer.HEIGHT, GL11.GL_RGBA, GL12.GL_UNSIGNED_INT_8_8_8_8, pixels);
+            GLFW.glfwSwapBuffers(window);
+            GLFW.glfwPollEvents();
+        }
+        emulation.stop();
+
+        GLFW.glfwDestroyWindow(window);
         GLFW.glfwTerminate();
 
     }
@@ -0,0 +1,187 @@
+package com.ferdin.nescpu;
+
+import java.io.IOException;
+
+public final class Trace {
+    // Execution trace in a preallocated ring of longs, two per instruction:
+    //
+    //   word 0: PC (16) | opcode (8) | operand lo (8) | operand hi (8) | A (8) | X (8) | Y (8)
+    //   word 1: P (8) | SP (8) | cycles (48)
+    //
+    // Recording is two array stores, nothing is allocated or formatted
+    // until export(), so it can stay on for the last few million
+    // instructions before a failure. The oldest entries are overwritten.
+    // Entries are taken before the instruction runs, like nestest.log.
+    //
+    // DemoNES.setTrace() switches runCycles to the hooked interpreter while
+    // a trace is attached. Without one nothing is recorded and nothing is
+    // checked per instruction.
+
+    private static final long CYCLE_MASK = (1L << 48) - 1;
+
+    private final long[] entries;
+    private final int mask;         // entries per ring - 1
+    private long recorded;
+
+    // capacity instructions, rounded up to a power of two
+    public Trace(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 29) {
+            throw new IllegalArgumentException("Bad trace capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        entries = new long[size * 2];
+        mask = size - 1;
+    }
+
+    void record(DemoNES cpu, int pc) {
+        int opcode = cpu.memRead(pc);
+        int bytes = Instructions.TABLE[opcode].bytes;
+        int lo = bytes > 1 ? cpu.memRead(pc + 1) : 0;
+        int hi = bytes > 2 ? cpu.memRead(pc + 2) : 0;
+
+        int index = (int) (recorded & mask) * 2;
+        entries[index] = ((long) pc << 48) | ((long) opcode << 40) | ((long) lo << 32) | ((long) hi << 24)
+            | (cpu.registerA << 16) | (cpu.registerX << 8) | cpu.registerY;
+        entries[index + 1] = ((long) (cpu.status & 0xFF) << 56) | ((long) (cpu.stackPointer & 0xFF) << 48)
+            | (cpu.cycles & CYCLE_MASK);
+        recorded++;
+    }
+
+    // Instructions recorded since the last clear, including overwritten ones
+    public long recorded() {
+        return recorded;
+    }
+
+    // Instructions still in the ring
+    public int size() {
+        return (int) Math.min(recorded, mask + 1);
+    }
+
+    public void clear() {
+        recorded = 0;
+    }
+
+    // Accessors for entry i, 0 being the oldest still in the ring
+    public int pc(int i) {
+        return (int) (word0(i) >>> 48);
+    }
+
+    public int opcode(int i) {
+        return (int) (word0(i) >>> 40) & 0xFF;
+    }
+
+    public int operand(int i) {
+        long word = word0(i);
+        return (int) ((word >>> 32) & 0xFF) | (int) ((word >>> 16) & 0xFF00);
+    }
+
+    public int registerA(int i) {
+        return (int) (word0(i) >>> 16) & 0xFF;
+    }
+
+    public int registerX(int i) {
+        return (int) (word0(i) >>> 8) & 0xFF;
+    }
+
+    public int registerY(int i) {
+        return (int) word0(i) & 0xFF;
+    }
+
+    public int status(int i) {
+        return (int) (word1(i) >>> 56);
+    }
+
+    public int stackPointer(int i) {
+        return (int) (word1(i) >>> 48) & 0xFF;
+    }
+
+    public long cycles(int i) {
+        return word1(i) & CYCLE_MASK;
+    }
+
+    private long word0(int i) {
+        return entries[slot(i)];
+    }
+
+    private long word1(int i) {
+        return entries[slot(i) + 1];
+    }
+
+    private int slot(int i) {
+        if (i < 0 || i >= size()) {
+            throw new IndexOutOfBoundsException("Trace entry " + i + " of " + size());
+        }
+        return (int) ((recorded - size() + i) & mask) * 2;
+    }
+
+    // Writes the ring, oldest first, one nestest.log line per instruction:
+    // C000  4C F5 C5  JMP $C5F5                       A:00 X:00 Y:00 P:24 SP:FD PPU:  0, 21 CYC:7
+    // There is no PPU yet, its position is derived from the cycle count.
+    public void export(Appendable out) throws IOException {
+        StringBuilder line = new StringBuilder(96);
+        for (int i = 0; i < size(); i++) {
+            line.setLength(0);
+            format(line, i);
+            out.append(line).append('\n');
+        }
+    }
+
+    public void format(StringBuilder out, int i) {
+        int pc = pc(i);
+        int opcode = opcode(i);
+        int operand = operand(i);
+        int bytes = Instructions.TABLE[opcode].bytes;
+
+        int start = out.length();
+        Disassembler.hex(out, pc, 4);
+        out.append("  ");
+        Disassembler.hex(out, opcode, 2);
+        if (bytes > 1) {
+            out.append(' ');
+            Disassembler.hex(out, operand & 0xFF, 2);
+        }
+        if (bytes > 2) {
+            out.append(' ');
+            Disassembler.hex(out, operand >> 8, 2);
+        }
+        pad(out, start + 16);
+        Disassembler.append(out, pc, opcode, operand);
+        pad(out, start + 48);
+
+        out.append("A:");
+        Disassembler.hex(out, registerA(i), 2);
+        out.append(" X:");
+        Disassembler.hex(out, registerX(i), 2);
+        out.append(" Y:");
+        Disassembler.hex(out, registerY(i), 2);
+        out.append(" P:");
+        Disassembler.hex(out, status(i), 2);
+        out.append(" SP:");
+        Disassembler.hex(out, stackPointer(i), 2);
+
+        long cycles = cycles(i);
+        long dots = cycles * 3;
+        out.append(" PPU:");
+        padNumber(out, (dots / 341) % 262, 3);
+        out.append(',');
+        padNumber(out, dots % 341, 3);
+        out.append(" CYC:").append(cycles);
+    }
+
+    private static void pad(StringBuilder out, int column) {
+        while (out.length() < column) {
+            out.append(' ');
+        }
+    }
+
+    private static void padNumber(StringBuilder out, long value, int width) {
+        String digits = Long.toString(value);
+        for (int i = digits.length(); i < width; i++) {
+            out.append(' ');
+        }
+        out.append(digits);
+    }
+}
@@ -0,0 +1,56 @@
+package com.ferdin.nescpu;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TraceTest {
+
+    @Test
+    void test_export_uses_nestest_format() throws Exception {
+        DemoNES cpu = new DemoNES();
+        cpu.load(new byte[]{
+            (byte)0xA9, 0x05,              // LDA #$05
+            (byte)0x8D, 0x00, 0x02,        // STA $0200
+            (byte)0xD0, (byte)0xF9,        // BNE $8000
+        }, 0x8000);
+        cpu.reset();
+        Trace trace = new Trace(16);
+        cpu.setTrace(trace);
+        cpu.runCycles(9);
+
+        StringBuilder out = new StringBuilder();
+        trace.export(out);
+        assertEquals(
+            "8000  A9 05     LDA #$05                        A:00 X:00 Y:00 P:00 SP:FD PPU:  0, 21 CYC:7\n"
+            + "8002  8D 00 02  STA $0200                       A:05 X:00 Y:00 P:00 SP:FD PPU:  0, 27 CYC:9\n"
+            + "8005  D0 F9     BNE $8000                       A:05 X:00 Y:00 P:00 SP:FD PPU:  0, 39 CYC:13\n",
+            out.toString());
+    }
+
+    @Test
+    void test_ring_keeps_the_newest_entries() {
+        DemoNES cpu = new DemoNES();
+        cpu.load(new byte[]{
+            (byte)0xE8,                    // INX
+            (byte)0x4C, 0x00, (byte)0x80   // JMP $8000
+        }, 0x8000);
+        cpu.reset();
+        Trace trace = new Trace(6);     // rounded up to 8
+        cpu.setTrace(trace);
+        cpu.runCycles(100);
+
+        assertEquals(8, trace.size());
+        assertTrue(trace.recorded() > 8);
+        int last = trace.size() - 1;
+        long expectedCycles = cpu.cycles - (trace.opcode(last) == 0xE8 ? 2 : 3);
+        assertEquals(expectedCycles, trace.cycles(last));
+        for (int i = 1; i < trace.size(); i++) {
+            assertTrue(trace.cycles(i) > trace.cycles(i - 1));
+        }
+
+        // Detached: nothing more is recorded
+        cpu.setTrace(null);
+        long recorded = trace.recorded();
+        cpu.runCycles(100);
+        assertEquals(recorded, trace.recorded());
+    }
+}
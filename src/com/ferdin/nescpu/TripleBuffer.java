@@ -0,0 +1,58 @@
+package com.ferdin.nescpu;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class TripleBuffer {
+    // Hands finished frames from one producer thread to one consumer thread
+    // without locks and without either side waiting. The producer draws
+    // into the back buffer and publishes it, the consumer reads the front
+    // buffer. The third one sits in the middle and is swapped with
+    // whichever side is done: publishing swaps back and middle, taking a
+    // frame swaps front and middle if something new was published. A slow
+    // consumer just skips frames, the producer never blocks on it.
+    //
+    // middle holds the index of the middle buffer plus FRESH when it has a
+    // frame the consumer hasn't taken yet.
+
+    private static final int FRESH = 4;
+
+    private final int[][] buffers;
+    private final long[] frameNumbers = new long[3];
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;       // producer's
+    private int front = 2;      // consumer's
+
+    public TripleBuffer(int size) {
+        buffers = new int[][]{new int[size], new int[size], new int[size]};
+    }
+
+    // Producer side: the buffer to draw the next frame into
+    public int[] back() {
+        return buffers[back];
+    }
+
+    // Producer side: makes the back buffer the latest frame
+    public void publish(long frameNumber) {
+        frameNumbers[back] = frameNumber;
+        back = middle.getAndSet(back | FRESH) & 3;
+    }
+
+    // Consumer side: moves to the latest published frame, if there is a new
+    // one. Returns false when the front buffer is still the latest.
+    public boolean take() {
+        if ((middle.get() & FRESH) == 0) {
+            return false;
+        }
+        front = middle.getAndSet(front) & 3;
+        return true;
+    }
+
+    // Consumer side: the frame taken last
+    public int[] front() {
+        return buffers[front];
+    }
+
+    public long frontFrameNumber() {
+        return frameNumbers[front];
+    }
+}
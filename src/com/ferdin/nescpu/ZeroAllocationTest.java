@@ -0,0 +1,196 @@
+package com.ferdin.nescpu;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+public class ZeroAllocationTest {
+    // The steady state of every run loop must allocate nothing, with the
+    // debugging features and devices on too. Each case runs WARMUP_ROUNDS
+    // warm-up rounds, then ROUNDS measured rounds of about a million
+    // instructions must each allocate exactly 0 bytes on this thread.
+    //
+    // The first UNCHECKED_ROUNDS load classes and compile blocks. After
+    // that a warm-up round may only allocate for the blocks it decodes,
+    // the snake reaches some rare paths late, plus a few KB for the JIT:
+    // a method that deoptimizes reallocates the objects C2 had scalar
+    // replaced and runs interpreted until it is compiled again. These
+    // programs have a fixed set of blocks, so a measured round must not
+    // decode any.
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final int WARMUP_ROUNDS = 8;
+    private static final int UNCHECKED_ROUNDS = 2;
+    private static final int ROUNDS = 3;
+    private static final int BYTES_PER_DECODED_BLOCK = 1024;
+    private static final int JIT_BYTES_PER_ROUND = 4096;
+    private static final int FRAMES_PER_ROUND = 100;
+
+    // Every addressing mode, stack, JSR / RTS, a taken branch and an
+    // indirect JMP back to the start. Writes land in $0300, on screen.
+    private static final byte[] ALL_MODES = {
+        (byte)0xA9, 0x00, (byte)0x85, 0x10,         // LDA #$00 / STA $10
+        (byte)0xA9, 0x03, (byte)0x85, 0x11,         // LDA #$03 / STA $11: ($10) = $0300
+        (byte)0xA9, 0x00, (byte)0x85, 0x12,         // LDA #$00 / STA $12
+        (byte)0xA9, (byte)0x80, (byte)0x85, 0x13,   // LDA #$80 / STA $13: ($12) = $8000
+        (byte)0xA2, 0x04,                           // LDX #$04
+        (byte)0xA0, 0x02,                           // LDY #$02
+        (byte)0xA5, 0x10,                           // LDA $10
+        (byte)0xB5, 0x0C,                           // LDA $0C,X
+        (byte)0xB6, 0x0E,                           // LDX $0E,Y
+        (byte)0xA2, 0x04,                           // LDX #$04
+        (byte)0xAD, 0x00, 0x03,                     // LDA $0300
+        (byte)0xBD, (byte)0xFC, 0x02,               // LDA $02FC,X
+        (byte)0xB9, (byte)0xFE, 0x02,               // LDA $02FE,Y
+        (byte)0xA1, 0x0C,                           // LDA ($0C,X)
+        (byte)0xB1, 0x10,                           // LDA ($10),Y
+        (byte)0x9D, 0x00, 0x03,                     // STA $0300,X
+        (byte)0x91, 0x10,                           // STA ($10),Y
+        0x18, 0x69, 0x01,                           // CLC / ADC #$01
+        (byte)0xE5, 0x10,                           // SBC $10
+        0x2A,                                       // ROL A
+        0x66, 0x20,                                 // ROR $20
+        0x16, 0x21,                                 // ASL $21,X
+        0x4E, 0x00, 0x03,                           // LSR $0300
+        (byte)0xE6, 0x22, (byte)0xC6, 0x22,         // INC $22 / DEC $22
+        0x48, 0x68, 0x08, 0x28,                     // PHA / PLA / PHP / PLP
+        0x20, 0x00, (byte)0x81,                     // JSR $8100
+        (byte)0xC9, 0x00,                           // CMP #$00
+        (byte)0xF0, 0x01, (byte)0xEA,               // BEQ +1 / NOP
+        0x6C, 0x12, 0x00                            // JMP ($0012)
+    };
+    private static final byte[] SUBROUTINE = {(byte)0xC8, 0x60};   // INY / RTS at $8100
+
+    @BeforeAll
+    static void allocationCounting() {
+        assumeTrue(THREADS.isThreadAllocatedMemorySupported());
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    private static DemoNES allModes(String engine) {
+        DemoNES cpu = MacroBenchmark.newCpu(engine);
+        cpu.load(SUBROUTINE, 0x8100);
+        cpu.load(ALL_MODES, 0x8000);
+        cpu.reset();
+        return cpu;
+    }
+
+    private static void assertNoAllocation(String what, DemoNES cpu, int iterations, Runnable step) {
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            long decodedBefore = decoded(cpu);
+            long before = THREADS.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < iterations; i++) {
+                step.run();
+            }
+            long allocated = THREADS.getCurrentThreadAllocatedBytes() - before;
+            long decoded = decoded(cpu) - decodedBefore;
+            if (round >= WARMUP_ROUNDS) {
+                assertEquals(0, decoded, what + ": blocks decoded in measured round " + round);
+                assertEquals(0, allocated, what + ": bytes allocated in round " + round);
+            } else if (round >= UNCHECKED_ROUNDS) {
+                assertTrue(allocated <= decoded * BYTES_PER_DECODED_BLOCK + JIT_BYTES_PER_ROUND,
+                    what + ": " + allocated + " bytes allocated for " + decoded + " decoded blocks in round " + round);
+            }
+        }
+    }
+
+    private static long decoded(DemoNES cpu) {
+        BlockCache cache = cpu.blockCache();
+        return cache == null ? 0 : cache.blocksDecoded;
+    }
+
+    private static void runFrame(DemoNES cpu) {
+        if (cpu.runFrame() != DemoNES.RunResult.BUDGET_EXHAUSTED) {
+            cpu.reset();
+        }
+    }
+
+    @Test
+    void test_every_engine() {
+        for (String engine : MacroBenchmark.ENGINES) {
+            DemoNES cpu = allModes(engine);
+            assertNoAllocation("all modes on " + engine, cpu, FRAMES_PER_ROUND, () -> runFrame(cpu));
+            assertTrue(cpu.instructions > (WARMUP_ROUNDS + ROUNDS) * 500_000L, engine);
+        }
+    }
+
+    @Test
+    void test_snake_with_devices() {
+        for (String engine : MacroBenchmark.ENGINES) {
+            DemoNES cpu = MacroBenchmark.newCpu(engine);
+            cpu.load(TestGame.gameBytes(), TestGame.GAME_START);
+            RandomDevice.attach(cpu, 0xFE, 3);
+            InputDevice input = InputDevice.attach(cpu, 0xFF);
+            Framebuffer screen = new Framebuffer(cpu);
+            cpu.reset();
+            assertNoAllocation("snake on " + engine, cpu, FRAMES_PER_ROUND, () -> {
+                input.press(TestGame.KEYS[(int) (cpu.frameCount >> 3) & 3]);
+                runFrame(cpu);
+                screen.takeDirtyRows();
+            });
+        }
+    }
+
+    @Test
+    void test_hooks_and_tracing() {
+        String[] cases = {"trace", "instruction hook", "breakpoint", "frame hook", "write watch",
+            "rewind", "profiler", "coverage", "metrics", "everything"};
+        long[] calls = new long[1];
+        for (String name : cases) {
+            DemoNES cpu = allModes("interpreter");
+            boolean all = name.equals("everything");
+            if (all || name.equals("trace")) {
+                cpu.setTrace(new Trace(1024));
+            }
+            if (all || name.equals("instruction hook")) {
+                cpu.onEveryInstructions(100, c -> calls[0]++);
+            }
+            if (all || name.equals("breakpoint")) {
+                cpu.onBreakpoint(c -> calls[0]++);
+                cpu.addBreakpoint(0x8100);
+            }
+            if (all || name.equals("frame hook")) {
+                cpu.onFrame(c -> calls[0]++);
+            }
+            if (all || name.equals("write watch")) {
+                cpu.watchWrites(0x0300, 0x03FF, (c, addr, value) -> calls[0] += value);
+            }
+            if (all || name.equals("rewind")) {
+                new Rewind(cpu, 64, 1 << 20).recordEveryFrame();
+            }
+            if (all || name.equals("profiler")) {
+                cpu.setProfiler(new Profiler(cpu));
+            }
+            if (all || name.equals("coverage")) {
+                cpu.setCoverage(new Coverage());
+            }
+            if (all || name.equals("metrics")) {
+                cpu.setMetrics(new EmulatorMetrics(name));
+            }
+            assertNoAllocation(name, cpu, FRAMES_PER_ROUND, () -> runFrame(cpu));
+        }
+        assertTrue(calls[0] > 0);
+    }
+
+    @Test
+    void test_run_with_callback() {
+        DemoNES cpu = new DemoNES();
+        cpu.load(new byte[]{
+            (byte)0xA2, 0x00,           // LDX #$00
+            (byte)0xE8,                 // loop: INX
+            (byte)0xD0, (byte)0xFD,     // BNE loop
+            0x00                        // BRK
+        }, 0x8000);
+        long[] calls = new long[1];
+        DemoNES.CpuCallback counting = c -> calls[0]++;
+        // 514 instructions per run
+        assertNoAllocation("runWithCallback", cpu, 2000, () -> {
+            cpu.reset();
+            cpu.runWithCallback(counting);
+        });
+        assertEquals((WARMUP_ROUNDS + ROUNDS) * 2000L * 514, calls[0]);
+    }
+}